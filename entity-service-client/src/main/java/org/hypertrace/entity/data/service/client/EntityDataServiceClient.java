@@ -8,25 +8,33 @@ import io.grpc.Channel;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.hypertrace.core.grpcutils.client.GrpcClientRequestContextUtil;
 import org.hypertrace.core.grpcutils.client.RequestContextClientCallCredsProviderFactory;
 import org.hypertrace.entity.data.service.v1.AttributeFilter;
 import org.hypertrace.entity.data.service.v1.AttributeValue;
 import org.hypertrace.entity.data.service.v1.ByIdRequest;
+import org.hypertrace.entity.data.service.v1.ByIdsRequest;
 import org.hypertrace.entity.data.service.v1.ByTypeAndIdentifyingAttributes;
+import org.hypertrace.entity.data.service.v1.ByTypeAndIdentifyingAttributesBatch;
 import org.hypertrace.entity.data.service.v1.EnrichedEntities;
 import org.hypertrace.entity.data.service.v1.EnrichedEntity;
 import org.hypertrace.entity.data.service.v1.Entities;
 import org.hypertrace.entity.data.service.v1.Entity;
 import org.hypertrace.entity.data.service.v1.EntityDataServiceGrpc;
 import org.hypertrace.entity.data.service.v1.EntityDataServiceGrpc.EntityDataServiceBlockingStub;
+import org.hypertrace.entity.data.service.v1.EntityPatch;
+import org.hypertrace.entity.data.service.v1.EntityQueryPage;
 import org.hypertrace.entity.data.service.v1.EntityRelationship;
 import org.hypertrace.entity.data.service.v1.EntityRelationships;
 import org.hypertrace.entity.data.service.v1.Operator;
 import org.hypertrace.entity.data.service.v1.Query;
+import org.hypertrace.entity.data.service.v1.RelationshipDegreesRequest;
+import org.hypertrace.entity.data.service.v1.RelationshipTraversal;
 import org.hypertrace.entity.data.service.v1.RelationshipsQuery;
 import org.hypertrace.entity.data.service.v1.RelationshipsQuery.Builder;
 import org.slf4j.Logger;
@@ -69,6 +77,21 @@ public class EntityDataServiceClient implements EdsClient {
         () -> blockingStub.upsertEntities(Entities.newBuilder().addAllEntity(entities).build()));
   }
 
+  /**
+   * Adds, replaces and removes attributes of an entity without rewriting the rest of it. The
+   * entity is created from the patch if it does not exist yet.
+   *
+   * @return the patched entity
+   */
+  @Nullable
+  public Entity patch(String tenantId, EntityPatch patch) {
+    Entity result = execute(tenantId, () -> blockingStub.patch(patch));
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Patched entity: {}", result);
+    }
+    return result.equals(Entity.getDefaultInstance()) ? null : result;
+  }
+
   public void delete(String tenantId, String entityId) {
     execute(tenantId,
         () -> blockingStub.delete(ByIdRequest.newBuilder().setEntityId(entityId).build()));
@@ -84,6 +107,22 @@ public class EntityDataServiceClient implements EdsClient {
     return entity.equals(Entity.getDefaultInstance()) ? null : entity;
   }
 
+  /**
+   * Looks up many entities by type and identifying attributes in one round trip.
+   *
+   * @return the entity of each lookup, in the order of the lookups. Null when it was not found.
+   */
+  public List<Entity> getByTypesAndIdentifyingAttributes(
+      String tenantId, Collection<ByTypeAndIdentifyingAttributes> lookups) {
+    ByTypeAndIdentifyingAttributesBatch batch =
+        ByTypeAndIdentifyingAttributesBatch.newBuilder().addAllLookup(lookups).build();
+    return execute(tenantId, () -> blockingStub.getByTypesAndIdentifyingAttributes(batch))
+        .getEntityList().stream()
+        // Handle this here, so that callers can just do a null check
+        .map(entity -> entity.equals(Entity.getDefaultInstance()) ? null : entity)
+        .collect(Collectors.toList());
+  }
+
   @Override
   public List<Entity> getEntitiesByType(String tenantId, String entityType) {
     Query query = Query.newBuilder().setEntityType(entityType).build();
@@ -105,11 +144,29 @@ public class EntityDataServiceClient implements EdsClient {
     return entity.equals(Entity.getDefaultInstance()) ? null : entity;
   }
 
+  /**
+   * Looks up the entities of the given ids in one round trip.
+   *
+   * @return the found entities keyed by id. Ids without an entity are not in the map.
+   */
+  public Map<String, Entity> getByIds(String tenantId, Collection<String> entityIds) {
+    ByIdsRequest byIdsRequest = ByIdsRequest.newBuilder().addAllEntityId(entityIds).build();
+    return execute(tenantId, () -> blockingStub.getByIds(byIdsRequest)).getEntitiesMap();
+  }
+
   @VisibleForTesting
   public List<Entity> query(String tenantId, Query query) {
     return execute(tenantId, () -> Lists.newArrayList(blockingStub.query(query)));
   }
 
+  /**
+   * Reads one page of the entities matching the query. Pass the returned continuation token on the
+   * same query to read the next page.
+   */
+  public EntityQueryPage queryPage(String tenantId, Query query) {
+    return execute(tenantId, () -> blockingStub.queryPage(query));
+  }
+
   public List<Entity> getEntitiesWithGivenAttribute(
       String tenantId, String entityType, String attributeKey, AttributeValue attributeValue) {
     Query query = Query.newBuilder()
@@ -150,6 +207,35 @@ public class EntityDataServiceClient implements EdsClient {
     return execute(tenantId, () -> blockingStub.getRelationships(builder.build()));
   }
 
+  /**
+   * Reads the relationships matching the query, as they are streamed by the service. Set a limit
+   * and the last relationship read as start after on the query to read them page by page.
+   */
+  public Iterator<EntityRelationship> getRelationships(String tenantId, RelationshipsQuery query) {
+    return execute(tenantId, () -> blockingStub.getRelationships(query));
+  }
+
+  public long countRelationships(String tenantId, RelationshipsQuery query) {
+    return execute(tenantId, () -> blockingStub.countRelationships(query)).getTotal();
+  }
+
+  /** Reads the relationships followed by a traversal, hop by hop, as they are streamed. */
+  public Iterator<EntityRelationship> traverseRelationships(
+      String tenantId, RelationshipTraversal traversal) {
+    return execute(tenantId, () -> blockingStub.traverseRelationships(traversal));
+  }
+
+  /** @return whether each of the relationships is stored, in their order */
+  public List<Boolean> relationshipsExist(String tenantId, EntityRelationships relationships) {
+    return execute(tenantId, () -> blockingStub.relationshipsExist(relationships)).getExistsList();
+  }
+
+  /** @return the number of relationships from or to each entity of the request, by entity id */
+  public Map<String, Long> getRelationshipDegrees(
+      String tenantId, RelationshipDegreesRequest request) {
+    return execute(tenantId, () -> blockingStub.getRelationshipDegrees(request)).getDegreeMap();
+  }
+
   @Override
   public EnrichedEntity upsertEnrichedEntity(EnrichedEntity entity) {
     EnrichedEntity result =
@@ -177,6 +263,24 @@ public class EntityDataServiceClient implements EdsClient {
     }
   }
 
+  /**
+   * Bulk upsert the given enriched entities, without failing on the entities which could not be
+   * written.
+   *
+   * @param tenantId Tenant id for the enriched entities. All of them should belong to the same
+   *                 tenant.
+   * @param entities Enriched entities to be upserted.
+   * @return Ids of the enriched entities which could not be written, which can be retried.
+   */
+  public List<String> bulkUpsertEnrichedEntities(String tenantId, EnrichedEntities entities) {
+    List<String> failedEntityIds = execute(tenantId,
+        () -> blockingStub.bulkUpsertEnrichedEntities(entities)).getFailedEntityIdList();
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Upserted entities: {}, failed: {}", entities, failedEntityIds);
+    }
+    return failedEntityIds;
+  }
+
   @Nullable
   @Override
   public EnrichedEntity getEnrichedEntityById(String tenantId, String entityId) {
@@ -187,4 +291,35 @@ public class EntityDataServiceClient implements EdsClient {
     // Handle this here, so that callers can just do a null check
     return entity.equals(EnrichedEntity.getDefaultInstance()) ? null : entity;
   }
+
+  /**
+   * Looks up the enriched entities of the given ids in one round trip.
+   *
+   * @return the found enriched entities keyed by id. Ids without an entity are not in the map.
+   */
+  public Map<String, EnrichedEntity> getEnrichedEntitiesByIds(
+      String tenantId, Collection<String> entityIds) {
+    ByIdsRequest byIdsRequest = ByIdsRequest.newBuilder().addAllEntityId(entityIds).build();
+    return execute(tenantId, () -> blockingStub.getEnrichedEntitiesByIds(byIdsRequest))
+        .getEntitiesMap();
+  }
+
+  /**
+   * Looks up many enriched entities by type and identifying attributes in one round trip.
+   *
+   * @return the enriched entity of each lookup, in the order of the lookups. Null when it was not
+   *     found.
+   */
+  public List<EnrichedEntity> getEnrichedEntitiesByTypesAndIdentifyingAttributes(
+      String tenantId, Collection<ByTypeAndIdentifyingAttributes> lookups) {
+    ByTypeAndIdentifyingAttributesBatch batch =
+        ByTypeAndIdentifyingAttributesBatch.newBuilder().addAllLookup(lookups).build();
+    return execute(
+            tenantId,
+            () -> blockingStub.getEnrichedEntitiesByTypesAndIdentifyingAttributes(batch))
+        .getEntitiesList().stream()
+        // Handle this here, so that callers can just do a null check
+        .map(entity -> entity.equals(EnrichedEntity.getDefaultInstance()) ? null : entity)
+        .collect(Collectors.toList());
+  }
 }
@@ -0,0 +1,101 @@
+package org.hypertrace.entity.data.service;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Streams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.Key;
+import org.hypertrace.core.documentstore.SingleValueKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the documents of a bulk upsert in chunks of {@code chunkSize}. The chunks of a batch
+ * larger than a chunk are written concurrently on a bounded executor; once its queue is full, the
+ * calling thread writes the chunk itself. A failed chunk only fails its own entities.
+ */
+class ChunkedBulkUpserter {
+  private static final Logger LOG = LoggerFactory.getLogger(ChunkedBulkUpserter.class);
+
+  private final int chunkSize;
+  private final Executor executor;
+
+  ChunkedBulkUpserter(int chunkSize, int threads) {
+    this(
+        chunkSize,
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads),
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("entity-chunked-bulk-upsert-%d")
+                .build(),
+            new ThreadPoolExecutor.CallerRunsPolicy()));
+  }
+
+  ChunkedBulkUpserter(int chunkSize, Executor executor) {
+    this.chunkSize = chunkSize;
+    this.executor = executor;
+  }
+
+  /**
+   * Upserts the documents of the tenant, keyed by entity id.
+   *
+   * @return the ids of the entities which could not be written
+   */
+  Set<String> upsert(
+      Collection collection, String tenantId, Map<String, Document> documentsByEntityId) {
+    if (documentsByEntityId.size() <= this.chunkSize) {
+      return this.upsertChunk(collection, tenantId, documentsByEntityId);
+    }
+
+    List<CompletableFuture<Set<String>>> chunkFutures =
+        Streams.stream(Iterables.partition(documentsByEntityId.entrySet(), this.chunkSize))
+            .map(
+                chunk ->
+                    CompletableFuture.supplyAsync(
+                        () ->
+                            this.upsertChunk(
+                                collection,
+                                tenantId,
+                                chunk.stream()
+                                    .collect(
+                                        Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))),
+                        this.executor))
+            .collect(Collectors.toList());
+    return chunkFutures.stream()
+        .map(CompletableFuture::join)
+        .flatMap(Set::stream)
+        .collect(Collectors.toUnmodifiableSet());
+  }
+
+  private Set<String> upsertChunk(
+      Collection collection, String tenantId, Map<String, Document> documentsByEntityId) {
+    Map<Key, Document> documents = new HashMap<>();
+    documentsByEntityId.forEach(
+        (entityId, document) -> documents.put(new SingleValueKey(tenantId, entityId), document));
+    try {
+      if (collection.bulkUpsert(documents)) {
+        return Set.of();
+      }
+      LOG.warn("Failed to bulk upsert a chunk of {} entities", documents.size());
+    } catch (Throwable throwable) {
+      LOG.error("Failed to bulk upsert a chunk of {} entities", documents.size(), throwable);
+    }
+    return Set.copyOf(documentsByEntityId.keySet());
+  }
+}
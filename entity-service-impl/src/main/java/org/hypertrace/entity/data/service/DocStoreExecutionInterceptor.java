@@ -0,0 +1,168 @@
+package org.hypertrace.entity.data.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Context;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCall.Listener;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the handlers of unary and server streaming calls on a bounded doc store executor instead of
+ * the gRPC executor, so that slow doc store calls can not pile up an unbounded number of threads.
+ * Once the executor is saturated, calls are failed right away with {@code RESOURCE_EXHAUSTED}, and
+ * calls cancelled while queued are dropped without running. The handlers of client streaming calls
+ * run per message, so they are left on the gRPC executor.
+ *
+ * <p>With virtual threads, each call runs on its own virtual thread and the number of calls in
+ * flight is bounded to the thread count plus the queue size instead.
+ */
+class DocStoreExecutionInterceptor implements ServerInterceptor {
+  private static final Logger LOG = LoggerFactory.getLogger(DocStoreExecutionInterceptor.class);
+  private static final String EXECUTOR_METRIC_NAME = "entity.data.service.docstore.executor";
+  private static final String REJECTED_METRIC = EXECUTOR_METRIC_NAME + ".rejected";
+
+  private final Executor executor;
+  private final Counter rejectedCounter;
+
+  DocStoreExecutionInterceptor(int threads, int queueSize, boolean virtualThreads) {
+    this(buildExecutor(threads, queueSize, virtualThreads));
+  }
+
+  DocStoreExecutionInterceptor(Executor executor) {
+    this.executor = executor;
+    this.rejectedCounter =
+        Counter.builder(REJECTED_METRIC).register(PlatformMetricsRegistry.getMeterRegistry());
+  }
+
+  @Override
+  public <ReqT, RespT> Listener<ReqT> interceptCall(
+      ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+    Listener<ReqT> listener = next.startCall(call, headers);
+    if (!call.getMethodDescriptor().getType().clientSendsOneMessage()) {
+      return listener;
+    }
+    return new OffloadingListener<>(call, listener);
+  }
+
+  private static Executor buildExecutor(int threads, int queueSize, boolean virtualThreads) {
+    if (virtualThreads) {
+      try {
+        ExecutorService virtualThreadExecutor =
+            (ExecutorService)
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        return new BoundedExecutor(virtualThreadExecutor, threads + queueSize);
+      } catch (ReflectiveOperationException e) {
+        LOG.warn("Virtual threads are not supported by this JVM, using platform threads instead");
+      }
+    }
+
+    ThreadPoolExecutor threadPoolExecutor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("entity-docstore-io-%d")
+                .build(),
+            new ThreadPoolExecutor.AbortPolicy());
+    new ExecutorServiceMetrics(threadPoolExecutor, EXECUTOR_METRIC_NAME, Tags.empty())
+        .bindTo(PlatformMetricsRegistry.getMeterRegistry());
+    return threadPoolExecutor;
+  }
+
+  private class OffloadingListener<ReqT, RespT> extends SimpleForwardingServerCallListener<ReqT> {
+    private final ServerCall<ReqT, RespT> call;
+
+    private OffloadingListener(ServerCall<ReqT, RespT> call, Listener<ReqT> delegate) {
+      super(delegate);
+      this.call = call;
+    }
+
+    @Override
+    public void onHalfClose() {
+      // The request has been received in full, which is when the handler is invoked
+      Context context = Context.current();
+      try {
+        executor.execute(
+            context.wrap(
+                () -> {
+                  if (context.isCancelled()) {
+                    return;
+                  }
+                  try {
+                    this.delegate().onHalfClose();
+                  } catch (Throwable handlerFailure) {
+                    // Done by the gRPC executor for handlers running on it, errors included, so
+                    // that the call is never left open
+                    LOG.error("Call handler failed", handlerFailure);
+                    this.call.close(toStatus(handlerFailure), new Metadata());
+                  }
+                }));
+      } catch (RejectedExecutionException e) {
+        rejectedCounter.increment();
+        this.call.close(
+            Status.RESOURCE_EXHAUSTED.withDescription("Doc store executor is saturated"),
+            new Metadata());
+      }
+    }
+
+    /** @return the status carried by the failure if any, else an internal error */
+    private Status toStatus(Throwable handlerFailure) {
+      Status status = Status.fromThrowable(handlerFailure);
+      return status.getCode() == Status.Code.UNKNOWN
+          ? Status.INTERNAL.withDescription("Call handler failed").withCause(handlerFailure)
+          : status;
+    }
+  }
+
+  private static class BoundedExecutor implements Executor {
+    private final Executor delegate;
+    private final Semaphore permits;
+
+    private BoundedExecutor(Executor delegate, int maxInFlight) {
+      this.delegate = delegate;
+      this.permits = new Semaphore(maxInFlight);
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+      if (!this.permits.tryAcquire()) {
+        throw new RejectedExecutionException();
+      }
+      try {
+        this.delegate.execute(
+            () -> {
+              try {
+                runnable.run();
+              } finally {
+                this.permits.release();
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        this.permits.release();
+        throw e;
+      }
+    }
+  }
+}
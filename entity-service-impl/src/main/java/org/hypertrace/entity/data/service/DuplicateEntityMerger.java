@@ -0,0 +1,85 @@
+package org.hypertrace.entity.data.service;
+
+import io.micrometer.core.instrument.Counter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.entity.data.service.v1.EnrichedEntity;
+import org.hypertrace.entity.data.service.v1.Entity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collapses the entities of a bulk upsert that share an entity id into a single write. The last
+ * entity received for an id wins; optionally, the attributes of the earlier entities that the last
+ * one does not set are carried over onto it.
+ */
+class DuplicateEntityMerger {
+  private static final Logger LOG = LoggerFactory.getLogger(DuplicateEntityMerger.class);
+  private static final String COLLAPSED_DUPLICATES_METRIC =
+      "entity.data.service.upsert.collapsed.duplicates";
+
+  private final boolean unionAttributes;
+  private final Counter collapsedDuplicatesCounter;
+
+  DuplicateEntityMerger(boolean unionAttributes) {
+    this.unionAttributes = unionAttributes;
+    this.collapsedDuplicatesCounter =
+        Counter.builder(COLLAPSED_DUPLICATES_METRIC)
+            .register(PlatformMetricsRegistry.getMeterRegistry());
+  }
+
+  /** @return the merged entities keyed by entity id, in the order the ids were first received */
+  Map<String, Entity> mergeEntities(String tenantId, List<Entity> entities) {
+    return merge(tenantId, entities, Entity::getEntityId, this::unionAttributes);
+  }
+
+  /** @return the merged entities keyed by entity id, in the order the ids were first received */
+  Map<String, EnrichedEntity> mergeEnrichedEntities(
+      String tenantId, List<EnrichedEntity> entities) {
+    return merge(tenantId, entities, EnrichedEntity::getEntityId, this::unionAttributes);
+  }
+
+  private <T> Map<String, T> merge(
+      String tenantId,
+      List<T> entities,
+      Function<T, String> entityIdGetter,
+      BinaryOperator<T> attributeUnion) {
+    BinaryOperator<T> mergeFunction =
+        this.unionAttributes ? attributeUnion : (previous, latest) -> latest;
+    Map<String, T> entitiesById = new LinkedHashMap<>();
+    for (T entity : entities) {
+      entitiesById.merge(entityIdGetter.apply(entity), entity, mergeFunction);
+    }
+
+    int collapsedCount = entities.size() - entitiesById.size();
+    if (collapsedCount > 0) {
+      this.collapsedDuplicatesCounter.increment(collapsedCount);
+      LOG.debug(
+          "Collapsed {} duplicate entities of a bulk upsert of {} entities for tenant {}",
+          collapsedCount,
+          entities.size(),
+          tenantId);
+    }
+    return entitiesById;
+  }
+
+  private Entity unionAttributes(Entity previous, Entity latest) {
+    Entity.Builder builder = latest.toBuilder();
+    previous.getAttributesMap().entrySet().stream()
+        .filter(entry -> !latest.containsAttributes(entry.getKey()))
+        .forEach(entry -> builder.putAttributes(entry.getKey(), entry.getValue()));
+    return builder.build();
+  }
+
+  private EnrichedEntity unionAttributes(EnrichedEntity previous, EnrichedEntity latest) {
+    EnrichedEntity.Builder builder = latest.toBuilder();
+    previous.getAttributesMap().entrySet().stream()
+        .filter(entry -> !latest.containsAttributes(entry.getKey()))
+        .forEach(entry -> builder.putAttributes(entry.getKey(), entry.getValue()));
+    return builder.build();
+  }
+}
@@ -0,0 +1,257 @@
+package org.hypertrace.entity.data.service;
+
+import com.typesafe.config.Config;
+import java.time.Duration;
+
+/**
+ * Tunables of the {@link EntityDataServiceImpl}, read from the application config. Every setting is
+ * optional and falls back to a default that keeps the historical behavior.
+ */
+class EntityDataServiceConfig {
+  private static final String UPSERT_COALESCING_ENABLED_CONFIG =
+      "entity.data.service.upsert.coalescing.enabled";
+  private static final String UPSERT_COALESCING_MAX_BATCH_SIZE_CONFIG =
+      "entity.data.service.upsert.coalescing.max.batch.size";
+  private static final String UPSERT_COALESCING_MAX_LINGER_CONFIG =
+      "entity.data.service.upsert.coalescing.max.linger";
+  private static final String UPSERT_COALESCING_FLUSH_THREADS_CONFIG =
+      "entity.data.service.upsert.coalescing.flush.threads";
+  private static final String UPSERT_STREAM_BATCH_SIZE_CONFIG =
+      "entity.data.service.upsert.stream.batch.size";
+  private static final String NORMALIZATION_PARALLEL_THRESHOLD_CONFIG =
+      "entity.data.service.normalization.parallel.threshold";
+  private static final String UPSERT_DUPLICATES_UNION_ATTRIBUTES_CONFIG =
+      "entity.data.service.upsert.duplicates.union.attributes";
+
+  private static final String UPSERT_FINGERPRINT_COLLECTIONS_CONFIG =
+      "entity.data.service.upsert.fingerprint.collections";
+  private static final String UPSERT_FINGERPRINT_MAX_ENTRIES_PER_TENANT_CONFIG =
+      "entity.data.service.upsert.fingerprint.max.entries.per.tenant";
+  private static final String UPSERT_FINGERPRINT_EXPIRY_CONFIG =
+      "entity.data.service.upsert.fingerprint.expiry";
+  private static final String UPSERT_FINGERPRINT_PERSISTED_CONFIG =
+      "entity.data.service.upsert.fingerprint.persisted";
+  private static final String RELATIONSHIP_SEEN_CACHE_ENABLED_CONFIG =
+      "entity.data.service.relationship.seen.cache.enabled";
+  private static final String RELATIONSHIP_SEEN_CACHE_MAX_ENTRIES_PER_TENANT_CONFIG =
+      "entity.data.service.relationship.seen.cache.max.entries.per.tenant";
+  private static final String RELATIONSHIP_SEEN_CACHE_EXPIRY_CONFIG =
+      "entity.data.service.relationship.seen.cache.expiry";
+  private static final String BULK_UPSERT_CHUNK_SIZE_CONFIG =
+      "entity.data.service.bulk.upsert.chunk.size";
+  private static final String BULK_UPSERT_THREADS_CONFIG =
+      "entity.data.service.bulk.upsert.threads";
+  private static final String DOCSTORE_EXECUTOR_ENABLED_CONFIG =
+      "entity.data.service.docstore.executor.enabled";
+  private static final String DOCSTORE_EXECUTOR_THREADS_CONFIG =
+      "entity.data.service.docstore.executor.threads";
+  private static final String DOCSTORE_EXECUTOR_QUEUE_SIZE_CONFIG =
+      "entity.data.service.docstore.executor.queue.size";
+  private static final String DOCSTORE_EXECUTOR_VIRTUAL_THREADS_CONFIG =
+      "entity.data.service.docstore.executor.virtual.threads";
+  private static final String READ_CACHE_ENABLED_CONFIG = "entity.data.service.read.cache.enabled";
+  private static final String READ_CACHE_MAX_WEIGHT_BYTES_CONFIG =
+      "entity.data.service.read.cache.max.weight.bytes";
+  private static final String READ_CACHE_EXPIRY_CONFIG = "entity.data.service.read.cache.expiry";
+  private static final String GET_BY_IDS_CHUNK_SIZE_CONFIG =
+      "entity.data.service.get.by.ids.chunk.size";
+  private static final String RELATIONSHIP_TRAVERSAL_MAX_DEPTH_CONFIG =
+      "entity.data.service.relationship.traversal.max.depth";
+  private static final String RELATIONSHIP_INDEX_ENABLED_CONFIG =
+      "entity.data.service.relationship.index.enabled";
+  private static final String RELATIONSHIP_INDEX_MAX_WEIGHT_BYTES_CONFIG =
+      "entity.data.service.relationship.index.max.weight.bytes";
+  private static final String RELATIONSHIP_INDEX_MAX_RELATIONSHIPS_PER_TENANT_CONFIG =
+      "entity.data.service.relationship.index.max.relationships.per.tenant";
+  private static final String RELATIONSHIP_INDEX_EXPIRY_CONFIG =
+      "entity.data.service.relationship.index.expiry";
+
+  private static final int DEFAULT_UPSERT_COALESCING_MAX_BATCH_SIZE = 100;
+  private static final Duration DEFAULT_UPSERT_COALESCING_MAX_LINGER = Duration.ofMillis(5);
+  private static final int DEFAULT_UPSERT_COALESCING_FLUSH_THREADS = 4;
+  private static final int DEFAULT_UPSERT_STREAM_BATCH_SIZE = 500;
+  private static final int DEFAULT_NORMALIZATION_PARALLEL_THRESHOLD = 2000;
+  private static final int DEFAULT_UPSERT_FINGERPRINT_MAX_ENTRIES_PER_TENANT = 10000;
+  private static final Duration DEFAULT_UPSERT_FINGERPRINT_EXPIRY = Duration.ofMinutes(10);
+  private static final int DEFAULT_RELATIONSHIP_SEEN_CACHE_MAX_ENTRIES_PER_TENANT = 100000;
+  private static final Duration DEFAULT_RELATIONSHIP_SEEN_CACHE_EXPIRY = Duration.ofMinutes(30);
+  private static final int DEFAULT_BULK_UPSERT_CHUNK_SIZE = 1000;
+  private static final int DEFAULT_BULK_UPSERT_THREADS = 4;
+  private static final int DEFAULT_DOCSTORE_EXECUTOR_THREADS = 32;
+  private static final int DEFAULT_DOCSTORE_EXECUTOR_QUEUE_SIZE = 1000;
+  private static final long DEFAULT_READ_CACHE_MAX_WEIGHT_BYTES = 64L * 1024 * 1024;
+  private static final Duration DEFAULT_READ_CACHE_EXPIRY = Duration.ofMinutes(1);
+  private static final int DEFAULT_GET_BY_IDS_CHUNK_SIZE = 500;
+  private static final int DEFAULT_RELATIONSHIP_TRAVERSAL_MAX_DEPTH = 8;
+  private static final long DEFAULT_RELATIONSHIP_INDEX_MAX_WEIGHT_BYTES = 256L * 1024 * 1024;
+  private static final int DEFAULT_RELATIONSHIP_INDEX_MAX_RELATIONSHIPS_PER_TENANT = 1000000;
+  private static final Duration DEFAULT_RELATIONSHIP_INDEX_EXPIRY = Duration.ofMinutes(5);
+
+  private final Config config;
+
+  EntityDataServiceConfig(Config config) {
+    this.config = config;
+  }
+
+  boolean isUpsertCoalescingEnabled() {
+    return getBoolean(UPSERT_COALESCING_ENABLED_CONFIG, false);
+  }
+
+  int getUpsertCoalescingMaxBatchSize() {
+    return getInt(
+        UPSERT_COALESCING_MAX_BATCH_SIZE_CONFIG, DEFAULT_UPSERT_COALESCING_MAX_BATCH_SIZE);
+  }
+
+  Duration getUpsertCoalescingMaxLinger() {
+    return getDuration(UPSERT_COALESCING_MAX_LINGER_CONFIG, DEFAULT_UPSERT_COALESCING_MAX_LINGER);
+  }
+
+  int getUpsertCoalescingFlushThreads() {
+    return getInt(UPSERT_COALESCING_FLUSH_THREADS_CONFIG, DEFAULT_UPSERT_COALESCING_FLUSH_THREADS);
+  }
+
+  int getUpsertStreamBatchSize() {
+    return getInt(UPSERT_STREAM_BATCH_SIZE_CONFIG, DEFAULT_UPSERT_STREAM_BATCH_SIZE);
+  }
+
+  int getNormalizationParallelThreshold() {
+    return getInt(
+        NORMALIZATION_PARALLEL_THRESHOLD_CONFIG, DEFAULT_NORMALIZATION_PARALLEL_THRESHOLD);
+  }
+
+  boolean isUpsertDuplicatesUnionAttributesEnabled() {
+    return getBoolean(UPSERT_DUPLICATES_UNION_ATTRIBUTES_CONFIG, false);
+  }
+
+  /**
+   * Unchanged upserts are only skipped on the listed collections. Other replicas writing the same
+   * collection are not seen, so {@link #getUpsertFingerprintExpiry()} bounds how long a skipped
+   * write can leave their change in place.
+   */
+  boolean isUpsertFingerprintEnabled(String collectionName) {
+    return config.hasPath(UPSERT_FINGERPRINT_COLLECTIONS_CONFIG)
+        && config.getStringList(UPSERT_FINGERPRINT_COLLECTIONS_CONFIG).contains(collectionName);
+  }
+
+  int getUpsertFingerprintMaxEntriesPerTenant() {
+    return getInt(
+        UPSERT_FINGERPRINT_MAX_ENTRIES_PER_TENANT_CONFIG,
+        DEFAULT_UPSERT_FINGERPRINT_MAX_ENTRIES_PER_TENANT);
+  }
+
+  Duration getUpsertFingerprintExpiry() {
+    return getDuration(UPSERT_FINGERPRINT_EXPIRY_CONFIG, DEFAULT_UPSERT_FINGERPRINT_EXPIRY);
+  }
+
+  boolean isUpsertFingerprintPersisted() {
+    return getBoolean(UPSERT_FINGERPRINT_PERSISTED_CONFIG, false);
+  }
+
+  boolean isRelationshipSeenCacheEnabled() {
+    return getBoolean(RELATIONSHIP_SEEN_CACHE_ENABLED_CONFIG, false);
+  }
+
+  int getRelationshipSeenCacheMaxEntriesPerTenant() {
+    return getInt(
+        RELATIONSHIP_SEEN_CACHE_MAX_ENTRIES_PER_TENANT_CONFIG,
+        DEFAULT_RELATIONSHIP_SEEN_CACHE_MAX_ENTRIES_PER_TENANT);
+  }
+
+  Duration getRelationshipSeenCacheExpiry() {
+    return getDuration(
+        RELATIONSHIP_SEEN_CACHE_EXPIRY_CONFIG, DEFAULT_RELATIONSHIP_SEEN_CACHE_EXPIRY);
+  }
+
+  int getBulkUpsertChunkSize() {
+    return getInt(BULK_UPSERT_CHUNK_SIZE_CONFIG, DEFAULT_BULK_UPSERT_CHUNK_SIZE);
+  }
+
+  int getBulkUpsertThreads() {
+    return getInt(BULK_UPSERT_THREADS_CONFIG, DEFAULT_BULK_UPSERT_THREADS);
+  }
+
+  boolean isDocStoreExecutorEnabled() {
+    return getBoolean(DOCSTORE_EXECUTOR_ENABLED_CONFIG, false);
+  }
+
+  int getDocStoreExecutorThreads() {
+    return getInt(DOCSTORE_EXECUTOR_THREADS_CONFIG, DEFAULT_DOCSTORE_EXECUTOR_THREADS);
+  }
+
+  int getDocStoreExecutorQueueSize() {
+    return getInt(DOCSTORE_EXECUTOR_QUEUE_SIZE_CONFIG, DEFAULT_DOCSTORE_EXECUTOR_QUEUE_SIZE);
+  }
+
+  /** Only honored on JVMs supporting virtual threads, platform threads are used otherwise. */
+  boolean isDocStoreExecutorVirtualThreadsEnabled() {
+    return getBoolean(DOCSTORE_EXECUTOR_VIRTUAL_THREADS_CONFIG, false);
+  }
+
+  boolean isReadCacheEnabled() {
+    return getBoolean(READ_CACHE_ENABLED_CONFIG, false);
+  }
+
+  /** Bounds the serialized size of the entities cached, per collection. */
+  long getReadCacheMaxWeightBytes() {
+    return !config.hasPath(READ_CACHE_MAX_WEIGHT_BYTES_CONFIG)
+        ? DEFAULT_READ_CACHE_MAX_WEIGHT_BYTES
+        : config.getBytes(READ_CACHE_MAX_WEIGHT_BYTES_CONFIG);
+  }
+
+  /**
+   * Writes by other replicas are not seen, so this bounds how long they can be served a stale
+   * entity.
+   */
+  Duration getReadCacheExpiry() {
+    return getDuration(READ_CACHE_EXPIRY_CONFIG, DEFAULT_READ_CACHE_EXPIRY);
+  }
+
+  /** Maximum number of ids of a single IN query issued by the batch lookups. */
+  int getGetByIdsChunkSize() {
+    return getInt(GET_BY_IDS_CHUNK_SIZE_CONFIG, DEFAULT_GET_BY_IDS_CHUNK_SIZE);
+  }
+
+  /** Deepest relationship traversal accepted, bounding the number of hops of a single call. */
+  int getRelationshipTraversalMaxDepth() {
+    return getInt(
+        RELATIONSHIP_TRAVERSAL_MAX_DEPTH_CONFIG, DEFAULT_RELATIONSHIP_TRAVERSAL_MAX_DEPTH);
+  }
+
+  boolean isRelationshipIndexEnabled() {
+    return getBoolean(RELATIONSHIP_INDEX_ENABLED_CONFIG, false);
+  }
+
+  /** Bounds the estimated size of the relationship adjacency of all the tenants indexed. */
+  long getRelationshipIndexMaxWeightBytes() {
+    return !config.hasPath(RELATIONSHIP_INDEX_MAX_WEIGHT_BYTES_CONFIG)
+        ? DEFAULT_RELATIONSHIP_INDEX_MAX_WEIGHT_BYTES
+        : config.getBytes(RELATIONSHIP_INDEX_MAX_WEIGHT_BYTES_CONFIG);
+  }
+
+  /** Tenants with more relationships are not indexed, their queries go to the doc store. */
+  int getRelationshipIndexMaxRelationshipsPerTenant() {
+    return getInt(
+        RELATIONSHIP_INDEX_MAX_RELATIONSHIPS_PER_TENANT_CONFIG,
+        DEFAULT_RELATIONSHIP_INDEX_MAX_RELATIONSHIPS_PER_TENANT);
+  }
+
+  /**
+   * Relationships upserted through other replicas are not seen, so this bounds how long they can
+   * be missing from the index.
+   */
+  Duration getRelationshipIndexExpiry() {
+    return getDuration(RELATIONSHIP_INDEX_EXPIRY_CONFIG, DEFAULT_RELATIONSHIP_INDEX_EXPIRY);
+  }
+
+  private boolean getBoolean(String path, boolean defaultValue) {
+    return !config.hasPath(path) ? defaultValue : config.getBoolean(path);
+  }
+
+  private int getInt(String path, int defaultValue) {
+    return !config.hasPath(path) ? defaultValue : config.getInt(path);
+  }
+
+  private Duration getDuration(String path, Duration defaultValue) {
+    return !config.hasPath(path) ? defaultValue : config.getDuration(path);
+  }
+}
@@ -4,47 +4,75 @@ import static org.hypertrace.entity.service.constants.EntityCollectionConstants.
 import static org.hypertrace.entity.service.constants.EntityCollectionConstants.ENTITY_RELATIONSHIPS_COLLECTION;
 import static org.hypertrace.entity.service.constants.EntityCollectionConstants.RAW_ENTITIES_COLLECTION;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Streams;
 import com.google.protobuf.Descriptors;
 import com.google.protobuf.GeneratedMessageV3;
 import com.google.protobuf.Message;
 import com.google.protobuf.ServiceException;
+import com.typesafe.config.Config;
 import io.grpc.Channel;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.function.Function;
+import java.util.Set;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 import org.hypertrace.core.documentstore.Collection;
 import org.hypertrace.core.documentstore.Datastore;
 import org.hypertrace.core.documentstore.Document;
 import org.hypertrace.core.documentstore.Filter;
 import org.hypertrace.core.documentstore.JSONDocument;
 import org.hypertrace.core.documentstore.Key;
+import org.hypertrace.core.documentstore.OrderBy;
 import org.hypertrace.core.documentstore.SingleValueKey;
 import org.hypertrace.core.grpcutils.context.RequestContext;
+import org.hypertrace.entity.data.service.v1.AttributeValue;
+import org.hypertrace.entity.data.service.v1.BulkUpsertResponse;
 import org.hypertrace.entity.data.service.v1.ByIdRequest;
+import org.hypertrace.entity.data.service.v1.ByIdsRequest;
 import org.hypertrace.entity.data.service.v1.ByTypeAndIdentifyingAttributes;
+import org.hypertrace.entity.data.service.v1.ByTypeAndIdentifyingAttributesBatch;
 import org.hypertrace.entity.data.service.v1.Empty;
 import org.hypertrace.entity.data.service.v1.EnrichedEntities;
+import org.hypertrace.entity.data.service.v1.EnrichedEntitiesByIdResponse;
 import org.hypertrace.entity.data.service.v1.EnrichedEntity;
 import org.hypertrace.entity.data.service.v1.Entities;
+import org.hypertrace.entity.data.service.v1.EntitiesByIdResponse;
 import org.hypertrace.entity.data.service.v1.Entity;
+import org.hypertrace.entity.data.service.v1.EntityDataServiceGrpc;
 import org.hypertrace.entity.data.service.v1.EntityDataServiceGrpc.EntityDataServiceImplBase;
+import org.hypertrace.entity.data.service.v1.EntityPatch;
+import org.hypertrace.entity.data.service.v1.EntityQueryPage;
 import org.hypertrace.entity.data.service.v1.EntityRelationship;
 import org.hypertrace.entity.data.service.v1.EntityRelationships;
 import org.hypertrace.entity.data.service.v1.Query;
+import org.hypertrace.entity.data.service.v1.RelationshipDegrees;
+import org.hypertrace.entity.data.service.v1.RelationshipDegreesRequest;
+import org.hypertrace.entity.data.service.v1.RelationshipTraversal;
+import org.hypertrace.entity.data.service.v1.RelationshipsCount;
+import org.hypertrace.entity.data.service.v1.RelationshipsExistence;
 import org.hypertrace.entity.data.service.v1.RelationshipsQuery;
+import org.hypertrace.entity.data.service.v1.TraversalDirection;
+import org.hypertrace.entity.data.service.v1.UpsertEntityStreamSummary;
 import org.hypertrace.entity.service.constants.EntityServiceConstants;
 import org.hypertrace.entity.service.exception.InvalidRequestException;
 import org.hypertrace.entity.service.util.DocStoreConverter;
 import org.hypertrace.entity.service.util.DocStoreJsonFormat;
+import org.hypertrace.entity.service.util.FlowControlledStreamObserver;
 import org.hypertrace.entity.service.util.StringUtils;
 import org.hypertrace.entity.type.service.rxclient.EntityTypeClient;
 import org.slf4j.Logger;
@@ -57,23 +85,143 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
   private static final Logger LOG = LoggerFactory.getLogger(EntityDataServiceImpl.class);
   private static final DocumentParser PARSER = new DocumentParser();
   private static final DocStoreJsonFormat.Printer PRINTER = DocStoreJsonFormat.printer();
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String ATTRIBUTES_SUB_DOC_PATH_PREFIX = "attributes.";
 
   private final Collection entitiesCollection;
   private final Collection relationshipsCollection;
   private final Collection enrichedEntitiesCollection;
   private final EntityNormalizer upsertNormalizer;
   private final EntityIdGenerator entityIdGenerator;
+  private final Optional<EntityUpsertCoalescer> upsertCoalescer;
+  private final int upsertStreamBatchSize;
+  private final DuplicateEntityMerger duplicateEntityMerger;
+  private final EntityFingerprintCache entitiesFingerprintCache;
+  private final EntityFingerprintCache enrichedEntitiesFingerprintCache;
+  private final SeenRelationshipCache seenRelationshipCache;
+  private final ChunkedBulkUpserter chunkedBulkUpserter;
+  private final Optional<DocStoreExecutionInterceptor> docStoreExecutionInterceptor;
+  private final EntityReadCache<Entity> entitiesReadCache;
+  private final EntityReadCache<EnrichedEntity> enrichedEntitiesReadCache;
+  private final int getByIdsChunkSize;
+  private final KeyedDocumentSearch keyedDocumentSearch = new KeyedDocumentSearch();
+  // Entities modified in place, by patches or by other services
+  private final EntityWriteListener entitiesWriteListener =
+      new EntityWriteListener() {
+        @Override
+        public void beforeModifiedInPlace(String tenantId, String entityId) {
+          entitiesFingerprintCache.invalidateModifiedInPlace(tenantId, entityId);
+        }
+
+        @Override
+        public void afterModified(String tenantId, String entityId) {
+          entitiesReadCache.invalidate(tenantId, entityId);
+        }
+      };
+  private final RelationshipTraverser relationshipTraverser;
+  private final int relationshipTraversalMaxDepth;
+  private final RelationshipAdjacencyIndex relationshipAdjacencyIndex;
 
-  public EntityDataServiceImpl(Datastore datastore, Channel entityTypeChannel) {
+  public EntityDataServiceImpl(Datastore datastore, Channel entityTypeChannel, Config config) {
     this.entitiesCollection = datastore.getCollection(RAW_ENTITIES_COLLECTION);
     this.relationshipsCollection = datastore.getCollection(ENTITY_RELATIONSHIPS_COLLECTION);
     this.enrichedEntitiesCollection = datastore.getCollection(ENRICHED_ENTITIES_COLLECTION);
 
+    EntityDataServiceConfig serviceConfig = new EntityDataServiceConfig(config);
     this.entityIdGenerator = new EntityIdGenerator();
     EntityTypeClient entityTypeClient = EntityTypeClient.builder(entityTypeChannel).build();
     IdentifyingAttributeCache identifyingAttributeCache = new IdentifyingAttributeCache(datastore);
     this.upsertNormalizer =
-        new EntityNormalizer(entityTypeClient, this.entityIdGenerator, identifyingAttributeCache);
+        new EntityNormalizer(
+            entityTypeClient,
+            this.entityIdGenerator,
+            identifyingAttributeCache,
+            serviceConfig.getNormalizationParallelThreshold());
+
+    this.upsertCoalescer =
+        serviceConfig.isUpsertCoalescingEnabled()
+            ? Optional.of(
+                new EntityUpsertCoalescer(
+                    this.entitiesCollection,
+                    serviceConfig.getUpsertCoalescingMaxBatchSize(),
+                    serviceConfig.getUpsertCoalescingMaxLinger(),
+                    serviceConfig.getUpsertCoalescingFlushThreads()))
+            : Optional.empty();
+    this.upsertStreamBatchSize = serviceConfig.getUpsertStreamBatchSize();
+    this.duplicateEntityMerger =
+        new DuplicateEntityMerger(serviceConfig.isUpsertDuplicatesUnionAttributesEnabled());
+    this.entitiesFingerprintCache =
+        buildFingerprintCache(serviceConfig, this.entitiesCollection, RAW_ENTITIES_COLLECTION);
+    this.enrichedEntitiesFingerprintCache =
+        buildFingerprintCache(
+            serviceConfig, this.enrichedEntitiesCollection, ENRICHED_ENTITIES_COLLECTION);
+    this.seenRelationshipCache =
+        new SeenRelationshipCache(
+            serviceConfig.isRelationshipSeenCacheEnabled(),
+            serviceConfig.getRelationshipSeenCacheMaxEntriesPerTenant(),
+            serviceConfig.getRelationshipSeenCacheExpiry());
+    this.chunkedBulkUpserter =
+        new ChunkedBulkUpserter(
+            serviceConfig.getBulkUpsertChunkSize(), serviceConfig.getBulkUpsertThreads());
+    this.docStoreExecutionInterceptor =
+        serviceConfig.isDocStoreExecutorEnabled()
+            ? Optional.of(
+                new DocStoreExecutionInterceptor(
+                    serviceConfig.getDocStoreExecutorThreads(),
+                    serviceConfig.getDocStoreExecutorQueueSize(),
+                    serviceConfig.isDocStoreExecutorVirtualThreadsEnabled()))
+            : Optional.empty();
+    this.entitiesReadCache = buildReadCache(serviceConfig, RAW_ENTITIES_COLLECTION);
+    this.enrichedEntitiesReadCache = buildReadCache(serviceConfig, ENRICHED_ENTITIES_COLLECTION);
+    this.getByIdsChunkSize = serviceConfig.getGetByIdsChunkSize();
+    this.relationshipTraverser =
+        new RelationshipTraverser(this.relationshipsCollection, PARSER, this.getByIdsChunkSize);
+    this.relationshipTraversalMaxDepth = serviceConfig.getRelationshipTraversalMaxDepth();
+    this.relationshipAdjacencyIndex =
+        new RelationshipAdjacencyIndex(
+            this.relationshipsCollection,
+            PARSER,
+            serviceConfig.isRelationshipIndexEnabled(),
+            serviceConfig.getRelationshipIndexMaxWeightBytes(),
+            serviceConfig.getRelationshipIndexMaxRelationshipsPerTenant(),
+            serviceConfig.getRelationshipIndexExpiry());
+  }
+
+  /**
+   * Binds the service with its handlers running on the doc store executor, when that execution
+   * mode is enabled.
+   */
+  @Override
+  public ServerServiceDefinition bindService() {
+    ServerServiceDefinition serviceDefinition = super.bindService();
+    return this.docStoreExecutionInterceptor
+        .map(interceptor -> ServerInterceptors.intercept(serviceDefinition, interceptor))
+        .orElse(serviceDefinition);
+  }
+
+  /** @return the listener to notify of the writes made to the entities by other services */
+  public EntityWriteListener getEntitiesWriteListener() {
+    return this.entitiesWriteListener;
+  }
+
+  private static <T extends Message> EntityReadCache<T> buildReadCache(
+      EntityDataServiceConfig serviceConfig, String collectionName) {
+    return new EntityReadCache<>(
+        collectionName,
+        serviceConfig.isReadCacheEnabled(),
+        serviceConfig.getReadCacheMaxWeightBytes(),
+        serviceConfig.getReadCacheExpiry());
+  }
+
+  private static EntityFingerprintCache buildFingerprintCache(
+      EntityDataServiceConfig serviceConfig, Collection collection, String collectionName) {
+    return new EntityFingerprintCache(
+        collection,
+        collectionName,
+        serviceConfig.isUpsertFingerprintEnabled(collectionName),
+        serviceConfig.getUpsertFingerprintMaxEntriesPerTenant(),
+        serviceConfig.getUpsertFingerprintExpiry(),
+        serviceConfig.isUpsertFingerprintPersisted());
   }
 
   /**
@@ -95,12 +243,18 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
 
     try {
       Entity normalizedEntity = this.upsertNormalizer.normalize(tenantId, request);
+      if (this.upsertCoalescer.isPresent()) {
+        coalesceUpsert(tenantId, normalizedEntity, this.upsertCoalescer.get(), responseObserver);
+        return;
+      }
       upsertEntity(
           tenantId,
           normalizedEntity.getEntityId(),
           normalizedEntity,
           Entity.newBuilder(),
           entitiesCollection,
+          entitiesFingerprintCache,
+          entitiesReadCache,
           responseObserver);
     } catch (Throwable throwable) {
       LOG.warn("Failed to upsert: {}", request, throwable);
@@ -118,10 +272,15 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
 
     try {
       Map<String, Entity> entities =
-          request.getEntityList().stream()
-              .map(entity -> this.upsertNormalizer.normalize(tenantId, entity))
-              .collect(Collectors.toUnmodifiableMap(Entity::getEntityId, Function.identity()));
-      upsertEntities(tenantId, entities, entitiesCollection, responseObserver);
+          this.duplicateEntityMerger.mergeEntities(
+              tenantId, this.upsertNormalizer.normalize(tenantId, request.getEntityList()));
+      upsertEntities(
+          tenantId,
+          entities,
+          entitiesCollection,
+          entitiesFingerprintCache,
+          entitiesReadCache,
+          responseObserver);
     } catch (Throwable throwable) {
       LOG.warn("Failed to upsert: {}", request, throwable);
       responseObserver.onError(throwable);
@@ -136,30 +295,160 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
       return;
     }
 
+    FlowControlledStreamObserver<Entity> responseStream =
+        new FlowControlledStreamObserver<>(
+            EntityDataServiceGrpc.getGetAndUpsertEntitiesMethod(), responseObserver);
     try {
       Map<String, Entity> entityMap =
-          request.getEntityList().stream()
-              .map(entity -> this.upsertNormalizer.normalize(tenantId, entity))
-              .collect(Collectors.toUnmodifiableMap(Entity::getEntityId, Function.identity()));
+          this.duplicateEntityMerger.mergeEntities(
+              tenantId, this.upsertNormalizer.normalize(tenantId, request.getEntityList()));
 
+      // The older documents are returned, so unchanged entities are written too
       Map<Key, Document> documentMap = new HashMap<>();
+      Map<String, String> fingerprints = new HashMap<>();
       for (Map.Entry<String, Entity> entry : entityMap.entrySet()) {
-        Document doc = convertEntityToDocument(entry.getValue());
+        String fingerprint = entitiesFingerprintCache.fingerprint(entry.getValue());
+        Document doc =
+            convertEntityToDocument(entry.getValue(), fingerprint, entitiesFingerprintCache);
         SingleValueKey key = new SingleValueKey(tenantId, entry.getKey());
         documentMap.put(key, doc);
+        fingerprints.put(entry.getKey(), fingerprint);
       }
 
-      Streams.stream(entitiesCollection.bulkUpsertAndReturnOlderDocuments(documentMap))
+      Iterator<Document> olderDocuments;
+      try {
+        olderDocuments = entitiesCollection.bulkUpsertAndReturnOlderDocuments(documentMap);
+      } catch (IOException e) {
+        fingerprints
+            .keySet()
+            .forEach(entityId -> entitiesFingerprintCache.invalidate(tenantId, entityId));
+        throw e;
+      } finally {
+        entitiesReadCache.invalidateAll(tenantId, entityMap.keySet());
+      }
+      fingerprints.forEach(
+          (entityId, fingerprint) ->
+              entitiesFingerprintCache.recordWrite(tenantId, entityId, fingerprint, null));
+
+      Streams.stream(olderDocuments)
+          .takeWhile(document -> !responseStream.isCancelled())
           .flatMap(document -> PARSER.<Entity>parseOrLog(document, Entity.newBuilder()).stream())
           .map(Entity::toBuilder)
           .map(builder -> builder.setTenantId(tenantId))
           .map(Entity.Builder::build)
-          .forEach(responseObserver::onNext);
+          .forEach(responseStream::onNext);
 
-      responseObserver.onCompleted();
+      responseStream.onCompleted();
     } catch (IOException e) {
       LOG.error("Failed to bulk upsert entities", e);
-      responseObserver.onError(e);
+      responseStream.onError(e);
+    }
+  }
+
+  /**
+   * Upserts a client stream of entities. The entities are normalized as they arrive and written in
+   * bulk upserts of a configured size. The summary is sent once the client completes the stream.
+   *
+   * @param responseObserver Observer to be notified of the summary of the upserts
+   * @return Observer of the streamed entities
+   */
+  @Override
+  public StreamObserver<Entity> upsertEntityStream(
+      StreamObserver<UpsertEntityStreamSummary> responseObserver) {
+    String tenantId = RequestContext.CURRENT.get().getTenantId().orElse(null);
+    if (tenantId == null) {
+      responseObserver.onError(new ServiceException("Tenant id is missing in the request."));
+      return new StreamObserver<>() {
+        @Override
+        public void onNext(Entity entity) {}
+
+        @Override
+        public void onError(Throwable throwable) {}
+
+        @Override
+        public void onCompleted() {}
+      };
+    }
+
+    return new EntityStreamUpserter(
+            tenantId,
+            this.upsertNormalizer,
+            this.entitiesCollection,
+            this.entitiesFingerprintCache,
+            this.entitiesReadCache,
+            this.upsertStreamBatchSize,
+            (ServerCallStreamObserver<UpsertEntityStreamSummary>) responseObserver)
+        .start();
+  }
+
+  /**
+   * Patches the attributes of an Entity <br>
+   * The entity is identified the same way as on upsert. Attributes of the patch are added to or
+   * replace the stored ones, and the removed attributes are deleted, each as a sub document
+   * update, so the rest of the stored entity is neither sent nor rewritten. If the entity does not
+   * exist yet, it is created from the patch instead. Attributes are written one at a time, so the
+   * attributes which could not be written are reported in the error, while the others stay patched.
+   *
+   * @param request Patch of the Entity
+   * @param responseObserver Observer to be notified of the patched Entity
+   */
+  @Override
+  public void patch(EntityPatch request, StreamObserver<Entity> responseObserver) {
+    String tenantId = RequestContext.CURRENT.get().getTenantId().orElse(null);
+    if (tenantId == null) {
+      responseObserver.onError(new ServiceException("Tenant id is missing in the request."));
+      return;
+    }
+
+    try {
+      Entity normalizedEntity = this.upsertNormalizer.normalize(tenantId, request.getEntity());
+      validateAttributeNames(normalizedEntity.getAttributesMap().keySet());
+      validateAttributeNames(request.getRemovedAttributeList());
+      String entityId = normalizedEntity.getEntityId();
+      SingleValueKey key = new SingleValueKey(tenantId, entityId);
+
+      if (this.keyedDocumentSearch.findOne(entitiesCollection, key).isEmpty()) {
+        Entity.Builder builder = normalizedEntity.toBuilder();
+        request.getRemovedAttributeList().forEach(builder::removeAttributes);
+        upsertEntity(
+            tenantId,
+            entityId,
+            builder.build(),
+            Entity.newBuilder(),
+            entitiesCollection,
+            entitiesFingerprintCache,
+            entitiesReadCache,
+            responseObserver);
+        return;
+      }
+
+      List<String> failedAttributes;
+      entitiesWriteListener.beforeModifiedInPlace(tenantId, entityId);
+      try {
+        failedAttributes =
+            patchAttributes(
+                key, normalizedEntity.getAttributesMap(), request.getRemovedAttributeList());
+      } finally {
+        entitiesWriteListener.afterModified(tenantId, entityId);
+      }
+      if (!failedAttributes.isEmpty()) {
+        responseObserver.onError(
+            new RuntimeException(
+                String.format(
+                    "Could not patch attributes %s of entity %s, the others were patched.",
+                    failedAttributes, entityId)));
+        return;
+      }
+      searchByIdAndStreamSingleResponse(
+          tenantId,
+          entityId,
+          entitiesCollection,
+          entitiesReadCache,
+          Entity.newBuilder(),
+          responseObserver);
+    } catch (Throwable throwable) {
+      LOG.warn("Failed to patch: {}", request, throwable);
+      responseObserver.onError(throwable);
     }
   }
 
@@ -188,10 +477,48 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
         tenantId.get(),
         request.getEntityId(),
         entitiesCollection,
+        entitiesReadCache,
         Entity.newBuilder(),
         responseObserver);
   }
 
+  /**
+   * Get the Entities of the given ids in one round trip
+   *
+   * @param request IDs of the entities to be fetched
+   * @param responseObserver Observer to be notified of the found entities and the missing ids
+   */
+  @Override
+  public void getByIds(
+      ByIdsRequest request, StreamObserver<EntitiesByIdResponse> responseObserver) {
+    try {
+      validate(request);
+    } catch (InvalidRequestException e) {
+      responseObserver.onError(e);
+      return;
+    }
+
+    Optional<String> tenantId = RequestContext.CURRENT.get().getTenantId();
+    if (tenantId.isEmpty()) {
+      responseObserver.onError(new ServiceException("Tenant id is missing in the request."));
+      return;
+    }
+
+    Map<String, Entity> entities =
+        searchByIds(
+            tenantId.get(),
+            request.getEntityIdList(),
+            entitiesCollection,
+            entitiesReadCache,
+            Entity.newBuilder());
+    responseObserver.onNext(
+        EntitiesByIdResponse.newBuilder()
+            .putAllEntities(entities)
+            .addAllMissingEntityId(getMissingEntityIds(request, entities))
+            .build());
+    responseObserver.onCompleted();
+  }
+
   /**
    * Get an Entity by the EntityType and its identifying attributes
    *
@@ -218,7 +545,46 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
         this.entityIdGenerator.generateEntityId(
             tenantId, request.getEntityType(), request.getIdentifyingAttributesMap());
     searchByIdAndStreamSingleResponse(
-        tenantId, entityId, entitiesCollection, Entity.newBuilder(), responseObserver);
+        tenantId,
+        entityId,
+        entitiesCollection,
+        entitiesReadCache,
+        Entity.newBuilder(),
+        responseObserver);
+  }
+
+  /**
+   * Get many Entities by their EntityType and identifying attributes in one round trip
+   *
+   * @param request Lookups of the entities to be fetched
+   * @param responseObserver Observer to be notified of the entities, aligned with the lookups
+   */
+  @Override
+  public void getByTypesAndIdentifyingAttributes(
+      ByTypeAndIdentifyingAttributesBatch request, StreamObserver<Entities> responseObserver) {
+    try {
+      validate(request);
+    } catch (InvalidRequestException e) {
+      responseObserver.onError(e);
+      return;
+    }
+
+    String tenantId = RequestContext.CURRENT.get().getTenantId().orElse(null);
+    if (tenantId == null) {
+      responseObserver.onError(new ServiceException("Tenant id is missing in the request."));
+      return;
+    }
+
+    List<String> entityIds =
+        this.entityIdGenerator.generateEntityIds(tenantId, request.getLookupList());
+    Map<String, Entity> entities =
+        searchByIds(
+            tenantId, entityIds, entitiesCollection, entitiesReadCache, Entity.newBuilder());
+    responseObserver.onNext(
+        Entities.newBuilder()
+            .addAllEntity(alignToIds(entityIds, entities, Entity.getDefaultInstance()))
+            .build());
+    responseObserver.onCompleted();
   }
 
   /**
@@ -243,7 +609,10 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
 
     SingleValueKey key = new SingleValueKey(tenantId.get(), request.getEntityId());
 
-    if (entitiesCollection.delete(key)) {
+    entitiesFingerprintCache.invalidate(tenantId.get(), request.getEntityId());
+    boolean deleted = entitiesCollection.delete(key);
+    entitiesReadCache.invalidate(tenantId.get(), request.getEntityId());
+    if (deleted) {
       responseObserver.onNext(Empty.newBuilder().build());
       responseObserver.onCompleted();
     } else {
@@ -266,14 +635,81 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
       return;
     }
 
-    Streams.stream(entitiesCollection.search(DocStoreConverter.transform(tenantId.get(), request, Collections.emptyList())))
+    org.hypertrace.core.documentstore.Query docStoreQuery =
+        DocStoreConverter.transform(tenantId.get(), request, getSelections(request));
+    if (!request.getContinuationToken().isEmpty()) {
+      try {
+        QueryContinuation.apply(request, docStoreQuery);
+      } catch (InvalidRequestException e) {
+        responseObserver.onError(e);
+        return;
+      }
+    }
+
+    FlowControlledStreamObserver<Entity> responseStream =
+        new FlowControlledStreamObserver<>(
+            EntityDataServiceGrpc.getQueryMethod(), responseObserver);
+    // The cursor is not read any further once the call is cancelled
+    Streams.stream(entitiesCollection.search(docStoreQuery))
+        .takeWhile(document -> !responseStream.isCancelled())
         .flatMap(
             document -> PARSER.<Entity>parseOrLog(document, Entity.newBuilder()).stream())
         .map(Entity::toBuilder)
         .map(builder -> builder.setTenantId(tenantId.get()))
         .map(Entity.Builder::build)
-        .forEach(responseObserver::onNext);
+        .forEach(responseStream::onNext);
 
+    responseStream.onCompleted();
+  }
+
+  /**
+   * Fetch one page of entities by applying filters, ordered by the requested order by and then by
+   * id, so that pages never overlap
+   *
+   * @param request Query filters to be applied, along with the token of the previous page if any
+   * @param responseObserver Observer to be notified of the page and the token of the next one
+   */
+  @Override
+  public void queryPage(Query request, StreamObserver<EntityQueryPage> responseObserver) {
+    logQuery(request);
+    Optional<String> tenantId = RequestContext.CURRENT.get().getTenantId();
+    if (tenantId.isEmpty()) {
+      responseObserver.onError(new ServiceException("Tenant id is missing in the request."));
+      return;
+    }
+
+    org.hypertrace.core.documentstore.Query docStoreQuery =
+        DocStoreConverter.transform(tenantId.get(), request, getSelections(request));
+    int offset;
+    try {
+      offset = QueryContinuation.apply(request, docStoreQuery);
+    } catch (InvalidRequestException e) {
+      responseObserver.onError(e);
+      return;
+    }
+
+    EntityQueryPage.Builder page = EntityQueryPage.newBuilder();
+    Document lastDocument = null;
+    int readCount = 0;
+    Iterator<Document> documents = entitiesCollection.search(docStoreQuery);
+    while (documents.hasNext()) {
+      lastDocument = documents.next();
+      readCount++;
+      this.<Entity>parseDocument(tenantId.get(), lastDocument, Entity.newBuilder())
+          .ifPresent(page::addEntity);
+    }
+
+    try {
+      if (lastDocument != null) {
+        QueryContinuation.next(request, offset, tenantId.get(), lastDocument, readCount)
+            .ifPresent(page::setContinuationToken);
+      }
+    } catch (IOException e) {
+      LOG.error("Failed to build the continuation token of query: {}", request, e);
+      responseObserver.onError(e);
+      return;
+    }
+    responseObserver.onNext(page.build());
     responseObserver.onCompleted();
   }
 
@@ -287,6 +723,7 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
     }
 
     Map<Key, Document> entityRelations = new HashMap<>();
+    Map<EntityRelationshipDocKey, EntityRelationship> unseenRelationships = new HashMap<>();
     try {
 
       for (EntityRelationship relationship : request.getRelationshipList()) {
@@ -297,25 +734,36 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
           continue;
         }
 
-        Document document = convertEntityRelationshipToDocument(tenantId, relationship);
-        Key key =
+        EntityRelationship tenantRelationship =
+            EntityRelationship.newBuilder(relationship).setTenantId(tenantId).build();
+        EntityRelationshipDocKey key =
             new EntityRelationshipDocKey(
                 tenantId,
                 relationship.getEntityRelationshipType(),
                 relationship.getFromEntityId(),
                 relationship.getToEntityId());
+        // Already stored as is, no need to serialize and write it again
+        if (seenRelationshipCache.isSeen(tenantId, key, tenantRelationship)) {
+          continue;
+        }
 
-        entityRelations.put(key, document);
+        entityRelations.put(key, convertEntityRelationshipToDocument(tenantRelationship));
+        unseenRelationships.put(key, tenantRelationship);
       }
 
-      boolean status = relationshipsCollection.bulkUpsert(entityRelations);
+      boolean status =
+          entityRelations.isEmpty() || relationshipsCollection.bulkUpsert(entityRelations);
       if (status) {
+        seenRelationshipCache.markSeen(tenantId, unseenRelationships);
+        relationshipAdjacencyIndex.recordUpserts(tenantId, unseenRelationships.values());
         responseObserver.onNext(Empty.newBuilder().build());
         responseObserver.onCompleted();
       } else {
+        relationshipAdjacencyIndex.invalidate(tenantId);
         responseObserver.onError(new RuntimeException("Could not bulk upsert relationships."));
       }
     } catch (IOException e) {
+      relationshipAdjacencyIndex.invalidate(tenantId);
       LOG.error("Failed to bulk upsert relationships.", e);
       responseObserver.onError(e);
     }
@@ -332,10 +780,250 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
       return;
     }
 
+    if (query.getLimit() < 0) {
+      responseObserver.onError(
+          new InvalidRequestException("Limit of relationships query can not be negative"));
+      return;
+    }
+
+    FlowControlledStreamObserver<EntityRelationship> responseStream =
+        new FlowControlledStreamObserver<>(
+            EntityDataServiceGrpc.getGetRelationshipsMethod(), responseObserver);
+    if (relationshipAdjacencyIndex.stream(tenantId.get(), query, responseStream)) {
+      responseStream.onCompleted();
+      return;
+    }
+
+    org.hypertrace.core.documentstore.Query docStoreQuery =
+        buildRelationshipsQuery(tenantId.get(), query);
+    if (query.hasStartAfter()) {
+      EntityRelationshipDocKey startAfterKey =
+          new EntityRelationshipDocKey(
+              tenantId.get(),
+              query.getStartAfter().getEntityRelationshipType(),
+              query.getStartAfter().getFromEntityId(),
+              query.getStartAfter().getToEntityId());
+      Filter filter = new Filter();
+      filter.setOp(Filter.Op.AND);
+      filter.setChildFilters(
+          new Filter[] {
+            docStoreQuery.getFilter(),
+            new Filter(Filter.Op.GT, EntityServiceConstants.ID, startAfterKey.toString())
+          });
+      docStoreQuery.setFilter(filter);
+    }
+    if (query.hasStartAfter() || query.getLimit() > 0) {
+      // Pages are continued from their last relationship, so they need a stable order
+      docStoreQuery.addOrderBy(new OrderBy(EntityServiceConstants.ID, true));
+    }
+    if (query.getLimit() > 0) {
+      docStoreQuery.setLimit(query.getLimit());
+    }
+
+    searchByQueryAndStreamRelationships(docStoreQuery, responseStream, tenantId.get());
+  }
+
+  /**
+   * Count the relationships matching the query
+   *
+   * @param query Filters of the relationships to be counted
+   * @param responseObserver Observer to be notified of the count
+   */
+  @Override
+  public void countRelationships(
+      RelationshipsQuery query, StreamObserver<RelationshipsCount> responseObserver) {
+    logQuery(query);
+
+    Optional<String> tenantId = RequestContext.CURRENT.get().getTenantId();
+    if (tenantId.isEmpty()) {
+      responseObserver.onError(new ServiceException("Tenant id is missing in the request."));
+      return;
+    }
+
+    long total = relationshipsCollection.total(buildRelationshipsQuery(tenantId.get(), query));
+    responseObserver.onNext(RelationshipsCount.newBuilder().setTotal(total).build());
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Follow relationships breadth first from the start entities
+   *
+   * @param request Start entities, relationship types, direction and bounds of the traversal
+   * @param responseObserver Observer to be notified of every relationship followed
+   */
+  @Override
+  public void traverseRelationships(
+      RelationshipTraversal request, StreamObserver<EntityRelationship> responseObserver) {
+    logQuery(request);
+
+    Optional<String> tenantId = RequestContext.CURRENT.get().getTenantId();
+    if (tenantId.isEmpty()) {
+      responseObserver.onError(new ServiceException("Tenant id is missing in the request."));
+      return;
+    }
+
+    int maxDepth =
+        request.getMaxDepth() > 0 ? request.getMaxDepth() : request.getHopRelationshipTypeCount();
+    try {
+      validate(request, maxDepth);
+    } catch (InvalidRequestException e) {
+      responseObserver.onError(e);
+      return;
+    }
+
+    this.relationshipTraverser.traverse(
+        tenantId.get(),
+        request,
+        maxDepth,
+        new FlowControlledStreamObserver<>(
+            EntityDataServiceGrpc.getTraverseRelationshipsMethod(), responseObserver));
+  }
+
+  /**
+   * Tell which of the relationships are stored, by searching their doc store keys
+   *
+   * @param request Relationships to look up, by type, from and to entity ids
+   * @param responseObserver Observer to be notified of whether each relationship is stored
+   */
+  @Override
+  public void relationshipsExist(
+      EntityRelationships request, StreamObserver<RelationshipsExistence> responseObserver) {
+    logQuery(request);
+
+    Optional<String> tenantId = RequestContext.CURRENT.get().getTenantId();
+    if (tenantId.isEmpty()) {
+      responseObserver.onError(new ServiceException("Tenant id is missing in the request."));
+      return;
+    }
+
+    List<String> keys = new ArrayList<>();
+    for (EntityRelationship relationship : request.getRelationshipList()) {
+      if (StringUtils.isEmpty(relationship.getFromEntityId())
+          || StringUtils.isEmpty(relationship.getToEntityId())
+          || StringUtils.isEmpty(relationship.getEntityRelationshipType())) {
+        responseObserver.onError(
+            new InvalidRequestException(
+                "Relationship type, from and to entity ids are needed to look up a relationship"));
+        return;
+      }
+      keys.add(
+          new EntityRelationshipDocKey(
+                  tenantId.get(),
+                  relationship.getEntityRelationshipType(),
+                  relationship.getFromEntityId(),
+                  relationship.getToEntityId())
+              .toString());
+    }
+
+    Set<String> existingKeys = new HashSet<>();
+    try {
+      for (List<String> chunk :
+          Iterables.partition(new LinkedHashSet<>(keys), getByIdsChunkSize)) {
+        existingKeys.addAll(getExistingRelationshipKeys(tenantId.get(), chunk));
+      }
+    } catch (IOException e) {
+      LOG.error("Failed to look up relationships.", e);
+      responseObserver.onError(e);
+      return;
+    }
+    RelationshipsExistence.Builder existence = RelationshipsExistence.newBuilder();
+    keys.forEach(key -> existence.addExists(existingKeys.contains(key)));
+    responseObserver.onNext(existence.build());
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Count the relationships from or to each entity
+   *
+   * @param request Entities, relationship types and direction of the relationships to be counted
+   * @param responseObserver Observer to be notified of the count of each entity
+   */
+  @Override
+  public void getRelationshipDegrees(
+      RelationshipDegreesRequest request, StreamObserver<RelationshipDegrees> responseObserver) {
+    logQuery(request);
+
+    Optional<String> tenantId = RequestContext.CURRENT.get().getTenantId();
+    if (tenantId.isEmpty()) {
+      responseObserver.onError(new ServiceException("Tenant id is missing in the request."));
+      return;
+    }
+
+    if (request.getEntityIdCount() == 0) {
+      responseObserver.onError(
+          new InvalidRequestException("Entity ids of relationship degrees request are empty"));
+      return;
+    }
+    // Each entity is counted on its own, so their number is bounded as for the reads by ids
+    if (request.getEntityIdCount() > getByIdsChunkSize) {
+      responseObserver.onError(
+          new InvalidRequestException(
+              String.format(
+                  "At most %d entity ids can be counted by a relationship degrees request",
+                  getByIdsChunkSize)));
+      return;
+    }
+
+    RelationshipDegrees.Builder degrees = RelationshipDegrees.newBuilder();
+    for (String entityId : new LinkedHashSet<>(request.getEntityIdList())) {
+      RelationshipsQuery.Builder query =
+          RelationshipsQuery.newBuilder()
+              .addAllEntityRelationship(request.getEntityRelationshipList());
+      if (request.getDirection() == TraversalDirection.OUTGOING) {
+        query.addFromEntityId(entityId);
+      } else {
+        query.addToEntityId(entityId);
+      }
+      degrees.putDegree(
+          entityId,
+          relationshipsCollection.total(buildRelationshipsQuery(tenantId.get(), query.build())));
+    }
+    responseObserver.onNext(degrees.build());
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Searches all the keys at once, reading back only the keys of the relationships found.
+   *
+   * @return the keys of the relationships which are stored
+   */
+  private List<String> getExistingRelationshipKeys(String tenantId, List<String> keys)
+      throws IOException {
+    org.hypertrace.core.documentstore.Query docStoreQuery =
+        buildRelationshipKeysQuery(tenantId, keys);
+    docStoreQuery.addSelection(EntityServiceConstants.ID);
+    docStoreQuery.setLimit(keys.size());
+
+    List<String> existingKeys = new ArrayList<>();
+    Iterator<Document> documents = relationshipsCollection.search(docStoreQuery);
+    while (documents.hasNext()) {
+      String json = documents.next().toJson();
+      existingKeys.add(OBJECT_MAPPER.readTree(json).path(EntityServiceConstants.ID).asText());
+    }
+    return existingKeys;
+  }
+
+  private static org.hypertrace.core.documentstore.Query buildRelationshipKeysQuery(
+      String tenantId, List<String> keys) {
+    Filter filter = new Filter();
+    filter.setOp(Filter.Op.AND);
+    filter.setChildFilters(
+        new Filter[] {
+          DocStoreConverter.getTenantIdEqFilter(tenantId),
+          new Filter(Filter.Op.IN, EntityServiceConstants.ID, keys)
+        });
+    org.hypertrace.core.documentstore.Query docStoreQuery =
+        new org.hypertrace.core.documentstore.Query();
+    docStoreQuery.setFilter(filter);
+    return docStoreQuery;
+  }
+
+  private org.hypertrace.core.documentstore.Query buildRelationshipsQuery(
+      String tenantId, RelationshipsQuery query) {
     org.hypertrace.core.documentstore.Query docStoreQuery =
         new org.hypertrace.core.documentstore.Query();
     List<Filter> filters = new ArrayList<>();
-    filters.add(DocStoreConverter.getTenantIdEqFilter(tenantId.get()));
+    filters.add(DocStoreConverter.getTenantIdEqFilter(tenantId));
     if (query.getEntityRelationshipCount() > 0) {
       filters.add(
           new Filter(
@@ -363,8 +1051,7 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
         docStoreQuery.setFilter(f);
       }
     }
-
-    searchByQueryAndStreamRelationships(docStoreQuery, responseObserver, tenantId.get());
+    return docStoreQuery;
   }
 
   @Override
@@ -396,6 +1083,8 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
         request,
         EnrichedEntity.newBuilder(),
         enrichedEntitiesCollection,
+        enrichedEntitiesFingerprintCache,
+        enrichedEntitiesReadCache,
         responseObserver);
   }
 
@@ -408,29 +1097,66 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
       return;
     }
 
-    for (EnrichedEntity entity : request.getEntitiesList()) {
-      if (StringUtils.isEmpty(entity.getEntityType())) {
-        LOG.info(
-            "{}. Invalid upsertEnrichedEntities request:{}",
-            entity,
-            ErrorMessages.ENTITY_TYPE_EMPTY);
-        responseObserver.onError(new RuntimeException(ErrorMessages.ENTITY_TYPE_EMPTY));
-        return;
-      }
-
-      if (StringUtils.isEmpty(entity.getEntityId())) {
-        LOG.info(
-            "{}. Invalid upsertEnrichedEntities request:{}", entity, ErrorMessages.ENTITY_ID_EMPTY);
-        responseObserver.onError(new RuntimeException(ErrorMessages.ENTITY_ID_EMPTY));
-        return;
-      }
+    try {
+      validate(request);
+    } catch (InvalidRequestException e) {
+      responseObserver.onError(e);
+      return;
     }
 
     Map<String, EnrichedEntity> entityMap =
-        request.getEntitiesList().stream()
-            .collect(Collectors.toMap(EnrichedEntity::getEntityId, Function.identity()));
+        this.duplicateEntityMerger.mergeEnrichedEntities(
+            tenantId.get(), request.getEntitiesList());
+
+    upsertEntities(
+        tenantId.get(),
+        entityMap,
+        enrichedEntitiesCollection,
+        enrichedEntitiesFingerprintCache,
+        enrichedEntitiesReadCache,
+        responseObserver);
+  }
+
+  /**
+   * Upserts the enriched entities like {@link #upsertEnrichedEntities}, but reports the entities
+   * which could not be written rather than failing the whole request, so that only those need to
+   * be retried.
+   *
+   * @param request Enriched entities to be upserted
+   * @param responseObserver Observer to be notified of the ids of the entities not written
+   */
+  @Override
+  public void bulkUpsertEnrichedEntities(
+      EnrichedEntities request, StreamObserver<BulkUpsertResponse> responseObserver) {
+    Optional<String> tenantId = RequestContext.CURRENT.get().getTenantId();
+    if (tenantId.isEmpty()) {
+      responseObserver.onError(new ServiceException("Tenant id is missing in the request."));
+      return;
+    }
+
+    try {
+      validate(request);
+    } catch (InvalidRequestException e) {
+      responseObserver.onError(e);
+      return;
+    }
 
-    upsertEntities(tenantId.get(), entityMap, enrichedEntitiesCollection, responseObserver);
+    try {
+      Set<String> failedEntityIds =
+          upsertEntitiesInChunks(
+              tenantId.get(),
+              this.duplicateEntityMerger.mergeEnrichedEntities(
+                  tenantId.get(), request.getEntitiesList()),
+              enrichedEntitiesCollection,
+              enrichedEntitiesFingerprintCache,
+              enrichedEntitiesReadCache);
+      responseObserver.onNext(
+          BulkUpsertResponse.newBuilder().addAllFailedEntityId(failedEntityIds).build());
+      responseObserver.onCompleted();
+    } catch (IOException e) {
+      LOG.error("Failed to bulk upsert entities", e);
+      responseObserver.onError(e);
+    }
   }
 
   @Override
@@ -453,10 +1179,42 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
         tenantId.get(),
         request.getEntityId(),
         enrichedEntitiesCollection,
+        enrichedEntitiesReadCache,
         EnrichedEntity.newBuilder(),
         responseObserver);
   }
 
+  @Override
+  public void getEnrichedEntitiesByIds(
+      ByIdsRequest request, StreamObserver<EnrichedEntitiesByIdResponse> responseObserver) {
+    try {
+      validate(request);
+    } catch (InvalidRequestException e) {
+      responseObserver.onError(e);
+      return;
+    }
+
+    Optional<String> tenantId = RequestContext.CURRENT.get().getTenantId();
+    if (tenantId.isEmpty()) {
+      responseObserver.onError(new ServiceException("Tenant id is missing in the request."));
+      return;
+    }
+
+    Map<String, EnrichedEntity> entities =
+        searchByIds(
+            tenantId.get(),
+            request.getEntityIdList(),
+            enrichedEntitiesCollection,
+            enrichedEntitiesReadCache,
+            EnrichedEntity.newBuilder());
+    responseObserver.onNext(
+        EnrichedEntitiesByIdResponse.newBuilder()
+            .putAllEntities(entities)
+            .addAllMissingEntityId(getMissingEntityIds(request, entities))
+            .build());
+    responseObserver.onCompleted();
+  }
+
   @Override
   public void getEnrichedEntityByTypeAndIdentifyingProps(
       ByTypeAndIdentifyingAttributes request, StreamObserver<EnrichedEntity> responseObserver) {
@@ -480,10 +1238,44 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
         tenantId,
         entityId,
         enrichedEntitiesCollection,
+        enrichedEntitiesReadCache,
         EnrichedEntity.newBuilder(),
         responseObserver);
   }
 
+  @Override
+  public void getEnrichedEntitiesByTypesAndIdentifyingAttributes(
+      ByTypeAndIdentifyingAttributesBatch request,
+      StreamObserver<EnrichedEntities> responseObserver) {
+    try {
+      validate(request);
+    } catch (InvalidRequestException e) {
+      responseObserver.onError(e);
+      return;
+    }
+
+    String tenantId = RequestContext.CURRENT.get().getTenantId().orElse(null);
+    if (tenantId == null) {
+      responseObserver.onError(new ServiceException("Tenant id is missing in the request."));
+      return;
+    }
+
+    List<String> entityIds =
+        this.entityIdGenerator.generateEntityIds(tenantId, request.getLookupList());
+    Map<String, EnrichedEntity> entities =
+        searchByIds(
+            tenantId,
+            entityIds,
+            enrichedEntitiesCollection,
+            enrichedEntitiesReadCache,
+            EnrichedEntity.newBuilder());
+    responseObserver.onNext(
+        EnrichedEntities.newBuilder()
+            .addAllEntities(alignToIds(entityIds, entities, EnrichedEntity.getDefaultInstance()))
+            .build());
+    responseObserver.onCompleted();
+  }
+
   private void validate(ByIdRequest request) throws InvalidRequestException {
     if (StringUtils.isEmpty(request.getEntityId())) {
       LOG.info("{}. Invalid get request:{}", request, ErrorMessages.ENTITY_ID_EMPTY);
@@ -491,6 +1283,47 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
     }
   }
 
+  private void validate(ByIdsRequest request) throws InvalidRequestException {
+    if (request.getEntityIdList().stream().anyMatch(StringUtils::isEmpty)) {
+      LOG.info("{}. Invalid getByIds request:{}", request, ErrorMessages.ENTITY_ID_EMPTY);
+      throw new InvalidRequestException(ErrorMessages.ENTITY_ID_EMPTY);
+    }
+  }
+
+  private void validate(RelationshipTraversal request, int maxDepth)
+      throws InvalidRequestException {
+    if (request.getStartEntityIdCount() == 0) {
+      throw new InvalidRequestException("Start entity ids of traversal are empty");
+    }
+    if (maxDepth <= 0 || maxDepth > this.relationshipTraversalMaxDepth) {
+      throw new InvalidRequestException(
+          String.format(
+              "Depth of traversal must be between 1 and %d, got %d",
+              this.relationshipTraversalMaxDepth, maxDepth));
+    }
+    if (request.getMaxFanOut() < 0) {
+      throw new InvalidRequestException("Max fan out of traversal can not be negative");
+    }
+  }
+
+  private void validate(EnrichedEntities request) throws InvalidRequestException {
+    for (EnrichedEntity entity : request.getEntitiesList()) {
+      if (StringUtils.isEmpty(entity.getEntityType())) {
+        LOG.info(
+            "{}. Invalid upsertEnrichedEntities request:{}",
+            entity,
+            ErrorMessages.ENTITY_TYPE_EMPTY);
+        throw new InvalidRequestException(ErrorMessages.ENTITY_TYPE_EMPTY);
+      }
+
+      if (StringUtils.isEmpty(entity.getEntityId())) {
+        LOG.info(
+            "{}. Invalid upsertEnrichedEntities request:{}", entity, ErrorMessages.ENTITY_ID_EMPTY);
+        throw new InvalidRequestException(ErrorMessages.ENTITY_ID_EMPTY);
+      }
+    }
+  }
+
   private void validate(ByTypeAndIdentifyingAttributes request) throws InvalidRequestException {
     if (StringUtils.isEmpty(request.getEntityType())) {
       LOG.info(
@@ -509,37 +1342,130 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
     }
   }
 
+  private void validate(ByTypeAndIdentifyingAttributesBatch request)
+      throws InvalidRequestException {
+    for (ByTypeAndIdentifyingAttributes lookup : request.getLookupList()) {
+      validate(lookup);
+    }
+  }
+
+  private void validateAttributeNames(Iterable<String> attributeNames) {
+    for (String attributeName : attributeNames) {
+      // The name is used as is in the sub document path
+      if (StringUtils.isEmpty(attributeName) || attributeName.contains(".")) {
+        throw new IllegalArgumentException(
+            String.format("Invalid attribute name for patch: '%s'", attributeName));
+      }
+    }
+  }
+
+  /** @return the names of the attributes which could not be written or removed */
+  private List<String> patchAttributes(
+      Key key, Map<String, AttributeValue> attributes, List<String> removedAttributes) {
+    List<String> failedAttributes = new ArrayList<>();
+    for (Map.Entry<String, AttributeValue> attribute : attributes.entrySet()) {
+      String subDocPath = ATTRIBUTES_SUB_DOC_PATH_PREFIX + attribute.getKey();
+      try {
+        if (!entitiesCollection.updateSubDoc(
+            key, subDocPath, new JSONDocument(PRINTER.print(attribute.getValue())))) {
+          failedAttributes.add(attribute.getKey());
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Failed to patch attribute {} of entity {}", attribute.getKey(), key, e);
+        failedAttributes.add(attribute.getKey());
+      }
+    }
+
+    for (String removedAttribute : removedAttributes) {
+      try {
+        // Not an error if the attribute was not set
+        entitiesCollection.deleteSubDoc(key, ATTRIBUTES_SUB_DOC_PATH_PREFIX + removedAttribute);
+      } catch (RuntimeException e) {
+        LOG.warn("Failed to remove attribute {} of entity {}", removedAttribute, key, e);
+        failedAttributes.add(removedAttribute);
+      }
+    }
+    return failedAttributes;
+  }
+
   private <T extends GeneratedMessageV3> void upsertEntity(
       String tenantId,
       String entityId,
       T entity,
       Message.Builder builder,
       Collection collection,
+      EntityFingerprintCache fingerprintCache,
+      EntityReadCache<T> readCache,
       StreamObserver<T> responseObserver) {
+    String fingerprint = fingerprintCache.fingerprint(entity);
+    Optional<Document> unchangedDocument =
+        fingerprintCache.findUnchanged(tenantId, entityId, fingerprint);
+    if (unchangedDocument.isPresent()) {
+      streamStoredDocument(tenantId, unchangedDocument.get(), builder, responseObserver);
+      return;
+    }
+
     try {
-      Document document = convertEntityToDocument(entity);
-      collection.upsertAndReturn(new SingleValueKey(tenantId, entityId), document);
-      searchByIdAndStreamSingleResponse(tenantId, entityId, collection, builder, responseObserver);
+      Document document = convertEntityToDocument(entity, fingerprint, fingerprintCache);
+      // The upserted document is returned by the doc store, so there is no need to read it back
+      Document storedDocument =
+          collection.upsertAndReturn(new SingleValueKey(tenantId, entityId), document);
+      fingerprintCache.recordWrite(tenantId, entityId, fingerprint, storedDocument);
+      readCache.invalidate(tenantId, entityId);
+      streamStoredDocument(tenantId, storedDocument, builder, responseObserver);
     } catch (IOException e) {
+      fingerprintCache.invalidate(tenantId, entityId);
+      readCache.invalidate(tenantId, entityId);
       responseObserver.onError(new RuntimeException("Could not create entity.", e));
     }
   }
 
+  private void coalesceUpsert(
+      String tenantId,
+      Entity entity,
+      EntityUpsertCoalescer coalescer,
+      StreamObserver<Entity> responseObserver)
+      throws IOException {
+    String entityId = entity.getEntityId();
+    String fingerprint = entitiesFingerprintCache.fingerprint(entity);
+    Optional<Document> unchangedDocument =
+        entitiesFingerprintCache.findUnchanged(tenantId, entityId, fingerprint);
+    if (unchangedDocument.isPresent()) {
+      streamStoredDocument(
+          tenantId, unchangedDocument.get(), Entity.newBuilder(), responseObserver);
+      return;
+    }
+
+    coalescer
+        .upsert(
+            tenantId,
+            entityId,
+            convertEntityToDocument(entity, fingerprint, entitiesFingerprintCache))
+        .whenComplete(
+            (document, throwable) -> {
+              entitiesReadCache.invalidate(tenantId, entityId);
+              if (throwable != null) {
+                entitiesFingerprintCache.invalidate(tenantId, entityId);
+                responseObserver.onError(
+                    new RuntimeException("Could not create entity.", throwable));
+                return;
+              }
+              entitiesFingerprintCache.recordWrite(tenantId, entityId, fingerprint, document);
+              streamStoredDocument(tenantId, document, Entity.newBuilder(), responseObserver);
+            });
+  }
+
   private <T extends GeneratedMessageV3> void upsertEntities(
       String tenantId,
       Map<String, T> map,
       Collection collection,
+      EntityFingerprintCache fingerprintCache,
+      EntityReadCache<T> readCache,
       StreamObserver<Empty> responseObserver) {
     try {
-      Map<Key, Document> entities = new HashMap<>();
-      for (Map.Entry<String, T> entry : map.entrySet()) {
-        Document doc = convertEntityToDocument(entry.getValue());
-        SingleValueKey key = new SingleValueKey(tenantId, entry.getKey());
-        entities.put(key, doc);
-      }
-
-      boolean status = collection.bulkUpsert(entities);
-      if (status) {
+      Set<String> failedEntityIds =
+          upsertEntitiesInChunks(tenantId, map, collection, fingerprintCache, readCache);
+      if (failedEntityIds.isEmpty()) {
         responseObserver.onNext(Empty.newBuilder().build());
         responseObserver.onCompleted();
       } else {
@@ -551,21 +1477,56 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
     }
   }
 
-  private <T extends GeneratedMessageV3> JSONDocument convertEntityToDocument(T entity)
+  /** @return the ids of the entities which could not be written */
+  private <T extends GeneratedMessageV3> Set<String> upsertEntitiesInChunks(
+      String tenantId,
+      Map<String, T> map,
+      Collection collection,
+      EntityFingerprintCache fingerprintCache,
+      EntityReadCache<T> readCache)
       throws IOException {
+    Map<String, Document> documents = new HashMap<>();
+    Map<String, String> fingerprints = new HashMap<>();
+    for (Map.Entry<String, T> entry : map.entrySet()) {
+      String fingerprint = fingerprintCache.fingerprint(entry.getValue());
+      if (fingerprintCache.isUnchanged(tenantId, entry.getKey(), fingerprint)) {
+        continue;
+      }
+      documents.put(
+          entry.getKey(), convertEntityToDocument(entry.getValue(), fingerprint, fingerprintCache));
+      fingerprints.put(entry.getKey(), fingerprint);
+    }
+
+    Set<String> failedEntityIds =
+        documents.isEmpty()
+            ? Set.of()
+            : this.chunkedBulkUpserter.upsert(collection, tenantId, documents);
+    readCache.invalidateAll(tenantId, documents.keySet());
+    fingerprints.forEach(
+        (entityId, fingerprint) -> {
+          if (failedEntityIds.contains(entityId)) {
+            fingerprintCache.invalidate(tenantId, entityId);
+          } else {
+            fingerprintCache.recordWrite(tenantId, entityId, fingerprint, null);
+          }
+        });
+    return failedEntityIds;
+  }
+
+  private <T extends GeneratedMessageV3> JSONDocument convertEntityToDocument(
+      T entity, String fingerprint, EntityFingerprintCache fingerprintCache) throws IOException {
     try {
-      return DocStoreConverter.transform(entity);
+      return fingerprintCache.toDocument(entity, fingerprint);
     } catch (IOException e) {
       LOG.error("Could not covert the attributes into JSON doc.", e);
       throw e;
     }
   }
 
-  private JSONDocument convertEntityRelationshipToDocument(
-      String tenantId, EntityRelationship relationship) throws IOException {
+  private JSONDocument convertEntityRelationshipToDocument(EntityRelationship relationship)
+      throws IOException {
     try {
-      String json =
-          PRINTER.print(EntityRelationship.newBuilder(relationship).setTenantId(tenantId).build());
+      String json = PRINTER.print(relationship);
       return new JSONDocument(json);
     } catch (IOException e) {
       LOG.error("Could not covert the EntityRelationship into JSON doc.", e);
@@ -577,73 +1538,191 @@ public class EntityDataServiceImpl extends EntityDataServiceImplBase {
       String tenantId,
       String entityId,
       Collection collection,
+      EntityReadCache<T> readCache,
       Message.Builder builder,
       StreamObserver<T> responseObserver) {
-    org.hypertrace.core.documentstore.Query query = new org.hypertrace.core.documentstore.Query();
-    String docId = new SingleValueKey(tenantId, entityId).toString();
-    query.setFilter(new Filter(Filter.Op.EQ, EntityServiceConstants.ID, docId));
-
-    Iterator<Document> result = collection.search(query);
-    List<T> entities = new ArrayList<>();
-    while (result.hasNext()) {
-      PARSER
-          .<T>parseOrLog(result.next(), builder.clone())
-          .map(
-              entity -> {
-                // Populate the tenant id field with the tenant id that's received for backward
-                // compatibility.
-                Descriptors.FieldDescriptor fieldDescriptor =
-                    entity.getDescriptorForType().findFieldByName("tenant_id");
-                if (fieldDescriptor != null) {
-                  return (T) entity.toBuilder().setField(fieldDescriptor, tenantId).build();
-                }
-                return entity;
-              })
-          .ifPresent(entities::add);
+    Optional<T> cachedEntity = readCache.get(tenantId, entityId);
+    if (cachedEntity.isPresent()) {
+      streamSingleResponse(cachedEntity, builder, responseObserver);
+      return;
     }
 
+    long writeVersion = readCache.getWriteVersion(tenantId, entityId);
+    // _id is unique, so there is at most one document to parse
+    Optional<T> entity =
+        this.keyedDocumentSearch
+            .findOne(collection, new SingleValueKey(tenantId, entityId))
+            .flatMap(document -> this.<T>parseDocument(tenantId, document, builder.clone()));
+
     if (LOG.isDebugEnabled()) {
-      LOG.debug("Docstore query has returned the result: {}", entities);
+      LOG.debug("Docstore query has returned the result: {}", entity);
     }
 
-    if (entities.size() == 1) {
-      responseObserver.onNext(entities.get(0));
-      responseObserver.onCompleted();
-    } else if (entities.size() > 1) {
-      responseObserver.onError(
-          new IllegalStateException("Multiple entities with same id are found."));
+    entity.ifPresent(value -> readCache.put(tenantId, entityId, value, writeVersion));
+    streamSingleResponse(entity, builder, responseObserver);
+  }
+
+  /**
+   * Looks up the entities of the given ids, serving the cached ones and reading the others with one
+   * IN query per chunk of ids.
+   *
+   * @return the found entities keyed by id, in the order they were requested
+   */
+  private <T extends Message> Map<String, T> searchByIds(
+      String tenantId,
+      List<String> entityIds,
+      Collection collection,
+      EntityReadCache<T> readCache,
+      Message.Builder builder) {
+    Map<String, T> entities = new LinkedHashMap<>();
+    Map<String, Long> writeVersions = new LinkedHashMap<>();
+    for (String entityId : entityIds) {
+      if (entities.containsKey(entityId) || writeVersions.containsKey(entityId)) {
+        continue;
+      }
+      Optional<T> cachedEntity = readCache.get(tenantId, entityId);
+      if (cachedEntity.isPresent()) {
+        entities.put(entityId, cachedEntity.get());
+      } else {
+        writeVersions.put(entityId, readCache.getWriteVersion(tenantId, entityId));
+      }
+    }
+
+    Map<String, T> readEntities = new HashMap<>();
+    for (List<String> chunk : Iterables.partition(writeVersions.keySet(), getByIdsChunkSize)) {
+      List<SingleValueKey> keys =
+          chunk.stream()
+              .map(entityId -> new SingleValueKey(tenantId, entityId))
+              .collect(Collectors.toList());
+
+      Iterator<Document> result = this.keyedDocumentSearch.findAll(collection, keys);
+      while (result.hasNext()) {
+        this.<T>parseDocument(tenantId, result.next(), builder.clone())
+            .ifPresent(entity -> readEntities.put(getEntityId(entity), entity));
+      }
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Docstore queries have returned the result: {}", readEntities.values());
+    }
+
+    // Keep the requested order, which the cached entities have already broken
+    Map<String, T> orderedEntities = new LinkedHashMap<>();
+    for (String entityId : entityIds) {
+      T entity = entities.get(entityId);
+      if (entity == null && readEntities.containsKey(entityId)) {
+        entity = readEntities.get(entityId);
+        readCache.put(tenantId, entityId, entity, writeVersions.get(entityId));
+      }
+      if (entity != null) {
+        orderedEntities.put(entityId, entity);
+      }
+    }
+    return orderedEntities;
+  }
+
+  private static String getEntityId(Message entity) {
+    return (String) entity.getField(entity.getDescriptorForType().findFieldByName("entity_id"));
+  }
+
+  /** @return the entity of each id, or the default instance when it was not found */
+  private static <T extends Message> List<T> alignToIds(
+      List<String> entityIds, Map<String, T> entities, T defaultInstance) {
+    return entityIds.stream()
+        .map(entityId -> entities.getOrDefault(entityId, defaultInstance))
+        .collect(Collectors.toList());
+  }
+
+  private static List<String> getMissingEntityIds(ByIdsRequest request, Map<String, ?> entities) {
+    return request.getEntityIdList().stream()
+        .distinct()
+        .filter(entityId -> !entities.containsKey(entityId))
+        .collect(Collectors.toList());
+  }
+
+  private <T extends Message> void streamStoredDocument(
+      String tenantId,
+      @Nullable Document storedDocument,
+      Message.Builder builder,
+      StreamObserver<T> responseObserver) {
+    Optional<T> entity =
+        Optional.ofNullable(storedDocument)
+            .flatMap(document -> this.<T>parseDocument(tenantId, document, builder.clone()));
+    streamSingleResponse(entity, builder, responseObserver);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends Message> void streamSingleResponse(
+      Optional<T> entity, Message.Builder builder, StreamObserver<T> responseObserver) {
+    if (entity.isPresent()) {
+      responseObserver.onNext(entity.get());
     } else {
       // When there is no result, we should return the default instance, which is a way
       // of saying it's null.
       //TODO : Not convinced with the default instance
       responseObserver.onNext((T) builder.build());
-      responseObserver.onCompleted();
     }
+    responseObserver.onCompleted();
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends Message> Optional<T> parseDocument(
+      String tenantId, Document document, Message.Builder builder) {
+    return PARSER
+        .<T>parseOrLog(document, builder)
+        .map(
+            entity -> {
+              // Populate the tenant id field with the tenant id that's received for backward
+              // compatibility.
+              Descriptors.FieldDescriptor fieldDescriptor =
+                  entity.getDescriptorForType().findFieldByName("tenant_id");
+              if (fieldDescriptor != null) {
+                return (T) entity.toBuilder().setField(fieldDescriptor, tenantId).build();
+              }
+              return entity;
+            });
   }
 
   private void searchByQueryAndStreamRelationships(
       org.hypertrace.core.documentstore.Query query,
-      StreamObserver<EntityRelationship> responseObserver,
+      FlowControlledStreamObserver<EntityRelationship> responseObserver,
       String tenantId) {
-    List<EntityRelationship> relationships =
-        Streams.stream(relationshipsCollection.search(query))
-            .flatMap(
-                document ->
-                    PARSER
-                        .<EntityRelationship>parseOrLog(document, EntityRelationship.newBuilder())
-                        .stream())
-            .map(EntityRelationship::toBuilder)
-            .map(builder -> builder.setTenantId(tenantId))
-            .map(EntityRelationship.Builder::build)
-            .peek(responseObserver::onNext)
-            .collect(Collectors.toList());
+    // Relationships are sent as they are read, so that memory does not grow with their number,
+    // and the cursor is not read any further once the call is cancelled
+    long count = 0;
+    Iterator<Document> documents = relationshipsCollection.search(query);
+    while (documents.hasNext() && !responseObserver.isCancelled()) {
+      Optional<EntityRelationship> relationship =
+          PARSER.<EntityRelationship>parseOrLog(documents.next(), EntityRelationship.newBuilder());
+      if (relationship.isPresent()) {
+        responseObserver.onNext(relationship.get().toBuilder().setTenantId(tenantId).build());
+        count++;
+      }
+    }
 
     if (LOG.isDebugEnabled()) {
-      LOG.debug("Docstore query has returned the result: {}", relationships);
+      LOG.debug("Docstore query has returned {} relationships", count);
     }
     responseObserver.onCompleted();
   }
 
+  /**
+   * @return the doc store selections of the query, which always include the fields needed to
+   *     identify the entity and to continue a page
+   */
+  private static List<String> getSelections(Query query) {
+    if (query.getSelectionCount() == 0) {
+      return Collections.emptyList();
+    }
+
+    Set<String> selections = new LinkedHashSet<>();
+    selections.add(EntityServiceConstants.ENTITY_ID);
+    selections.add(EntityServiceConstants.ENTITY_TYPE);
+    selections.addAll(query.getSelectionList());
+    query.getOrderByList().forEach(orderBy -> selections.add(orderBy.getName()));
+    return new ArrayList<>(selections);
+  }
+
   private void logQuery(Object query) {
     if (LOG.isDebugEnabled()) {
       LOG.info("Received query: {}", query.toString());
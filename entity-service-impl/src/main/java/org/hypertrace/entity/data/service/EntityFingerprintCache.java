@@ -0,0 +1,241 @@
+package org.hypertrace.entity.data.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.Message;
+import io.micrometer.core.instrument.Counter;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.JSONDocument;
+import org.hypertrace.core.documentstore.SingleValueKey;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.entity.service.util.DocStoreConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers a fingerprint of the last entity written to a collection for each entity id, so that
+ * upserts rewriting an unchanged entity can skip the doc store write. The fingerprint is a hash of
+ * the deterministic serialization of the normalized entity. Fingerprints are kept in a bounded
+ * cache per tenant and, optionally, also stored in the documents, so that an unchanged entity can
+ * still be recognized with a read after it has been evicted from the cache.
+ *
+ * <p>A disabled cache computes no fingerprints and never reports an entity as unchanged.
+ */
+class EntityFingerprintCache {
+  private static final Logger LOG = LoggerFactory.getLogger(EntityFingerprintCache.class);
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String FINGERPRINT_FIELD = "entityFingerprint";
+  private static final String UPSERTS_METRIC = "entity.data.service.upsert.fingerprint.upserts";
+  private static final int MAX_TENANTS = 1000;
+
+  private final Collection collection;
+  private final KeyedDocumentSearch keyedDocumentSearch = new KeyedDocumentSearch();
+  private final boolean enabled;
+  private final boolean persisted;
+  private final LoadingCache<String, Cache<String, StoredFingerprint>> cachesByTenant;
+  private final Counter skippedCounter;
+  private final Counter writtenCounter;
+
+  EntityFingerprintCache(
+      Collection collection,
+      String collectionName,
+      boolean enabled,
+      int maxEntriesPerTenant,
+      Duration expiry,
+      boolean persisted) {
+    this.collection = collection;
+    this.enabled = enabled;
+    this.persisted = enabled && persisted;
+    this.cachesByTenant =
+        CacheBuilder.newBuilder()
+            .maximumSize(MAX_TENANTS)
+            .expireAfterAccess(expiry)
+            .build(
+                CacheLoader.from(
+                    () ->
+                        CacheBuilder.newBuilder()
+                            .maximumSize(maxEntriesPerTenant)
+                            .expireAfterWrite(expiry)
+                            .build()));
+    this.skippedCounter =
+        Counter.builder(UPSERTS_METRIC)
+            .tag("collection", collectionName)
+            .tag("result", "skipped")
+            .register(PlatformMetricsRegistry.getMeterRegistry());
+    this.writtenCounter =
+        Counter.builder(UPSERTS_METRIC)
+            .tag("collection", collectionName)
+            .tag("result", "written")
+            .register(PlatformMetricsRegistry.getMeterRegistry());
+  }
+
+  /** @return the fingerprint of the entity, or an empty string if the cache is disabled */
+  String fingerprint(Message entity) {
+    if (!this.enabled) {
+      return "";
+    }
+
+    byte[] bytes = new byte[entity.getSerializedSize()];
+    CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+    // Map fields are only serialized in a stable order in deterministic mode
+    output.useDeterministicSerialization();
+    try {
+      entity.writeTo(output);
+      output.checkNoSpaceLeft();
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not serialize entity for fingerprinting", e);
+    }
+    return Hashing.murmur3_128().hashBytes(bytes).toString();
+  }
+
+  /** Converts the entity to its document, carrying the fingerprint if it is to be persisted. */
+  <T extends GeneratedMessageV3> JSONDocument toDocument(T entity, String fingerprint)
+      throws IOException {
+    JSONDocument document = DocStoreConverter.transform(entity);
+    if (!this.persisted) {
+      return document;
+    }
+    ObjectNode node = (ObjectNode) OBJECT_MAPPER.readTree(document.toJson());
+    node.put(FINGERPRINT_FIELD, fingerprint);
+    return new JSONDocument(node.toString());
+  }
+
+  /**
+   * Looks up whether the stored entity already has the fingerprint. Falls back to reading the
+   * document if the fingerprint is persisted but not cached.
+   *
+   * @return the stored document if the entity is unchanged
+   */
+  Optional<Document> findUnchanged(String tenantId, String entityId, String fingerprint) {
+    if (!this.enabled) {
+      return Optional.empty();
+    }
+
+    StoredFingerprint cached = this.getCache(tenantId).getIfPresent(entityId);
+    Optional<Document> unchanged =
+        cached != null && cached.document != null && cached.fingerprint.equals(fingerprint)
+            ? Optional.of(cached.document)
+            : this.findPersistedUnchanged(tenantId, entityId, fingerprint);
+    this.record(unchanged.isPresent());
+    return unchanged;
+  }
+
+  /**
+   * Looks up whether the stored entity already has the fingerprint, without reading the doc store.
+   */
+  boolean isUnchanged(String tenantId, String entityId, String fingerprint) {
+    if (!this.enabled) {
+      return false;
+    }
+
+    StoredFingerprint cached = this.getCache(tenantId).getIfPresent(entityId);
+    boolean unchanged = cached != null && cached.fingerprint.equals(fingerprint);
+    this.record(unchanged);
+    return unchanged;
+  }
+
+  /**
+   * Records the fingerprint of a successfully written entity, along with its stored document if it
+   * is known.
+   */
+  void recordWrite(
+      String tenantId, String entityId, String fingerprint, @Nullable Document storedDocument) {
+    if (!this.enabled) {
+      return;
+    }
+
+    Cache<String, StoredFingerprint> cache = this.getCache(tenantId);
+    StoredFingerprint previous = cache.getIfPresent(entityId);
+    if (storedDocument == null
+        && previous != null
+        && previous.fingerprint.equals(fingerprint)) {
+      // Same content, keep the stored document known from an earlier write
+      return;
+    }
+    cache.put(entityId, new StoredFingerprint(fingerprint, storedDocument));
+  }
+
+  /** Forgets the fingerprint of an entity that was deleted or written without one. */
+  void invalidate(String tenantId, String entityId) {
+    if (!this.enabled) {
+      return;
+    }
+    this.getCache(tenantId).invalidate(entityId);
+  }
+
+  /**
+   * Forgets the fingerprint of an entity that is about to be modified in place, including the one
+   * stored in its document, which would no longer match its content.
+   */
+  void invalidateModifiedInPlace(String tenantId, String entityId) {
+    if (!this.enabled) {
+      return;
+    }
+    if (this.persisted) {
+      this.collection.deleteSubDoc(new SingleValueKey(tenantId, entityId), FINGERPRINT_FIELD);
+    }
+    this.invalidate(tenantId, entityId);
+  }
+
+  private Optional<Document> findPersistedUnchanged(
+      String tenantId, String entityId, String fingerprint) {
+    if (!this.persisted) {
+      return Optional.empty();
+    }
+
+    try {
+      Optional<Document> result =
+          this.keyedDocumentSearch.findOne(
+              this.collection, new SingleValueKey(tenantId, entityId));
+      if (result.isEmpty()) {
+        return Optional.empty();
+      }
+      Document document = result.get();
+      JsonNode storedFingerprint =
+          OBJECT_MAPPER.readTree(document.toJson()).get(FINGERPRINT_FIELD);
+      if (storedFingerprint == null || !fingerprint.equals(storedFingerprint.asText())) {
+        return Optional.empty();
+      }
+      this.getCache(tenantId).put(entityId, new StoredFingerprint(fingerprint, document));
+      return Optional.of(document);
+    } catch (IOException e) {
+      LOG.warn("Could not read the stored fingerprint of entity {}", entityId, e);
+      return Optional.empty();
+    }
+  }
+
+  private Cache<String, StoredFingerprint> getCache(String tenantId) {
+    return this.cachesByTenant.getUnchecked(tenantId);
+  }
+
+  private void record(boolean skipped) {
+    if (skipped) {
+      this.skippedCounter.increment();
+    } else {
+      this.writtenCounter.increment();
+    }
+  }
+
+  private static class StoredFingerprint {
+    private final String fingerprint;
+    @Nullable private final Document document;
+
+    private StoredFingerprint(String fingerprint, @Nullable Document document) {
+      this.fingerprint = fingerprint;
+      this.document = document;
+    }
+  }
+}
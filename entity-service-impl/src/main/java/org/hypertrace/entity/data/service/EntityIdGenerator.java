@@ -1,8 +1,11 @@
 package org.hypertrace.entity.data.service;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import org.hypertrace.entity.data.service.v1.AttributeValue;
+import org.hypertrace.entity.data.service.v1.ByTypeAndIdentifyingAttributes;
 import org.hypertrace.entity.data.service.v1.Value;
 import org.hypertrace.entity.service.util.UUIDGenerator;
 
@@ -20,4 +23,14 @@ class EntityIdGenerator {
     return UUIDGenerator.generateUUID(map);
   }
 
+  /** @return the ids of the looked up entities, in the order of the lookups */
+  List<String> generateEntityIds(String tenantId, List<ByTypeAndIdentifyingAttributes> lookups) {
+    return lookups.stream()
+        .map(
+            lookup ->
+                generateEntityId(
+                    tenantId, lookup.getEntityType(), lookup.getIdentifyingAttributesMap()))
+        .collect(Collectors.toList());
+  }
+
 }
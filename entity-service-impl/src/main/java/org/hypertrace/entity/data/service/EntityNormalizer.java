@@ -1,7 +1,11 @@
 package org.hypertrace.entity.data.service;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.hypertrace.entity.data.service.EntityDataServiceImpl.ErrorMessages;
 import org.hypertrace.entity.data.service.v1.Entity;
 import org.hypertrace.entity.service.util.StringUtils;
@@ -12,14 +16,24 @@ class EntityNormalizer {
   private final EntityTypeClient entityTypeV2Client;
   private final EntityIdGenerator idGenerator;
   private final IdentifyingAttributeCache identifyingAttributeCache;
+  private final int parallelNormalizationThreshold;
 
   EntityNormalizer(
       EntityTypeClient entityTypeClient,
       EntityIdGenerator idGenerator,
       IdentifyingAttributeCache identifyingAttributeCache) {
+    this(entityTypeClient, idGenerator, identifyingAttributeCache, Integer.MAX_VALUE);
+  }
+
+  EntityNormalizer(
+      EntityTypeClient entityTypeClient,
+      EntityIdGenerator idGenerator,
+      IdentifyingAttributeCache identifyingAttributeCache,
+      int parallelNormalizationThreshold) {
     this.entityTypeV2Client = entityTypeClient;
     this.idGenerator = idGenerator;
     this.identifyingAttributeCache = identifyingAttributeCache;
+    this.parallelNormalizationThreshold = parallelNormalizationThreshold;
   }
 
   /**
@@ -30,19 +44,72 @@ class EntityNormalizer {
    * @return
    */
   Entity normalize(String tenantId, Entity receivedEntity) {
-    if (StringUtils.isEmpty(receivedEntity.getEntityType())) {
-      throw new RuntimeException(ErrorMessages.ENTITY_TYPE_EMPTY);
-    }
+    this.verifyEntityType(receivedEntity);
 
     if (this.requiresIdentifyingAttributes(receivedEntity)) {
-      return this.normalizeEntityByIdentifyingAttributes(tenantId, receivedEntity);
+      return this.normalizeEntityByIdentifyingAttributes(
+          tenantId,
+          receivedEntity,
+          this.getIdentifyingAttributeNames(tenantId, receivedEntity.getEntityType()));
     }
     return this.normalizeEntityWithProvidedId(tenantId, receivedEntity);
   }
 
-  private Entity normalizeEntityByIdentifyingAttributes(String tenantId, Entity receivedEntity) {
+  /**
+   * Normalizes a batch of entities to their canonical, ready-to-upsert form. The entity type and
+   * its identifying attributes are resolved once per distinct entity type of the batch, after which
+   * the entities are normalized in a tight loop, in parallel for batches of at least the configured
+   * threshold.
+   *
+   * @param receivedEntities
+   * @throws RuntimeException If any entity can not be normalized
+   * @return the normalized entities, in the order they were received
+   */
+  List<Entity> normalize(String tenantId, List<Entity> receivedEntities) {
+    receivedEntities.forEach(this::verifyEntityType);
+
+    Set<String> v2EntityTypes =
+        receivedEntities.stream()
+            .map(Entity::getEntityType)
+            .distinct()
+            .filter(this::isV2EntityType)
+            .collect(Collectors.toUnmodifiableSet());
+    Map<String, Set<String>> identifyingAttributeNamesByType =
+        receivedEntities.stream()
+            .filter(entity -> this.requiresIdentifyingAttributes(entity, v2EntityTypes))
+            .map(Entity::getEntityType)
+            .distinct()
+            .collect(
+                Collectors.toUnmodifiableMap(
+                    Function.identity(),
+                    entityType -> this.getIdentifyingAttributeNames(tenantId, entityType)));
+
+    Stream<Entity> entityStream =
+        receivedEntities.size() >= this.parallelNormalizationThreshold
+            ? receivedEntities.parallelStream()
+            : receivedEntities.stream();
+    return entityStream
+        .map(
+            entity ->
+                this.requiresIdentifyingAttributes(entity, v2EntityTypes)
+                    ? this.normalizeEntityByIdentifyingAttributes(
+                        tenantId,
+                        entity,
+                        identifyingAttributeNamesByType.get(entity.getEntityType()))
+                    : this.normalizeEntityWithProvidedId(tenantId, entity))
+        .collect(Collectors.toList());
+  }
+
+  private void verifyEntityType(Entity receivedEntity) {
+    if (StringUtils.isEmpty(receivedEntity.getEntityType())) {
+      throw new RuntimeException(ErrorMessages.ENTITY_TYPE_EMPTY);
+    }
+  }
+
+  private Entity normalizeEntityByIdentifyingAttributes(
+      String tenantId, Entity receivedEntity, Set<String> identifyingAttributeNames) {
     // Validate if all identifying attributes are present in the incoming entity
-    this.verifyMatchingIdentifyingAttributes(tenantId, receivedEntity);
+    this.verifyMatchingIdentifyingAttributes(receivedEntity, identifyingAttributeNames);
 
     // UUID is generated from identifying attributes.
     String entityId =
@@ -65,36 +132,41 @@ class EntityNormalizer {
   }
 
   private boolean requiresIdentifyingAttributes(Entity entity) {
+    // If entity type is present, we require only if entity id is empty
+    return !this.isV2EntityType(entity.getEntityType()) || entity.getEntityId().isEmpty();
+  }
+
+  private boolean requiresIdentifyingAttributes(Entity entity, Set<String> v2EntityTypes) {
+    return !v2EntityTypes.contains(entity.getEntityType()) || entity.getEntityId().isEmpty();
+  }
+
+  private boolean isV2EntityType(String entityType) {
     return this.entityTypeV2Client
-        .get(entity.getEntityType())
-        .map(
-            unused ->
-                entity
-                    .getEntityId()
-                    .isEmpty()) // If entity type is present, we require only if entity id is empty
-        .onErrorReturnItem(true)
+        .get(entityType)
+        .map(unused -> true)
+        .onErrorReturnItem(false)
         .blockingGet();
   }
 
-  private void verifyMatchingIdentifyingAttributes(String tenantId, Entity request) {
-    Set<String> idAttrNames =
-        this.identifyingAttributeCache
-            .getIdentifyingAttributes(tenantId, request.getEntityType())
-            .stream()
-            .map(AttributeType::getName)
-            .collect(Collectors.toSet());
+  private Set<String> getIdentifyingAttributeNames(String tenantId, String entityType) {
+    return this.identifyingAttributeCache.getIdentifyingAttributes(tenantId, entityType).stream()
+        .map(AttributeType::getName)
+        .collect(Collectors.toSet());
+  }
 
-    if (idAttrNames.isEmpty()) {
+  private void verifyMatchingIdentifyingAttributes(
+      Entity request, Set<String> identifyingAttributeNames) {
+    if (identifyingAttributeNames.isEmpty()) {
       throw new IllegalArgumentException(
           String.format(
               "No identifying attributes defined for EntityType: %s", request.getEntityType()));
     }
 
-    if (!idAttrNames.equals(request.getIdentifyingAttributesMap().keySet())) {
+    if (!identifyingAttributeNames.equals(request.getIdentifyingAttributesMap().keySet())) {
       throw new IllegalArgumentException(
           String.format(
               "Received and expected identifying attributes differ. Received: %s . Expected: %s",
-              request.getIdentifyingAttributesMap().keySet(), idAttrNames));
+              request.getIdentifyingAttributesMap().keySet(), identifyingAttributeNames));
     }
   }
 }
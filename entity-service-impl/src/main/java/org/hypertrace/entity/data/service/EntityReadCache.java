@@ -0,0 +1,100 @@
+package org.hypertrace.entity.data.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.protobuf.Message;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.hypertrace.core.documentstore.SingleValueKey;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+
+/**
+ * Caches the entities read by id from one collection, bounded by their serialized size. Every
+ * write through the service invalidates the entities it touches once written. Writes by other
+ * replicas are not seen, which the expiry bounds.
+ *
+ * <p>A read which raced with a write of the same entity is not cached: each write bumps a version
+ * striped by key, and a read only caches its result if that version did not move while it ran.
+ *
+ * <p>A disabled cache caches nothing.
+ */
+class EntityReadCache<T extends Message> {
+  private static final String METRIC_NAME = "entity.data.service.read.cache";
+  private static final int VERSION_STRIPES = 1024;
+
+  private final boolean enabled;
+  private final Cache<String, T> cache;
+  private final AtomicLongArray writeVersions = new AtomicLongArray(VERSION_STRIPES);
+
+  EntityReadCache(String regionName, boolean enabled, long maxWeightBytes, Duration expiry) {
+    this.enabled = enabled;
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxWeightBytes)
+            .weigher((String key, T entity) -> key.length() + entity.getSerializedSize())
+            .expireAfterWrite(expiry)
+            .recordStats()
+            .build();
+    if (enabled) {
+      GuavaCacheMetrics.monitor(
+          PlatformMetricsRegistry.getMeterRegistry(),
+          this.cache,
+          METRIC_NAME,
+          "region",
+          regionName);
+    }
+  }
+
+  Optional<T> get(String tenantId, String entityId) {
+    if (!this.enabled) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(this.cache.getIfPresent(buildKey(tenantId, entityId)));
+  }
+
+  /** @return the version to pass to {@link #put}, to be read before reading the entity */
+  long getWriteVersion(String tenantId, String entityId) {
+    return this.writeVersions.get(getStripe(buildKey(tenantId, entityId)));
+  }
+
+  /** Caches the entity read, unless it was written since the version was taken. */
+  void put(String tenantId, String entityId, T entity, long writeVersion) {
+    if (!this.enabled) {
+      return;
+    }
+    String key = buildKey(tenantId, entityId);
+    int stripe = getStripe(key);
+    if (this.writeVersions.get(stripe) != writeVersion) {
+      return;
+    }
+    this.cache.put(key, entity);
+    // A write may have invalidated the entry right before it was put
+    if (this.writeVersions.get(stripe) != writeVersion) {
+      this.cache.invalidate(key);
+    }
+  }
+
+  /** Must be called after the entity has been written or deleted. */
+  void invalidate(String tenantId, String entityId) {
+    if (!this.enabled) {
+      return;
+    }
+    String key = buildKey(tenantId, entityId);
+    this.writeVersions.incrementAndGet(getStripe(key));
+    this.cache.invalidate(key);
+  }
+
+  void invalidateAll(String tenantId, Iterable<String> entityIds) {
+    entityIds.forEach(entityId -> this.invalidate(tenantId, entityId));
+  }
+
+  private static String buildKey(String tenantId, String entityId) {
+    return new SingleValueKey(tenantId, entityId).toString();
+  }
+
+  private static int getStripe(String key) {
+    return Math.floorMod(key.hashCode(), VERSION_STRIPES);
+  }
+}
@@ -0,0 +1,145 @@
+package org.hypertrace.entity.data.service;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.Key;
+import org.hypertrace.core.documentstore.SingleValueKey;
+import org.hypertrace.entity.data.service.v1.Entity;
+import org.hypertrace.entity.data.service.v1.UpsertEntityStreamSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the entities of an upsertEntityStream call and writes them in bulk upserts of {@code
+ * batchSize}. Inbound flow control is manual: no more than {@code batchSize} entities are ever
+ * requested ahead, and nothing is requested while a batch is being written, so a slow doc store
+ * pushes back on the producer. Entities whose fingerprint shows them unchanged are accepted without
+ * being written.
+ */
+class EntityStreamUpserter implements StreamObserver<Entity> {
+  private static final Logger LOG = LoggerFactory.getLogger(EntityStreamUpserter.class);
+
+  private final String tenantId;
+  private final EntityNormalizer normalizer;
+  private final Collection collection;
+  private final EntityFingerprintCache fingerprintCache;
+  private final EntityReadCache<Entity> readCache;
+  private final int batchSize;
+  private final ServerCallStreamObserver<UpsertEntityStreamSummary> responseObserver;
+  private final Map<Key, Document> pendingDocuments = new LinkedHashMap<>();
+  private final Map<String, String> pendingFingerprints = new HashMap<>();
+  // Messages folded into the pending batch, which can hold fewer entities if ids repeat
+  private int pendingMessageCount = 0;
+  private long acceptedCount = 0;
+  private long failedCount = 0;
+  private int flushedBatchCount = 0;
+
+  EntityStreamUpserter(
+      String tenantId,
+      EntityNormalizer normalizer,
+      Collection collection,
+      EntityFingerprintCache fingerprintCache,
+      EntityReadCache<Entity> readCache,
+      int batchSize,
+      ServerCallStreamObserver<UpsertEntityStreamSummary> responseObserver) {
+    this.tenantId = tenantId;
+    this.normalizer = normalizer;
+    this.collection = collection;
+    this.fingerprintCache = fingerprintCache;
+    this.readCache = readCache;
+    this.batchSize = batchSize;
+    this.responseObserver = responseObserver;
+  }
+
+  /** Must be called before the call handler returns, so that auto flow control is never used. */
+  EntityStreamUpserter start() {
+    this.responseObserver.disableAutoInboundFlowControl();
+    this.responseObserver.request(this.batchSize);
+    return this;
+  }
+
+  @Override
+  public void onNext(Entity entity) {
+    try {
+      Entity normalizedEntity = this.normalizer.normalize(this.tenantId, entity);
+      String entityId = normalizedEntity.getEntityId();
+      String fingerprint = this.fingerprintCache.fingerprint(normalizedEntity);
+      if (this.fingerprintCache.isUnchanged(this.tenantId, entityId, fingerprint)) {
+        this.acceptedCount++;
+      } else {
+        this.pendingDocuments.put(
+            new SingleValueKey(this.tenantId, entityId),
+            this.fingerprintCache.toDocument(normalizedEntity, fingerprint));
+        this.pendingFingerprints.put(entityId, fingerprint);
+        this.pendingMessageCount++;
+      }
+    } catch (Throwable throwable) {
+      LOG.warn("Failed to upsert: {}", entity, throwable);
+      this.failedCount++;
+    }
+
+    if (this.pendingDocuments.size() >= this.batchSize) {
+      this.flush();
+    }
+    this.responseObserver.request(1);
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    LOG.warn(
+        "Entity upsert stream terminated by the client, dropping {} pending entities",
+        this.pendingDocuments.size(),
+        throwable);
+    this.pendingDocuments.clear();
+    this.pendingFingerprints.clear();
+  }
+
+  @Override
+  public void onCompleted() {
+    this.flush();
+    this.responseObserver.onNext(
+        UpsertEntityStreamSummary.newBuilder()
+            .setAcceptedCount(this.acceptedCount)
+            .setFailedCount(this.failedCount)
+            .setFlushedBatchCount(this.flushedBatchCount)
+            .build());
+    this.responseObserver.onCompleted();
+  }
+
+  private void flush() {
+    if (this.pendingDocuments.isEmpty()) {
+      return;
+    }
+
+    boolean status;
+    try {
+      status = this.collection.bulkUpsert(this.pendingDocuments);
+    } catch (Throwable throwable) {
+      LOG.error("Failed to bulk upsert entities", throwable);
+      status = false;
+    }
+    this.readCache.invalidateAll(this.tenantId, this.pendingFingerprints.keySet());
+
+    if (status) {
+      this.pendingFingerprints.forEach(
+          (entityId, fingerprint) ->
+              this.fingerprintCache.recordWrite(this.tenantId, entityId, fingerprint, null));
+      this.acceptedCount += this.pendingMessageCount;
+      this.flushedBatchCount++;
+    } else {
+      LOG.warn("Failed to bulk upsert {} streamed entities", this.pendingDocuments.size());
+      this.pendingFingerprints
+          .keySet()
+          .forEach(entityId -> this.fingerprintCache.invalidate(this.tenantId, entityId));
+      this.failedCount += this.pendingMessageCount;
+    }
+    this.pendingDocuments.clear();
+    this.pendingFingerprints.clear();
+    this.pendingMessageCount = 0;
+  }
+}
@@ -0,0 +1,188 @@
+package org.hypertrace.entity.data.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.DistributionSummary;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.Key;
+import org.hypertrace.core.documentstore.SingleValueKey;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.entity.service.constants.EntityServiceConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Gathers concurrent single entity upserts of a tenant into one bulk upsert. A batch is flushed
+ * once it holds {@code maxBatchSize} entities or once it is {@code maxLinger} old, whichever comes
+ * first. Every caller is completed with its own document, read back after the bulk write.
+ */
+class EntityUpsertCoalescer {
+  private static final Logger LOG = LoggerFactory.getLogger(EntityUpsertCoalescer.class);
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String BATCH_SIZE_METRIC = "entity.data.service.upsert.coalesced.batch.size";
+  private static final String BATCH_FILL_RATIO_METRIC =
+      "entity.data.service.upsert.coalesced.batch.fill.ratio";
+
+  private final Collection collection;
+  private final KeyedDocumentSearch keyedDocumentSearch = new KeyedDocumentSearch();
+  private final int maxBatchSize;
+  private final long maxLingerMillis;
+  private final ScheduledExecutorService executor;
+  private final Map<String, PendingBatch> pendingBatchesByTenant = new HashMap<>();
+  private final DistributionSummary batchSizeSummary;
+  private final DistributionSummary batchFillRatioSummary;
+
+  EntityUpsertCoalescer(
+      Collection collection, int maxBatchSize, Duration maxLinger, int flushThreads) {
+    this(
+        collection,
+        maxBatchSize,
+        maxLinger,
+        Executors.newScheduledThreadPool(
+            flushThreads,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("entity-upsert-coalescer-%d")
+                .build()));
+  }
+
+  EntityUpsertCoalescer(
+      Collection collection,
+      int maxBatchSize,
+      Duration maxLinger,
+      ScheduledExecutorService executor) {
+    this.collection = collection;
+    this.maxBatchSize = maxBatchSize;
+    this.maxLingerMillis = maxLinger.toMillis();
+    this.executor = executor;
+    this.batchSizeSummary =
+        DistributionSummary.builder(BATCH_SIZE_METRIC)
+            .register(PlatformMetricsRegistry.getMeterRegistry());
+    this.batchFillRatioSummary =
+        DistributionSummary.builder(BATCH_FILL_RATIO_METRIC)
+            .register(PlatformMetricsRegistry.getMeterRegistry());
+  }
+
+  /**
+   * Queues the document for the next bulk upsert of the tenant.
+   *
+   * @return future completed with the stored document, or with null if it could not be read back
+   */
+  CompletableFuture<Document> upsert(String tenantId, String entityId, Document document) {
+    CompletableFuture<Document> future = new CompletableFuture<>();
+    PendingBatch fullBatch = null;
+    synchronized (this.pendingBatchesByTenant) {
+      PendingBatch batch =
+          this.pendingBatchesByTenant.computeIfAbsent(tenantId, this::startBatch);
+      batch.add(entityId, document, future);
+      if (batch.size() >= this.maxBatchSize) {
+        this.pendingBatchesByTenant.remove(tenantId);
+        fullBatch = batch;
+      }
+    }
+
+    // A batch filled up by this caller is flushed on its own thread, rather than waiting for linger
+    if (fullBatch != null) {
+      this.flush(fullBatch);
+    }
+    return future;
+  }
+
+  private PendingBatch startBatch(String tenantId) {
+    PendingBatch batch = new PendingBatch(tenantId);
+    this.executor.schedule(
+        () -> this.flushIfPending(batch), this.maxLingerMillis, TimeUnit.MILLISECONDS);
+    return batch;
+  }
+
+  private void flushIfPending(PendingBatch batch) {
+    synchronized (this.pendingBatchesByTenant) {
+      if (!this.pendingBatchesByTenant.remove(batch.tenantId, batch)) {
+        // Already flushed because it filled up
+        return;
+      }
+    }
+    this.flush(batch);
+  }
+
+  private void flush(PendingBatch batch) {
+    this.batchSizeSummary.record(batch.size());
+    this.batchFillRatioSummary.record((double) batch.size() / this.maxBatchSize);
+
+    try {
+      Map<Key, Document> documents = new HashMap<>();
+      batch.documentsByEntityId.forEach(
+          (entityId, document) ->
+              documents.put(new SingleValueKey(batch.tenantId, entityId), document));
+
+      if (!this.collection.bulkUpsert(documents)) {
+        batch.completeExceptionally(new RuntimeException("Failed to bulk upsert entities"));
+        return;
+      }
+
+      Map<String, Document> storedDocuments = this.readBack(documents);
+      batch.waitersByEntityId.forEach(
+          (entityId, waiters) ->
+              waiters.forEach(waiter -> waiter.complete(storedDocuments.get(entityId))));
+    } catch (Throwable throwable) {
+      LOG.error("Failed to flush coalesced upserts for tenant {}", batch.tenantId, throwable);
+      batch.completeExceptionally(throwable);
+    }
+  }
+
+  private Map<String, Document> readBack(Map<Key, Document> documents) throws IOException {
+    Map<String, Document> storedDocuments = new HashMap<>();
+    Iterator<Document> iterator =
+        this.keyedDocumentSearch.findAll(this.collection, new ArrayList<>(documents.keySet()));
+    while (iterator.hasNext()) {
+      Document document = iterator.next();
+      JsonNode entityId =
+          OBJECT_MAPPER.readTree(document.toJson()).path(EntityServiceConstants.ENTITY_ID);
+      if (entityId.isTextual()) {
+        storedDocuments.put(entityId.asText(), document);
+      }
+    }
+    return storedDocuments;
+  }
+
+  private static class PendingBatch {
+    private final String tenantId;
+    private final Map<String, Document> documentsByEntityId = new LinkedHashMap<>();
+    private final Map<String, List<CompletableFuture<Document>>> waitersByEntityId =
+        new HashMap<>();
+
+    private PendingBatch(String tenantId) {
+      this.tenantId = tenantId;
+    }
+
+    private void add(String entityId, Document document, CompletableFuture<Document> waiter) {
+      // Concurrent upserts of the same entity collapse into one write, the last one wins
+      this.documentsByEntityId.put(entityId, document);
+      this.waitersByEntityId.computeIfAbsent(entityId, unused -> new ArrayList<>()).add(waiter);
+    }
+
+    private int size() {
+      return this.documentsByEntityId.size();
+    }
+
+    private void completeExceptionally(Throwable throwable) {
+      this.waitersByEntityId.values().stream()
+          .flatMap(List::stream)
+          .forEach(waiter -> waiter.completeExceptionally(throwable));
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package org.hypertrace.entity.data.service;
+
+/**
+ * Notified of the writes made to the entities collection by other services than the entity data
+ * service, such as the updates of the entity query service, so that what the entity data service
+ * derived from the previous content of those entities is not used any more.
+ */
+public interface EntityWriteListener {
+  EntityWriteListener NONE = new EntityWriteListener() {};
+
+  /** Called before the document of an entity is modified in place. */
+  default void beforeModifiedInPlace(String tenantId, String entityId) {}
+
+  /** Called once the document of an entity has been written, whether or not it succeeded. */
+  default void afterModified(String tenantId, String entityId) {}
+}
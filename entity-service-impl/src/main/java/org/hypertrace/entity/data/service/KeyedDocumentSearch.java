@@ -0,0 +1,49 @@
+package org.hypertrace.entity.data.service;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.Filter;
+import org.hypertrace.core.documentstore.Key;
+import org.hypertrace.core.documentstore.Query;
+import org.hypertrace.entity.service.constants.EntityServiceConstants;
+
+/**
+ * Searches of documents by their primary key, shared by the reads that know the keys of the
+ * documents they need. The doc store has no fetch by key, so these are plain {@link
+ * Collection#search} calls, with a filter on the unique {@code _id} only and the limit set to the
+ * number of keys. The results are handed over as they are read, never buffered.
+ */
+class KeyedDocumentSearch {
+
+  Optional<Document> findOne(Collection collection, Key key) {
+    Query query = new Query();
+    query.setFilter(new Filter(Filter.Op.EQ, EntityServiceConstants.ID, key.toString()));
+    query.setLimit(1);
+
+    Iterator<Document> result = collection.search(query);
+    return result.hasNext() ? Optional.of(result.next()) : Optional.empty();
+  }
+
+  /** @return the documents found, in no particular order */
+  Iterator<Document> findAll(Collection collection, List<? extends Key> keys) {
+    if (keys.isEmpty()) {
+      return List.<Document>of().iterator();
+    }
+    if (keys.size() == 1) {
+      return this.findOne(collection, keys.get(0)).stream().iterator();
+    }
+
+    Query query = new Query();
+    query.setFilter(
+        new Filter(
+            Filter.Op.IN,
+            EntityServiceConstants.ID,
+            keys.stream().map(Key::toString).collect(Collectors.toList())));
+    query.setLimit(keys.size());
+    return collection.search(query);
+  }
+}
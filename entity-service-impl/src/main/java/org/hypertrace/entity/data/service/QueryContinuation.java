@@ -0,0 +1,208 @@
+package org.hypertrace.entity.data.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.Filter;
+import org.hypertrace.core.documentstore.OrderBy;
+import org.hypertrace.core.documentstore.SingleValueKey;
+import org.hypertrace.entity.data.service.v1.OrderByExpression;
+import org.hypertrace.entity.data.service.v1.Query;
+import org.hypertrace.entity.data.service.v1.SortOrder;
+import org.hypertrace.entity.service.constants.EntityServiceConstants;
+import org.hypertrace.entity.service.exception.InvalidRequestException;
+
+/**
+ * Keyset pagination of entity queries. A continuation token holds the sort key of the last entity
+ * of a page: the values of the requested order by fields followed by its {@code _id}, which breaks
+ * ties so that the order is total. The next page is read with a filter on entities sorting after
+ * that key, so its cost does not grow with the number of entities paged over.
+ *
+ * <p>Keyset filters only match entities having a value for each order by field, while the
+ * entities missing one are still sorted among the others, first or last depending on the doc store
+ * backend. So queries are only paged by keyset when they are ordered by fields every entity has,
+ * and by offset otherwise, from their first page to their last.
+ *
+ * <p>Tokens are opaque to clients, and only valid for the query they were returned for.
+ */
+class QueryContinuation {
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final String OFFSET_FIELD = "offset";
+  private static final String VALUES_FIELD = "values";
+  private static final String ID_FIELD = "id";
+  private static final String INVALID_TOKEN_MESSAGE = "Invalid continuation token";
+  // Fields set on every entity, which can not be missing from any document
+  private static final Set<String> REQUIRED_FIELDS =
+      Set.of(
+          EntityServiceConstants.TENANT_ID,
+          EntityServiceConstants.ENTITY_TYPE,
+          EntityServiceConstants.ENTITY_ID);
+
+  /**
+   * Adds the {@code _id} tie breaker to the order of the doc store query and, when the request
+   * carries a continuation token, restricts it to the entities after the token.
+   *
+   * @return the offset the doc store query now starts at, to be passed to {@link #next}
+   */
+  static int apply(Query request, org.hypertrace.core.documentstore.Query docStoreQuery)
+      throws InvalidRequestException {
+    docStoreQuery.addOrderBy(new OrderBy(EntityServiceConstants.ID, true));
+    if (request.getContinuationToken().isEmpty()) {
+      return request.getOffset();
+    }
+    if (request.getOffset() > 0) {
+      throw new InvalidRequestException("Offset can not be combined with a continuation token");
+    }
+
+    JsonNode token = decode(request.getContinuationToken());
+    if (token.has(OFFSET_FIELD)) {
+      int offset = token.get(OFFSET_FIELD).asInt();
+      docStoreQuery.setOffset(offset);
+      return offset;
+    }
+
+    JsonNode values = token.path(VALUES_FIELD);
+    if (!isPagedByKeyset(request)
+        || !values.isArray()
+        || values.size() != request.getOrderByCount()
+        || !token.path(ID_FIELD).isTextual()) {
+      throw new InvalidRequestException(INVALID_TOKEN_MESSAGE);
+    }
+    Filter afterToken = buildAfterFilter(request.getOrderByList(), values, token.get(ID_FIELD));
+    Filter filter = docStoreQuery.getFilter();
+    docStoreQuery.setFilter(filter == null ? afterToken : and(List.of(filter, afterToken)));
+    return 0;
+  }
+
+  /**
+   * @param offset offset returned by {@link #apply}
+   * @param lastDocument last document of the page read for the request
+   * @param readCount number of entities on the page
+   * @return the token of the page after the one read, empty if there is none
+   */
+  static Optional<String> next(
+      Query request, int offset, String tenantId, Document lastDocument, int readCount)
+      throws IOException {
+    if (request.getLimit() <= 0 || readCount < request.getLimit()) {
+      return Optional.empty();
+    }
+    if (!isPagedByKeyset(request)) {
+      // The offset is that of the query without any keyset filter, as it is never given one
+      return Optional.of(
+          encode(OBJECT_MAPPER.createObjectNode().put(OFFSET_FIELD, offset + readCount)));
+    }
+
+    JsonNode document = OBJECT_MAPPER.readTree(lastDocument.toJson());
+    ObjectNode token = OBJECT_MAPPER.createObjectNode();
+    ArrayNode values = token.putArray(VALUES_FIELD);
+    for (OrderByExpression orderBy : request.getOrderByList()) {
+      JsonNode value = getPath(document, orderBy.getName());
+      if (!value.isValueNode() || value.isNull()) {
+        throw new IOException(
+            String.format("Document is missing its sort key field %s", orderBy.getName()));
+      }
+      values.add(value);
+    }
+    String entityId = document.path(EntityServiceConstants.ENTITY_ID).asText();
+    token.put(ID_FIELD, new SingleValueKey(tenantId, entityId).toString());
+    return Optional.of(encode(token));
+  }
+
+  private static boolean isPagedByKeyset(Query request) {
+    return request.getOrderByList().stream()
+        .map(OrderByExpression::getName)
+        .allMatch(REQUIRED_FIELDS::contains);
+  }
+
+  /**
+   * Entities after the key (v1, .., vn, id) are those with f1 after v1, or f1 equal to v1 and f2
+   * after v2, and so on down to the id.
+   */
+  private static Filter buildAfterFilter(
+      List<OrderByExpression> orderBys, JsonNode values, JsonNode id) {
+    List<Filter> alternatives = new ArrayList<>();
+    List<Filter> equalPrefix = new ArrayList<>();
+    for (int i = 0; i < orderBys.size(); i++) {
+      OrderByExpression orderBy = orderBys.get(i);
+      Object value = toFilterValue(values.get(i));
+      Filter.Op op = orderBy.getOrder() == SortOrder.ASC ? Filter.Op.GT : Filter.Op.LT;
+      alternatives.add(withPrefix(equalPrefix, new Filter(op, orderBy.getName(), value)));
+      equalPrefix.add(new Filter(Filter.Op.EQ, orderBy.getName(), value));
+    }
+    alternatives.add(
+        withPrefix(
+            equalPrefix, new Filter(Filter.Op.GT, EntityServiceConstants.ID, id.asText())));
+
+    if (alternatives.size() == 1) {
+      return alternatives.get(0);
+    }
+    Filter filter = new Filter();
+    filter.setOp(Filter.Op.OR);
+    filter.setChildFilters(alternatives.toArray(new Filter[] {}));
+    return filter;
+  }
+
+  private static Filter withPrefix(List<Filter> equalPrefix, Filter last) {
+    if (equalPrefix.isEmpty()) {
+      return last;
+    }
+    List<Filter> filters = new ArrayList<>(equalPrefix);
+    filters.add(last);
+    return and(filters);
+  }
+
+  private static Filter and(List<Filter> filters) {
+    Filter filter = new Filter();
+    filter.setOp(Filter.Op.AND);
+    filter.setChildFilters(filters.toArray(new Filter[] {}));
+    return filter;
+  }
+
+  private static Object toFilterValue(JsonNode value) {
+    if (value.isTextual()) {
+      return value.asText();
+    }
+    if (value.isBoolean()) {
+      return value.asBoolean();
+    }
+    if (value.isIntegralNumber()) {
+      return value.canConvertToInt() ? (Object) value.asInt() : (Object) value.asLong();
+    }
+    return value.asDouble();
+  }
+
+  private static JsonNode getPath(JsonNode document, String path) {
+    JsonNode node = document;
+    for (String field : path.split("\\.")) {
+      node = node.path(field);
+    }
+    return node;
+  }
+
+  private static String encode(JsonNode token) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static JsonNode decode(String token) throws InvalidRequestException {
+    try {
+      JsonNode decoded = OBJECT_MAPPER.readTree(Base64.getUrlDecoder().decode(token));
+      if (!decoded.isObject()) {
+        throw new InvalidRequestException(INVALID_TOKEN_MESSAGE);
+      }
+      return decoded;
+    } catch (IllegalArgumentException | IOException e) {
+      throw new InvalidRequestException(INVALID_TOKEN_MESSAGE);
+    }
+  }
+}
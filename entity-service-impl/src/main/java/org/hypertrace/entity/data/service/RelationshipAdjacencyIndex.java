@@ -0,0 +1,452 @@
+package org.hypertrace.entity.data.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.Query;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.entity.data.service.v1.EntityRelationship;
+import org.hypertrace.entity.data.service.v1.EntityRelationshipOrBuilder;
+import org.hypertrace.entity.data.service.v1.RelationshipsQuery;
+import org.hypertrace.entity.service.util.DocStoreConverter;
+import org.hypertrace.entity.service.util.FlowControlledStreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In process index of the relationships of the tenants, answering the relationship queries by
+ * from or to entity ids without reading the doc store. The relationships of a tenant are read
+ * from the doc store the first time it is queried, then kept current by the relationships upserted
+ * through the service. Writes by other replicas are not seen, which the expiry bounds.
+ *
+ * <p>Entity ids are numbered per tenant, and each relationship type keeps its forward and reverse
+ * adjacency lists as arrays of these numbers, indexed by them.
+ *
+ * <p>Tenants are evicted as a whole once the size estimate of all the tenants indexed goes over
+ * the maximum weight. That estimate is taken when a tenant is loaded, the growth of a tenant
+ * through upserts being bounded by the maximum number of relationships per tenant: a tenant going
+ * over it is dropped, and not indexed again until its marker expires.
+ *
+ * <p>A load which raced with a write to the same tenant is not kept, and the query is answered by
+ * the doc store. So are the queries arriving while their tenant is being loaded. A disabled index
+ * answers nothing.
+ */
+class RelationshipAdjacencyIndex {
+  private static final Logger LOG = LoggerFactory.getLogger(RelationshipAdjacencyIndex.class);
+  private static final String METRIC_NAME = "entity.data.service.relationship.index";
+  private static final int STRIPES = 64;
+
+  private final Collection relationshipsCollection;
+  private final DocumentParser parser;
+  private final boolean enabled;
+  private final int maxRelationshipsPerTenant;
+  private final Cache<String, TenantAdjacency> cache;
+  private final Striped<Lock> loadLocks = Striped.lock(STRIPES);
+  private final AtomicLongArray writeVersions = new AtomicLongArray(STRIPES);
+
+  RelationshipAdjacencyIndex(
+      Collection relationshipsCollection,
+      DocumentParser parser,
+      boolean enabled,
+      long maxWeightBytes,
+      int maxRelationshipsPerTenant,
+      Duration expiry) {
+    this.relationshipsCollection = relationshipsCollection;
+    this.parser = parser;
+    this.enabled = enabled;
+    this.maxRelationshipsPerTenant = maxRelationshipsPerTenant;
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxWeightBytes)
+            .weigher((String tenantId, TenantAdjacency adjacency) -> adjacency.weigh())
+            .expireAfterWrite(expiry)
+            .recordStats()
+            .build();
+    if (enabled) {
+      GuavaCacheMetrics.monitor(
+          PlatformMetricsRegistry.getMeterRegistry(), this.cache, METRIC_NAME);
+    }
+  }
+
+  /**
+   * Sends the relationships matching the query to the response stream, without completing it.
+   *
+   * @return whether the query was answered, false if it has to be answered by the doc store
+   */
+  boolean stream(
+      String tenantId,
+      RelationshipsQuery query,
+      FlowControlledStreamObserver<EntityRelationship> responseStream) {
+    if (!this.enabled || !isServed(query)) {
+      return false;
+    }
+    Optional<TenantAdjacency> adjacency = this.getOrLoad(tenantId);
+    adjacency.ifPresent(loaded -> loaded.stream(tenantId, query, responseStream));
+    return adjacency.isPresent();
+  }
+
+  /** Must be called after the relationships have been written. */
+  void recordUpserts(String tenantId, Iterable<EntityRelationship> relationships) {
+    if (!this.enabled) {
+      return;
+    }
+    this.writeVersions.incrementAndGet(getStripe(tenantId));
+    TenantAdjacency adjacency = this.cache.getIfPresent(tenantId);
+    if (adjacency == null || adjacency.isOversized()) {
+      return;
+    }
+
+    relationships.forEach(adjacency::add);
+    if (adjacency.getRelationshipCount() > this.maxRelationshipsPerTenant) {
+      this.cache.put(tenantId, TenantAdjacency.oversized());
+    }
+  }
+
+  /** Must be called after a write to the relationships of the tenant which may have failed. */
+  void invalidate(String tenantId) {
+    if (!this.enabled) {
+      return;
+    }
+    this.writeVersions.incrementAndGet(getStripe(tenantId));
+    this.cache.invalidate(tenantId);
+  }
+
+  /** Only unbounded queries by entity ids are served, limited ones are ordered by the doc store. */
+  private static boolean isServed(RelationshipsQuery query) {
+    return query.getLimit() == 0
+        && !query.hasStartAfter()
+        && (query.getFromEntityIdCount() > 0 || query.getToEntityIdCount() > 0);
+  }
+
+  private Optional<TenantAdjacency> getOrLoad(String tenantId) {
+    TenantAdjacency adjacency = this.cache.getIfPresent(tenantId);
+    if (adjacency == null) {
+      Lock lock = this.loadLocks.get(tenantId);
+      if (!lock.tryLock()) {
+        return Optional.empty();
+      }
+      try {
+        adjacency = this.cache.getIfPresent(tenantId);
+        if (adjacency == null) {
+          adjacency = this.load(tenantId);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    return Optional.ofNullable(adjacency).filter(loaded -> !loaded.isOversized());
+  }
+
+  @Nullable
+  private TenantAdjacency load(String tenantId) {
+    int stripe = getStripe(tenantId);
+    long writeVersion = this.writeVersions.get(stripe);
+
+    Query query = new Query();
+    query.setFilter(DocStoreConverter.getTenantIdEqFilter(tenantId));
+    Iterator<Document> documents = this.relationshipsCollection.search(query);
+    TenantAdjacency adjacency = new TenantAdjacency();
+    while (documents.hasNext()) {
+      if (adjacency.getRelationshipCount() >= this.maxRelationshipsPerTenant) {
+        LOG.info(
+            "Tenant {} has more than {} relationships, which are not indexed",
+            tenantId,
+            this.maxRelationshipsPerTenant);
+        adjacency = TenantAdjacency.oversized();
+        break;
+      }
+      Optional<EntityRelationship> relationship =
+          this.parser.<EntityRelationship>parseOrLog(
+              documents.next(), EntityRelationship.newBuilder());
+      if (relationship.isPresent()) {
+        adjacency.load(relationship.get());
+      }
+    }
+
+    if (this.writeVersions.get(stripe) != writeVersion) {
+      return null;
+    }
+    this.cache.put(tenantId, adjacency);
+    // A write may have been missed by the load, and not been recorded as it was not cached yet
+    if (this.writeVersions.get(stripe) != writeVersion) {
+      this.cache.invalidate(tenantId);
+      return null;
+    }
+    return adjacency;
+  }
+
+  private static int getStripe(String tenantId) {
+    return Math.floorMod(tenantId.hashCode(), STRIPES);
+  }
+
+  /** Adjacency of the relationships of one tenant. */
+  static final class TenantAdjacency {
+    private static final int ENTITY_OVERHEAD_BYTES = 96;
+    private static final int TYPE_OVERHEAD_BYTES = 128;
+
+    private final boolean oversized;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> entityNumbers = new HashMap<>();
+    private final List<String> entityIds = new ArrayList<>();
+    private final Map<String, AdjacencyLists[]> adjacencyByType = new HashMap<>();
+    // Versions are seldom set, so only the ones which are are kept, by doc key
+    private final Map<String, String> versionsByKey = new HashMap<>();
+    private int relationshipCount = 0;
+    private long entityIdsWeight = 0;
+
+    private TenantAdjacency() {
+      this(false);
+    }
+
+    private TenantAdjacency(boolean oversized) {
+      this.oversized = oversized;
+    }
+
+    static TenantAdjacency oversized() {
+      return new TenantAdjacency(true);
+    }
+
+    boolean isOversized() {
+      return this.oversized;
+    }
+
+    int getRelationshipCount() {
+      return this.relationshipCount;
+    }
+
+    /** Adds a relationship read from the doc store, where it can not be a duplicate. */
+    void load(EntityRelationship relationship) {
+      this.add(relationship, false);
+    }
+
+    /** Adds or updates an upserted relationship. */
+    void add(EntityRelationship relationship) {
+      this.lock.writeLock().lock();
+      try {
+        this.add(relationship, true);
+      } finally {
+        this.lock.writeLock().unlock();
+      }
+    }
+
+    private void add(EntityRelationship relationship, boolean mayExist) {
+      int from = this.getEntityNumber(relationship.getFromEntityId());
+      int to = this.getEntityNumber(relationship.getToEntityId());
+      AdjacencyLists[] adjacency =
+          this.adjacencyByType.computeIfAbsent(
+              relationship.getEntityRelationshipType(),
+              type -> new AdjacencyLists[] {new AdjacencyLists(), new AdjacencyLists()});
+      if (adjacency[0].add(from, to, mayExist)) {
+        adjacency[1].add(to, from, false);
+        this.relationshipCount++;
+      }
+
+      String key = buildKey(relationship);
+      if (relationship.getVersion().isEmpty()) {
+        this.versionsByKey.remove(key);
+      } else {
+        this.versionsByKey.put(key, relationship.getVersion());
+      }
+    }
+
+    /**
+     * Sends the relationships matching the query one at a time, stopping once the call is
+     * cancelled. Only the numbers of the adjacent entities are copied while holding the read lock,
+     * so that the relationships of an entity with many are never all built at once, nor is the
+     * lock held while they are being sent.
+     */
+    void stream(
+        String tenantId,
+        RelationshipsQuery query,
+        FlowControlledStreamObserver<EntityRelationship> responseStream) {
+      boolean outgoing = query.getFromEntityIdCount() > 0;
+      Set<String> sourceIds =
+          new LinkedHashSet<>(outgoing ? query.getFromEntityIdList() : query.getToEntityIdList());
+      Set<String> targetIds =
+          outgoing ? new HashSet<>(query.getToEntityIdList()) : Collections.emptySet();
+      List<Adjacency> matches = new ArrayList<>();
+
+      this.lock.readLock().lock();
+      try {
+        Set<String> types =
+            query.getEntityRelationshipCount() > 0
+                ? new LinkedHashSet<>(query.getEntityRelationshipList())
+                : this.adjacencyByType.keySet();
+        for (String type : types) {
+          AdjacencyLists[] adjacency = this.adjacencyByType.get(type);
+          if (adjacency == null) {
+            continue;
+          }
+          AdjacencyLists lists = outgoing ? adjacency[0] : adjacency[1];
+          for (String sourceId : sourceIds) {
+            Integer source = this.entityNumbers.get(sourceId);
+            if (source != null && lists.size(source) > 0) {
+              matches.add(new Adjacency(type, sourceId, lists.copy(source)));
+            }
+          }
+        }
+      } finally {
+        this.lock.readLock().unlock();
+      }
+
+      for (Adjacency match : matches) {
+        for (int target : match.targets) {
+          if (responseStream.isCancelled()) {
+            return;
+          }
+          EntityRelationship relationship;
+          this.lock.readLock().lock();
+          try {
+            // Entity numbers are never reassigned, so they still name the same entities
+            String targetId = this.entityIds.get(target);
+            if (!targetIds.isEmpty() && !targetIds.contains(targetId)) {
+              continue;
+            }
+            relationship =
+                outgoing
+                    ? this.buildRelationship(tenantId, match.type, match.sourceId, targetId)
+                    : this.buildRelationship(tenantId, match.type, targetId, match.sourceId);
+          } finally {
+            this.lock.readLock().unlock();
+          }
+          responseStream.onNext(relationship);
+        }
+      }
+    }
+
+    /** @return an estimate of the bytes held */
+    int weigh() {
+      long bytes = this.entityIdsWeight + (long) this.entityIds.size() * ENTITY_OVERHEAD_BYTES;
+      for (AdjacencyLists[] adjacency : this.adjacencyByType.values()) {
+        bytes += TYPE_OVERHEAD_BYTES + adjacency[0].weigh() + adjacency[1].weigh();
+      }
+      bytes += (long) this.versionsByKey.size() * 2 * ENTITY_OVERHEAD_BYTES;
+      return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    private int getEntityNumber(String entityId) {
+      Integer number = this.entityNumbers.get(entityId);
+      if (number == null) {
+        number = this.entityIds.size();
+        this.entityNumbers.put(entityId, number);
+        this.entityIds.add(entityId);
+        this.entityIdsWeight += 2L * entityId.length();
+      }
+      return number;
+    }
+
+    private EntityRelationship buildRelationship(
+        String tenantId, String type, String fromEntityId, String toEntityId) {
+      EntityRelationship.Builder builder =
+          EntityRelationship.newBuilder()
+              .setTenantId(tenantId)
+              .setEntityRelationshipType(type)
+              .setFromEntityId(fromEntityId)
+              .setToEntityId(toEntityId);
+      if (!this.versionsByKey.isEmpty()) {
+        String version = this.versionsByKey.get(buildKey(builder));
+        if (version != null) {
+          builder.setVersion(version);
+        }
+      }
+      return builder.build();
+    }
+
+    private static String buildKey(EntityRelationshipOrBuilder relationship) {
+      return new EntityRelationshipDocKey(
+              "",
+              relationship.getEntityRelationshipType(),
+              relationship.getFromEntityId(),
+              relationship.getToEntityId())
+          .toString();
+    }
+  }
+
+  /** Numbers of the entities adjacent to one entity through one relationship type. */
+  private static final class Adjacency {
+    private final String type;
+    private final String sourceId;
+    private final int[] targets;
+
+    private Adjacency(String type, String sourceId, int[] targets) {
+      this.type = type;
+      this.sourceId = sourceId;
+      this.targets = targets;
+    }
+  }
+
+  /** Lists of the entity numbers adjacent to each entity number. */
+  private static final class AdjacencyLists {
+    private static final int INITIAL_LIST_CAPACITY = 2;
+
+    private int[][] lists = new int[0][];
+    private int[] sizes = new int[0];
+
+    /** @return whether the adjacency was added, false if it already was in the list */
+    boolean add(int from, int to, boolean mayExist) {
+      if (from >= this.lists.length) {
+        int capacity = Math.max(from + 1, 2 * this.lists.length);
+        this.lists = Arrays.copyOf(this.lists, capacity);
+        this.sizes = Arrays.copyOf(this.sizes, capacity);
+      }
+
+      int[] list = this.lists[from];
+      int size = this.sizes[from];
+      if (list == null) {
+        list = new int[INITIAL_LIST_CAPACITY];
+        this.lists[from] = list;
+      } else if (mayExist) {
+        for (int i = 0; i < size; i++) {
+          if (list[i] == to) {
+            return false;
+          }
+        }
+      }
+      if (size == list.length) {
+        list = Arrays.copyOf(list, 2 * size);
+        this.lists[from] = list;
+      }
+      list[size] = to;
+      this.sizes[from] = size + 1;
+      return true;
+    }
+
+    int size(int from) {
+      return from < this.sizes.length ? this.sizes[from] : 0;
+    }
+
+    int[] copy(int from) {
+      return Arrays.copyOf(this.lists[from], this.size(from));
+    }
+
+    long weigh() {
+      long bytes = 12L * this.lists.length;
+      for (int[] list : this.lists) {
+        if (list != null) {
+          bytes += 16 + 4L * list.length;
+        }
+      }
+      return bytes;
+    }
+  }
+}
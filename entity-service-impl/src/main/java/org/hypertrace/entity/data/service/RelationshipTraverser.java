@@ -0,0 +1,139 @@
+package org.hypertrace.entity.data.service;
+
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.Filter;
+import org.hypertrace.core.documentstore.Query;
+import org.hypertrace.entity.data.service.v1.EntityRelationship;
+import org.hypertrace.entity.data.service.v1.RelationshipTraversal;
+import org.hypertrace.entity.data.service.v1.TraversalDirection;
+import org.hypertrace.entity.service.constants.EntityServiceConstants;
+import org.hypertrace.entity.service.util.DocStoreConverter;
+import org.hypertrace.entity.service.util.FlowControlledStreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Breadth first traversal of the relationships of a tenant. Each hop reads the relationships of
+ * the whole frontier with one IN query per chunk of entity ids, and the next frontier only holds
+ * the entities not visited yet, so that no entity is expanded twice.
+ */
+class RelationshipTraverser {
+  private static final Logger LOG = LoggerFactory.getLogger(RelationshipTraverser.class);
+
+  private final Collection relationshipsCollection;
+  private final DocumentParser parser;
+  private final int chunkSize;
+
+  RelationshipTraverser(Collection relationshipsCollection, DocumentParser parser, int chunkSize) {
+    this.relationshipsCollection = relationshipsCollection;
+    this.parser = parser;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Streams the relationships followed, hop by hop, then completes the observer. The traversal
+   * stops as soon as the call is cancelled.
+   */
+  void traverse(
+      String tenantId,
+      RelationshipTraversal traversal,
+      int maxDepth,
+      FlowControlledStreamObserver<EntityRelationship> responseObserver) {
+    boolean outgoing = traversal.getDirection() == TraversalDirection.OUTGOING;
+    Set<String> visitedEntityIds = new LinkedHashSet<>(traversal.getStartEntityIdList());
+    Set<String> frontier = new LinkedHashSet<>(visitedEntityIds);
+    long relationshipCount = 0;
+
+    for (int hop = 0;
+        hop < maxDepth && !frontier.isEmpty() && !responseObserver.isCancelled();
+        hop++) {
+      String relationshipType = getRelationshipType(traversal, hop);
+      Map<String, Integer> fanOutByEntityId = new HashMap<>();
+      Set<String> nextFrontier = new LinkedHashSet<>();
+
+      for (List<String> chunk : Iterables.partition(frontier, this.chunkSize)) {
+        if (responseObserver.isCancelled()) {
+          break;
+        }
+        Iterator<Document> documents =
+            this.relationshipsCollection.search(
+                buildHopQuery(tenantId, relationshipType, outgoing, chunk));
+        while (documents.hasNext() && !responseObserver.isCancelled()) {
+          Optional<EntityRelationship> relationship =
+              this.parser.<EntityRelationship>parseOrLog(
+                  documents.next(), EntityRelationship.newBuilder());
+          if (relationship.isEmpty()) {
+            continue;
+          }
+
+          String sourceId =
+              outgoing ? relationship.get().getFromEntityId() : relationship.get().getToEntityId();
+          String targetId =
+              outgoing ? relationship.get().getToEntityId() : relationship.get().getFromEntityId();
+          int fanOut = fanOutByEntityId.merge(sourceId, 1, Integer::sum);
+          if (traversal.getMaxFanOut() > 0 && fanOut > traversal.getMaxFanOut()) {
+            continue;
+          }
+
+          responseObserver.onNext(relationship.get().toBuilder().setTenantId(tenantId).build());
+          relationshipCount++;
+          if (visitedEntityIds.add(targetId)) {
+            nextFrontier.add(targetId);
+          }
+        }
+      }
+      frontier = nextFrontier;
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(
+          "Traversal has followed {} relationships to {} entities",
+          relationshipCount,
+          visitedEntityIds.size());
+    }
+    responseObserver.onCompleted();
+  }
+
+  @Nullable
+  private static String getRelationshipType(RelationshipTraversal traversal, int hop) {
+    if (traversal.getHopRelationshipTypeCount() == 0) {
+      return null;
+    }
+    return traversal.getHopRelationshipType(
+        Math.min(hop, traversal.getHopRelationshipTypeCount() - 1));
+  }
+
+  private static Query buildHopQuery(
+      String tenantId, @Nullable String relationshipType, boolean outgoing, List<String> chunk) {
+    List<Filter> filters = new ArrayList<>();
+    filters.add(DocStoreConverter.getTenantIdEqFilter(tenantId));
+    if (relationshipType != null) {
+      filters.add(
+          new Filter(
+              Filter.Op.EQ, EntityServiceConstants.ENTITY_RELATIONSHIP_TYPE, relationshipType));
+    }
+    filters.add(
+        new Filter(
+            Filter.Op.IN,
+            outgoing ? EntityServiceConstants.FROM_ENTITY_ID : EntityServiceConstants.TO_ENTITY_ID,
+            chunk));
+
+    Filter filter = new Filter();
+    filter.setOp(Filter.Op.AND);
+    filter.setChildFilters(filters.toArray(new Filter[] {}));
+    Query query = new Query();
+    query.setFilter(filter);
+    return query;
+  }
+}
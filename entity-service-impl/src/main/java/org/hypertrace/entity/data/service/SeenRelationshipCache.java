@@ -0,0 +1,80 @@
+package org.hypertrace.entity.data.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import io.micrometer.core.instrument.Counter;
+import java.time.Duration;
+import java.util.Map;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.entity.data.service.v1.EntityRelationship;
+
+/**
+ * Remembers the relationships last written for each {@link EntityRelationshipDocKey}, in a bounded
+ * cache per tenant, so that upserts of relationships which are already stored as is can be left
+ * out of the bulk upsert. Entries expire, which bounds how long a relationship removed from the
+ * doc store by other means is taken as still stored.
+ *
+ * <p>A disabled cache never reports a relationship as seen.
+ */
+class SeenRelationshipCache {
+  private static final String LOOKUPS_METRIC = "entity.data.service.relationship.seen.lookups";
+  private static final int MAX_TENANTS = 1000;
+
+  private final boolean enabled;
+  private final LoadingCache<String, Cache<EntityRelationshipDocKey, EntityRelationship>>
+      cachesByTenant;
+  private final Counter hitCounter;
+  private final Counter missCounter;
+
+  SeenRelationshipCache(boolean enabled, int maxEntriesPerTenant, Duration expiry) {
+    this.enabled = enabled;
+    this.cachesByTenant =
+        CacheBuilder.newBuilder()
+            .maximumSize(MAX_TENANTS)
+            .expireAfterAccess(expiry)
+            .build(
+                CacheLoader.from(
+                    () ->
+                        CacheBuilder.newBuilder()
+                            .maximumSize(maxEntriesPerTenant)
+                            .expireAfterWrite(expiry)
+                            .build()));
+    this.hitCounter =
+        Counter.builder(LOOKUPS_METRIC)
+            .tag("result", "hit")
+            .register(PlatformMetricsRegistry.getMeterRegistry());
+    this.missCounter =
+        Counter.builder(LOOKUPS_METRIC)
+            .tag("result", "miss")
+            .register(PlatformMetricsRegistry.getMeterRegistry());
+  }
+
+  /** @return whether exactly this relationship was last written under the key */
+  boolean isSeen(String tenantId, EntityRelationshipDocKey key, EntityRelationship relationship) {
+    if (!this.enabled) {
+      return false;
+    }
+
+    boolean seen = relationship.equals(this.getCache(tenantId).getIfPresent(key));
+    if (seen) {
+      this.hitCounter.increment();
+    } else {
+      this.missCounter.increment();
+    }
+    return seen;
+  }
+
+  /** Records relationships that have been successfully written. */
+  void markSeen(String tenantId, Map<EntityRelationshipDocKey, EntityRelationship> relationships) {
+    if (!this.enabled) {
+      return;
+    }
+    this.getCache(tenantId).putAll(relationships);
+  }
+
+  private Cache<EntityRelationshipDocKey, EntityRelationship> getCache(String tenantId) {
+    return this.cachesByTenant.getUnchecked(tenantId);
+  }
+}
@@ -0,0 +1,203 @@
+package org.hypertrace.entity.query.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.entity.data.service.v1.AttributeValue;
+import org.hypertrace.entity.query.service.v1.Expression;
+import org.hypertrace.entity.query.service.v1.Expression.ValueCase;
+import org.hypertrace.entity.query.service.v1.Row;
+import org.hypertrace.entity.query.service.v1.Value;
+import org.hypertrace.entity.query.service.v1.ValueType;
+import org.hypertrace.entity.service.constants.EntityServiceConstants;
+import org.hypertrace.entity.service.util.DocStoreJsonFormat;
+import org.hypertrace.entity.service.util.DocStoreJsonFormat.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plan of the columns selected by an entity query, compiled once per request, which reads the
+ * rows out of the entity documents with {@link EntityQueryServiceImpl#convertToEntityQueryResult}
+ * semantics but without parsing them into entities.
+ *
+ * <p>Documents are scanned with a streaming JSON parser: only the entity id, entity name and
+ * selected attributes are read, the attribute values alone being parsed into protos. As a
+ * consequence, a malformed document is only dropped when a field read for its row is malformed.
+ */
+class EntityColumnPlan {
+  private static final Logger LOG = LoggerFactory.getLogger(EntityColumnPlan.class);
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final Parser PARSER = DocStoreJsonFormat.parser().ignoringUnknownFields();
+  private static final String ATTRIBUTES_PREFIX = "attributes.";
+  // Read as proto JSON is, by json name or field name
+  private static final String ENTITY_ID_FIELD_NAME = "entity_id";
+  private static final String ENTITY_NAME_FIELD_NAME = "entity_name";
+  private static final String ATTRIBUTES_FIELD = "attributes";
+
+  private final List<Column> columns;
+  // Slot of the value of each selected attribute, by attribute name
+  private final Map<String, Integer> attributeSlots;
+  private final boolean readsEntityId;
+  private final boolean readsEntityName;
+
+  private EntityColumnPlan(List<Column> columns, Map<String, Integer> attributeSlots) {
+    this.columns = columns;
+    this.attributeSlots = attributeSlots;
+    this.readsEntityId = columns.stream().anyMatch(column -> column.kind == ColumnKind.ENTITY_ID);
+    this.readsEntityName =
+        columns.stream().anyMatch(column -> column.kind == ColumnKind.ENTITY_NAME);
+  }
+
+  static EntityColumnPlan compile(
+      List<Expression> selections, @Nullable Map<String, String> egsToEdsAttrMapping) {
+    Map<String, String> attrMapping =
+        egsToEdsAttrMapping == null ? Collections.emptyMap() : egsToEdsAttrMapping;
+    List<Column> columns = new ArrayList<>();
+    Map<String, Integer> attributeSlots = new LinkedHashMap<>();
+    for (Expression expression : selections) {
+      if (expression.getValueCase() != ValueCase.COLUMNIDENTIFIER) {
+        continue;
+      }
+      String columnName = expression.getColumnIdentifier().getColumnName();
+      String edsSubDocPath = attrMapping.get(columnName);
+      if (edsSubDocPath == null) {
+        LOG.warn("columnName {} missing in attrNameToEDSAttrMap", columnName);
+        columns.add(new Column(ColumnKind.MISSING, -1));
+      } else if (edsSubDocPath.equals(EntityServiceConstants.ENTITY_ID)) {
+        columns.add(new Column(ColumnKind.ENTITY_ID, -1));
+      } else if (edsSubDocPath.equals(EntityServiceConstants.ENTITY_NAME)) {
+        columns.add(new Column(ColumnKind.ENTITY_NAME, -1));
+      } else if (edsSubDocPath.startsWith(ATTRIBUTES_PREFIX)) {
+        String attributeName = edsSubDocPath.split("\\.")[1];
+        int slot = attributeSlots.computeIfAbsent(attributeName, name -> attributeSlots.size());
+        columns.add(new Column(ColumnKind.ATTRIBUTE, slot));
+      }
+      // Other sub documents are not returned as columns
+    }
+    return new EntityColumnPlan(columns, attributeSlots);
+  }
+
+  /** @return the row of the document, empty if a field it is read from is malformed */
+  Optional<Row> materialize(Document document) {
+    String json = document.toJson();
+    try {
+      return Optional.of(this.read(json));
+    } catch (Throwable throwable) {
+      LOG.error("Error processing document into row: {}", json, throwable);
+      return Optional.empty();
+    }
+  }
+
+  private Row read(String json) throws IOException {
+    String entityId = "";
+    String entityName = "";
+    AttributeValue[] attributeValues = new AttributeValue[this.attributeSlots.size()];
+
+    try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Entity document is not an object");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String fieldName = parser.getCurrentName();
+        parser.nextToken();
+        if (this.readsEntityId
+            && (EntityServiceConstants.ENTITY_ID.equals(fieldName)
+                || ENTITY_ID_FIELD_NAME.equals(fieldName))) {
+          entityId = readString(parser);
+        } else if (this.readsEntityName
+            && (EntityServiceConstants.ENTITY_NAME.equals(fieldName)
+                || ENTITY_NAME_FIELD_NAME.equals(fieldName))) {
+          entityName = readString(parser);
+        } else if (!this.attributeSlots.isEmpty()
+            && ATTRIBUTES_FIELD.equals(fieldName)
+            && parser.currentToken() == JsonToken.START_OBJECT) {
+          this.readAttributes(parser, json, attributeValues);
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+
+    Row.Builder row = Row.newBuilder();
+    for (Column column : this.columns) {
+      switch (column.kind) {
+        case ENTITY_ID:
+          row.addColumn(Value.newBuilder().setValueType(ValueType.STRING).setString(entityId));
+          break;
+        case ENTITY_NAME:
+          row.addColumn(Value.newBuilder().setValueType(ValueType.STRING).setString(entityName));
+          break;
+        case ATTRIBUTE:
+          row.addColumn(
+              EntityQueryConverter.convertAttributeValueToQueryValue(
+                  attributeValues[column.attributeSlot]));
+          break;
+        case MISSING:
+        default:
+          row.addColumn(Value.getDefaultInstance());
+      }
+    }
+    return row.build();
+  }
+
+  /** Parses the selected attribute values out of their slice of the document. */
+  private void readAttributes(JsonParser parser, String json, AttributeValue[] attributeValues)
+      throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      Integer slot = this.attributeSlots.get(parser.getCurrentName());
+      JsonToken token = parser.nextToken();
+      if (slot == null) {
+        parser.skipChildren();
+        continue;
+      }
+      if (token != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Attribute value is not an object");
+      }
+
+      int start = (int) parser.getTokenLocation().getCharOffset();
+      parser.skipChildren();
+      int end = (int) parser.getTokenLocation().getCharOffset() + 1;
+      AttributeValue.Builder builder = AttributeValue.newBuilder();
+      PARSER.merge(json.substring(start, end), builder);
+      attributeValues[slot] = builder.build();
+    }
+  }
+
+  private static String readString(JsonParser parser) throws IOException {
+    JsonToken token = parser.currentToken();
+    if (token == JsonToken.VALUE_NULL) {
+      return "";
+    }
+    if (!token.isScalarValue()) {
+      throw new JsonParseException(parser, "Expected a string");
+    }
+    return parser.getText();
+  }
+
+  private enum ColumnKind {
+    ENTITY_ID,
+    ENTITY_NAME,
+    ATTRIBUTE,
+    MISSING
+  }
+
+  private static class Column {
+    private final ColumnKind kind;
+    private final int attributeSlot;
+
+    private Column(ColumnKind kind, int attributeSlot) {
+      this.kind = kind;
+      this.attributeSlot = attributeSlot;
+    }
+  }
+}
@@ -0,0 +1,298 @@
+package org.hypertrace.entity.query.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.hypertrace.core.documentstore.Filter;
+import org.hypertrace.core.documentstore.OrderBy;
+import org.hypertrace.core.documentstore.Query;
+import org.hypertrace.entity.data.service.v1.AttributeFilter;
+import org.hypertrace.entity.query.service.v1.EntityQueryRequest;
+import org.hypertrace.entity.query.service.v1.Expression;
+import org.hypertrace.entity.query.service.v1.OrderByExpression;
+import org.hypertrace.entity.query.service.v1.SortOrder;
+import org.hypertrace.entity.query.service.v1.TotalEntitiesRequest;
+import org.hypertrace.entity.query.service.v1.Value;
+import org.hypertrace.entity.query.service.v1.ValueType;
+import org.hypertrace.entity.service.constants.EntityConstants;
+import org.hypertrace.entity.service.constants.EntityServiceConstants;
+import org.hypertrace.entity.service.util.DocStoreConverter;
+import org.hypertrace.entity.service.util.StringUtils;
+
+/**
+ * Compiles entity query requests to doc store queries in a single pass, with the semantics of
+ * converting them to an EDS {@link org.hypertrace.entity.data.service.v1.Query} with {@link
+ * EntityQueryConverter} then transforming that with {@link DocStoreConverter}, which it replaces.
+ *
+ * <p>Filters on scalar literals, and IN filters on arrays of them, are compiled straight to doc
+ * store filters. The other filters, on labels, maps or on value lists compared as a whole, are
+ * seldom used and go through the EDS attribute filter so that they keep sharing its
+ * transformation.
+ *
+ * <p>Columns are looked up in the attribute map of the entity type, and unknown ones are rejected
+ * with an {@link IllegalArgumentException}.
+ */
+class EntityQueryCompiler {
+  private final Map<String, String> attrNameToEDSAttrMap;
+  // Filters on entity ids and names are taken out of the filter tree, whatever their operator
+  private final List<String> entityIds = new ArrayList<>();
+  private String entityName = "";
+
+  private EntityQueryCompiler(@Nullable Map<String, String> attrNameToEDSAttrMap) {
+    this.attrNameToEDSAttrMap =
+        attrNameToEDSAttrMap == null ? Collections.emptyMap() : attrNameToEDSAttrMap;
+  }
+
+  static Query compile(
+      String tenantId,
+      EntityQueryRequest request,
+      @Nullable Map<String, String> attrNameToEDSAttrMap) {
+    EntityQueryCompiler compiler = new EntityQueryCompiler(attrNameToEDSAttrMap);
+    Query docStoreQuery = new Query();
+    docStoreQuery.setFilter(
+        compiler.compileFilter(tenantId, request.getEntityType(), request.getFilter()));
+
+    List<String> selections =
+        EntityQueryConverter.convertSelectionsToDocStoreSelections(
+            request.getSelectionList(), attrNameToEDSAttrMap);
+    if (!selections.isEmpty()) {
+      docStoreQuery.addAllSelections(selections);
+    }
+    for (OrderByExpression orderBy : request.getOrderByList()) {
+      if (orderBy.hasExpression()) {
+        docStoreQuery.addOrderBy(compiler.compileOrderBy(orderBy));
+      }
+    }
+    if (request.getLimit() > 0) {
+      docStoreQuery.setLimit(request.getLimit());
+    }
+    if (request.getOffset() > 0) {
+      docStoreQuery.setOffset(request.getOffset());
+    }
+    return docStoreQuery;
+  }
+
+  static Query compileTotal(
+      String tenantId,
+      TotalEntitiesRequest request,
+      @Nullable Map<String, String> attrNameToEDSAttrMap) {
+    Query docStoreQuery = new Query();
+    docStoreQuery.setFilter(
+        new EntityQueryCompiler(attrNameToEDSAttrMap)
+            .compileFilter(tenantId, request.getEntityType(), request.getFilter()));
+    return docStoreQuery;
+  }
+
+  private Filter compileFilter(
+      String tenantId,
+      String entityType,
+      org.hypertrace.entity.query.service.v1.Filter requestFilter) {
+    // Compiled first, as it collects the entity ids and name filtered on
+    Filter filter = this.compile(requestFilter);
+
+    List<Filter> filters = new ArrayList<>();
+    filters.add(DocStoreConverter.getTenantIdEqFilter(tenantId));
+    if (!this.entityIds.isEmpty()) {
+      filters.add(new Filter(Filter.Op.IN, EntityServiceConstants.ENTITY_ID, this.entityIds));
+    }
+    if (StringUtils.isNotEmpty(entityType)) {
+      filters.add(new Filter(Filter.Op.EQ, EntityServiceConstants.ENTITY_TYPE, entityType));
+    }
+    if (StringUtils.isNotEmpty(this.entityName)) {
+      filters.add(new Filter(Filter.Op.EQ, EntityServiceConstants.ENTITY_NAME, this.entityName));
+    }
+    if (filter != null) {
+      filters.add(filter);
+    }
+
+    if (filters.size() == 1) {
+      return filters.get(0);
+    }
+    Filter and = new Filter();
+    and.setOp(Filter.Op.AND);
+    and.setChildFilters(filters.toArray(new Filter[] {}));
+    return and;
+  }
+
+  @Nullable
+  private Filter compile(org.hypertrace.entity.query.service.v1.Filter filter) {
+    if (filter.equals(org.hypertrace.entity.query.service.v1.Filter.getDefaultInstance())) {
+      return null;
+    }
+
+    if (filter.getChildFilterCount() > 0) {
+      Filter.Op op = compile(filter.getOperator());
+      List<Filter> childFilters = new ArrayList<>(filter.getChildFilterCount());
+      for (org.hypertrace.entity.query.service.v1.Filter childFilter :
+          filter.getChildFilterList()) {
+        Filter compiledChildFilter = this.compile(childFilter);
+        if (compiledChildFilter != null) {
+          childFilters.add(compiledChildFilter);
+        }
+      }
+      Filter compiled = new Filter();
+      compiled.setFieldName("");
+      compiled.setOp(op);
+      compiled.setChildFilters(childFilters.toArray(new Filter[] {}));
+      return compiled;
+    }
+
+    String fieldName = this.getEDSAttributeName(filter.getLhs());
+    Value value = filter.getRhs().getLiteral().getValue();
+    if (fieldName.equals(EntityServiceConstants.ENTITY_ID)) {
+      if (value.getValueType() == ValueType.STRING) {
+        this.entityIds.add(value.getString());
+      } else if (value.getValueType() == ValueType.STRING_ARRAY) {
+        this.entityIds.addAll(value.getStringArrayList());
+      }
+      return null;
+    }
+    if (fieldName.equals(EntityServiceConstants.ENTITY_NAME)) {
+      this.entityName = value.getString();
+      return null;
+    }
+
+    if (filter.getRhs().hasLiteral()
+        && !DocStoreConverter.ATTRIBUTES_LABELS_FIELD_NAME.equals(fieldName)) {
+      Filter.Op op = compile(filter.getOperator());
+      boolean isAttributeField = fieldName.startsWith(EntityConstants.ATTRIBUTES_MAP_PATH);
+      Filter compiled = compileScalar(fieldName, op, value, isAttributeField);
+      if (compiled == null && op == Filter.Op.IN) {
+        compiled = compileScalarArray(fieldName, value, isAttributeField);
+      }
+      if (compiled != null) {
+        return compiled;
+      }
+    }
+    return DocStoreConverter.transform(
+        AttributeFilter.newBuilder()
+            .setOperator(toEDSOperator(filter.getOperator()))
+            .setName(fieldName)
+            .setAttributeValue(EntityQueryConverter.convertToAttributeValue(filter.getRhs()))
+            .build());
+  }
+
+  @Nullable
+  private static Filter compileScalar(
+      String fieldName, Filter.Op op, Value value, boolean isAttributeField) {
+    Object scalar;
+    String typeName;
+    switch (value.getValueType()) {
+      case BOOL:
+        scalar = value.getBoolean();
+        typeName = "boolean";
+        break;
+      case STRING:
+        scalar = value.getString();
+        typeName = "string";
+        break;
+      case LONG:
+        scalar = value.getLong();
+        typeName = "long";
+        break;
+      case TIMESTAMP:
+        scalar = value.getTimestamp();
+        typeName = "timestamp";
+        break;
+      case DOUBLE:
+        scalar = value.getDouble();
+        typeName = "double";
+        break;
+      case FLOAT:
+        scalar = value.getFloat();
+        typeName = "float";
+        break;
+      default:
+        return null;
+    }
+    return buildLeafFilter(
+        isAttributeField ? fieldName + ".value." + typeName : fieldName, op, scalar);
+  }
+
+  @Nullable
+  private static Filter compileScalarArray(
+      String fieldName, Value value, boolean isAttributeField) {
+    List<Object> values;
+    String typeName;
+    switch (value.getValueType()) {
+      case BOOLEAN_ARRAY:
+        values = new ArrayList<>(value.getBooleanArrayList());
+        typeName = "boolean";
+        break;
+      case STRING_ARRAY:
+        values = new ArrayList<>(value.getStringArrayList());
+        typeName = "string";
+        break;
+      case LONG_ARRAY:
+        values = new ArrayList<>(value.getLongArrayList());
+        typeName = "long";
+        break;
+      case DOUBLE_ARRAY:
+        values = new ArrayList<>(value.getDoubleArrayList());
+        typeName = "double";
+        break;
+      default:
+        return null;
+    }
+    if (values.isEmpty()) {
+      // Without a first value to take the type of
+      typeName = "string";
+    }
+    return buildLeafFilter(
+        isAttributeField ? fieldName + ".value." + typeName : fieldName, Filter.Op.IN, values);
+  }
+
+  private static Filter buildLeafFilter(String fieldName, Filter.Op op, Object value) {
+    Filter filter = new Filter();
+    filter.setFieldName(fieldName);
+    filter.setOp(op);
+    filter.setValue(value);
+    filter.setChildFilters(new Filter[] {});
+    return filter;
+  }
+
+  private OrderBy compileOrderBy(OrderByExpression orderBy) {
+    if (!orderBy.getExpression().hasColumnIdentifier()) {
+      // entity data service and doc store only support field order by. There's no
+      // aggregate order by yet
+      throw new UnsupportedOperationException(
+          "OrderByExpression only support Column Identifier Expression");
+    }
+    return new OrderBy(
+        this.getEDSAttributeName(orderBy.getExpression()), orderBy.getOrder() != SortOrder.DESC);
+  }
+
+  private String getEDSAttributeName(Expression expression) {
+    switch (expression.getValueCase()) {
+      case COLUMNIDENTIFIER:
+        String columnName = expression.getColumnIdentifier().getColumnName();
+        String attributeName = this.attrNameToEDSAttrMap.get(columnName);
+        if (attributeName == null) {
+          throw new IllegalArgumentException(String.format("Unknown column:%s", columnName));
+        }
+        return attributeName;
+      case LITERAL:
+        throw new IllegalArgumentException("LHS should be a Attribute key");
+      case FUNCTION:
+        throw new UnsupportedOperationException(
+            "Filtering on functional expressions not supported in EDS");
+      case ORDERBY:
+        throw new IllegalArgumentException("Filter cant have a Order By clause");
+      case VALUE_NOT_SET:
+      default:
+        throw new IllegalArgumentException(
+            String.format("Attribute Key for expression:%s not found", expression));
+    }
+  }
+
+  private static Filter.Op compile(org.hypertrace.entity.query.service.v1.Operator operator) {
+    return DocStoreConverter.transform(toEDSOperator(operator));
+  }
+
+  private static org.hypertrace.entity.data.service.v1.Operator toEDSOperator(
+      org.hypertrace.entity.query.service.v1.Operator operator) {
+    return org.hypertrace.entity.data.service.v1.Operator.valueOf(operator.name());
+  }
+}
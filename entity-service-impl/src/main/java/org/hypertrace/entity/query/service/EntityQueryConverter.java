@@ -188,7 +188,7 @@ public class EntityQueryConverter {
     return Operator.valueOf(operator.name());
   }
 
-  private static AttributeValue.Builder convertToAttributeValue(
+  static AttributeValue.Builder convertToAttributeValue(
       Expression expression) {
     switch (expression.getValueCase()) {
       case LITERAL:
@@ -8,8 +8,8 @@ import com.google.protobuf.ServiceException;
 import com.typesafe.config.Config;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -21,13 +21,15 @@ import org.hypertrace.core.documentstore.Document;
 import org.hypertrace.core.documentstore.JSONDocument;
 import org.hypertrace.core.documentstore.SingleValueKey;
 import org.hypertrace.core.grpcutils.context.RequestContext;
-import org.hypertrace.entity.data.service.DocumentParser;
+import org.hypertrace.entity.data.service.EntityWriteListener;
 import org.hypertrace.entity.data.service.v1.AttributeValue;
 import org.hypertrace.entity.data.service.v1.Entity;
 import org.hypertrace.entity.data.service.v1.Query;
+import org.hypertrace.entity.query.service.PartitionedEntityScanner.PartitionedRows;
 import org.hypertrace.entity.query.service.v1.ColumnIdentifier;
 import org.hypertrace.entity.query.service.v1.ColumnMetadata;
 import org.hypertrace.entity.query.service.v1.EntityQueryRequest;
+import org.hypertrace.entity.query.service.v1.EntityQueryServiceGrpc;
 import org.hypertrace.entity.query.service.v1.EntityQueryServiceGrpc.EntityQueryServiceImplBase;
 import org.hypertrace.entity.query.service.v1.EntityUpdateRequest;
 import org.hypertrace.entity.query.service.v1.Expression;
@@ -44,6 +46,7 @@ import org.hypertrace.entity.service.constants.EntityServiceConstants;
 import org.hypertrace.entity.service.util.DocStoreConverter;
 import org.hypertrace.entity.service.util.DocStoreJsonFormat;
 import org.hypertrace.entity.service.util.DocStoreJsonFormat.Parser;
+import org.hypertrace.entity.service.util.FlowControlledStreamObserver;
 import org.hypertrace.entity.service.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,17 +56,50 @@ public class EntityQueryServiceImpl extends EntityQueryServiceImplBase {
   private static final Logger LOG = LoggerFactory.getLogger(EntityQueryServiceImpl.class);
   private static final String ATTRIBUTE_MAP_CONFIG_PATH = "entity.service.attributeMap";
   private static final Parser PARSER = DocStoreJsonFormat.parser().ignoringUnknownFields();
-  private static final DocumentParser DOCUMENT_PARSER = new DocumentParser();
   private static final String CHUNK_SIZE_CONFIG = "entity.query.service.response.chunk.size";
   private static final int DEFAULT_CHUNK_SIZE = 10_000;
+  private static final String CHUNK_MAX_BYTES_CONFIG =
+      "entity.query.service.response.chunk.max.bytes";
+  private static final long DEFAULT_CHUNK_MAX_BYTES = 1024 * 1024;
+  private static final String CHUNK_MAX_LATENCY_CONFIG =
+      "entity.query.service.response.chunk.max.latency";
+  private static final Duration DEFAULT_CHUNK_MAX_LATENCY = Duration.ofMillis(500);
+  private static final String PARALLEL_SCAN_ENABLED_CONFIG =
+      "entity.query.service.parallel.scan.enabled";
+  private static final String PARALLEL_SCAN_PARTITIONS_CONFIG =
+      "entity.query.service.parallel.scan.partitions";
+  private static final int DEFAULT_PARALLEL_SCAN_PARTITIONS = 8;
+  private static final String PARALLEL_SCAN_THREADS_CONFIG =
+      "entity.query.service.parallel.scan.threads";
+  private static final int DEFAULT_PARALLEL_SCAN_THREADS = 8;
+  private static final String PARALLEL_SCAN_BUFFER_SIZE_CONFIG =
+      "entity.query.service.parallel.scan.buffer.size";
+  private static final int DEFAULT_PARALLEL_SCAN_BUFFER_SIZE = 1000;
+  private static final String PARALLEL_SCAN_STALL_TIMEOUT_CONFIG =
+      "entity.query.service.parallel.scan.stall.timeout";
+  private static final Duration DEFAULT_PARALLEL_SCAN_STALL_TIMEOUT = Duration.ofSeconds(30);
 
   private final Collection entitiesCollection;
   private final Map<String, Map<String, String>> attrNameToEDSAttrMap;
   private final int CHUNK_SIZE;
+  private final long chunkMaxBytes;
+  private final Duration chunkMaxLatency;
+  private final Optional<PartitionedEntityScanner> partitionedScanner;
+  private final EntityWriteListener entitiesWriteListener;
 
   public EntityQueryServiceImpl(Datastore datastore, Config config) {
+    this(datastore, config, EntityWriteListener.NONE);
+  }
+
+  public EntityQueryServiceImpl(
+      Datastore datastore, Config config, EntityWriteListener entitiesWriteListener) {
+    this(datastore.getCollection(RAW_ENTITIES_COLLECTION), config, entitiesWriteListener);
+  }
+
+  private EntityQueryServiceImpl(
+      Collection entitiesCollection, Config config, EntityWriteListener entitiesWriteListener) {
     this(
-        datastore.getCollection(RAW_ENTITIES_COLLECTION),
+        entitiesCollection,
         config.getConfigList(ATTRIBUTE_MAP_CONFIG_PATH)
             .stream()
             .collect(toUnmodifiableMap(
@@ -75,16 +111,83 @@ public class EntityQueryServiceImpl extends EntityQueryServiceImplBase {
                   map.putAll(map2);
                   return map;
                 }
-            )), !config.hasPathOrNull(CHUNK_SIZE_CONFIG) ? DEFAULT_CHUNK_SIZE : config.getInt(CHUNK_SIZE_CONFIG));
+            )), !config.hasPathOrNull(CHUNK_SIZE_CONFIG) ? DEFAULT_CHUNK_SIZE : config.getInt(CHUNK_SIZE_CONFIG),
+        !config.hasPathOrNull(CHUNK_MAX_BYTES_CONFIG)
+            ? DEFAULT_CHUNK_MAX_BYTES
+            : config.getBytes(CHUNK_MAX_BYTES_CONFIG),
+        !config.hasPathOrNull(CHUNK_MAX_LATENCY_CONFIG)
+            ? DEFAULT_CHUNK_MAX_LATENCY
+            : config.getDuration(CHUNK_MAX_LATENCY_CONFIG),
+        buildPartitionedScanner(entitiesCollection, config),
+        entitiesWriteListener);
   }
 
   public EntityQueryServiceImpl(
       Collection entitiesCollection,
       Map<String, Map<String, String>> attrNameToEDSAttrMap,
       int chunkSize) {
+    this(
+        entitiesCollection,
+        attrNameToEDSAttrMap,
+        chunkSize,
+        DEFAULT_CHUNK_MAX_BYTES,
+        DEFAULT_CHUNK_MAX_LATENCY);
+  }
+
+  public EntityQueryServiceImpl(
+      Collection entitiesCollection,
+      Map<String, Map<String, String>> attrNameToEDSAttrMap,
+      int chunkSize,
+      long chunkMaxBytes,
+      Duration chunkMaxLatency) {
+    this(
+        entitiesCollection,
+        attrNameToEDSAttrMap,
+        chunkSize,
+        chunkMaxBytes,
+        chunkMaxLatency,
+        Optional.empty(),
+        EntityWriteListener.NONE);
+  }
+
+  EntityQueryServiceImpl(
+      Collection entitiesCollection,
+      Map<String, Map<String, String>> attrNameToEDSAttrMap,
+      int chunkSize,
+      long chunkMaxBytes,
+      Duration chunkMaxLatency,
+      Optional<PartitionedEntityScanner> partitionedScanner,
+      EntityWriteListener entitiesWriteListener) {
     this.entitiesCollection = entitiesCollection;
     this.attrNameToEDSAttrMap = attrNameToEDSAttrMap;
     this.CHUNK_SIZE = chunkSize;
+    this.chunkMaxBytes = chunkMaxBytes;
+    this.chunkMaxLatency = chunkMaxLatency;
+    this.partitionedScanner = partitionedScanner;
+    this.entitiesWriteListener = entitiesWriteListener;
+  }
+
+  private static Optional<PartitionedEntityScanner> buildPartitionedScanner(
+      Collection entitiesCollection, Config config) {
+    if (!config.hasPath(PARALLEL_SCAN_ENABLED_CONFIG)
+        || !config.getBoolean(PARALLEL_SCAN_ENABLED_CONFIG)) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        new PartitionedEntityScanner(
+            entitiesCollection,
+            !config.hasPath(PARALLEL_SCAN_PARTITIONS_CONFIG)
+                ? DEFAULT_PARALLEL_SCAN_PARTITIONS
+                : config.getInt(PARALLEL_SCAN_PARTITIONS_CONFIG),
+            !config.hasPath(PARALLEL_SCAN_THREADS_CONFIG)
+                ? DEFAULT_PARALLEL_SCAN_THREADS
+                : config.getInt(PARALLEL_SCAN_THREADS_CONFIG),
+            !config.hasPath(PARALLEL_SCAN_BUFFER_SIZE_CONFIG)
+                ? DEFAULT_PARALLEL_SCAN_BUFFER_SIZE
+                : config.getInt(PARALLEL_SCAN_BUFFER_SIZE_CONFIG),
+            !config.hasPath(PARALLEL_SCAN_STALL_TIMEOUT_CONFIG)
+                ? DEFAULT_PARALLEL_SCAN_STALL_TIMEOUT
+                : config.getDuration(PARALLEL_SCAN_STALL_TIMEOUT_CONFIG)));
   }
 
   @Override
@@ -95,18 +198,12 @@ public class EntityQueryServiceImpl extends EntityQueryServiceImplBase {
       return;
     }
 
+    FlowControlledStreamObserver<ResultSetChunk> responseStream =
+        new FlowControlledStreamObserver<>(
+            EntityQueryServiceGrpc.getExecuteMethod(), responseObserver);
     Map<String, String> scopedAttrNameToEDSAttrMap = attrNameToEDSAttrMap.get(request.getEntityType());
-    //TODO: Optimize this later. For now converting to EDS Query and then again to DocStore Query.
-    Query query = EntityQueryConverter.convertToEDSQuery(request, scopedAttrNameToEDSAttrMap);
-    /**
-     * {@link EntityQueryRequest} selections need to treated differently, since they don't transform
-     * one to one to {@link org.hypertrace.entity.data.service.v1.EntityDataRequest} selections
-     */
-    List<String> docStoreSelections =
-        EntityQueryConverter.convertSelectionsToDocStoreSelections(
-            request.getSelectionList(), scopedAttrNameToEDSAttrMap);
-    Iterator<Document> documentIterator = entitiesCollection.search(
-        DocStoreConverter.transform(tenantId.get(), query, docStoreSelections));
+    org.hypertrace.core.documentstore.Query docStoreQuery =
+        EntityQueryCompiler.compile(tenantId.get(), request, scopedAttrNameToEDSAttrMap);
 
     ResultSetMetadata resultSetMetadata = ResultSetMetadata.newBuilder()
         .addAllColumnMetadata(
@@ -115,44 +212,34 @@ public class EntityQueryServiceImpl extends EntityQueryServiceImplBase {
                     ColumnIdentifier::getColumnName)
                 .map(s -> ColumnMetadata.newBuilder().setColumnName(s).build()).iterator())
         .build();
-    if (!documentIterator.hasNext()) {
-      ResultSetChunk.Builder resultBuilder = ResultSetChunk.newBuilder();
-      resultBuilder.setResultSetMetadata(resultSetMetadata);
-      resultBuilder.setIsLastChunk(true);
-      resultBuilder.setChunkId(0);
-      responseObserver.onNext(resultBuilder.build());
-      responseObserver.onCompleted();
-      return;
-    }
-    boolean isNewChunk = true;
-    int chunkId = 0, rowCount = 0;
-    ResultSetChunk.Builder resultBuilder = ResultSetChunk.newBuilder();
-    while (documentIterator.hasNext()) {
-      Optional<Entity> entity = DOCUMENT_PARSER.parseOrLog(documentIterator.next(), Entity.newBuilder());
-      // Set metadata for new chunk
-      if (isNewChunk) {
-        resultBuilder.setResultSetMetadata(resultSetMetadata);
-        isNewChunk = false;
-      }
-      if (entity.isPresent()) {
-        //Build data
-        resultBuilder.addRow(convertToEntityQueryResult(
-            entity.get(),
-            request.getSelectionList(),
-            attrNameToEDSAttrMap.get(request.getEntityType())));
-        rowCount++;
+    EntityColumnPlan columnPlan =
+        EntityColumnPlan.compile(request.getSelectionList(), scopedAttrNameToEDSAttrMap);
+    ResultSetChunker chunker =
+        new ResultSetChunker(
+            resultSetMetadata, responseStream, CHUNK_SIZE, chunkMaxBytes, chunkMaxLatency);
+    if (partitionedScanner.isPresent() && PartitionedEntityScanner.canScan(request)) {
+      // Asked for by the request, as rows then come in no particular order
+      try (PartitionedRows rows =
+          partitionedScanner.get().scan(docStoreQuery, columnPlan, responseStream::isCancelled)) {
+        while (rows.hasNext()) {
+          chunker.add(rows.next());
+          if (rows.hasNext()) {
+            chunker.flushIfFull();
+          }
+        }
       }
-      // current chunk is complete
-      if (rowCount >= CHUNK_SIZE || !documentIterator.hasNext()) {
-        resultBuilder.setChunkId(chunkId++);
-        resultBuilder.setIsLastChunk(!documentIterator.hasNext());
-        responseObserver.onNext(resultBuilder.build());
-        resultBuilder = ResultSetChunk.newBuilder();
-        isNewChunk = true;
-        rowCount = 0;
+    } else {
+      Iterator<Document> documentIterator = entitiesCollection.search(docStoreQuery);
+      // The cursor is not read any further once the call is cancelled
+      while (documentIterator.hasNext() && !responseStream.isCancelled()) {
+        columnPlan.materialize(documentIterator.next()).ifPresent(chunker::add);
+        if (documentIterator.hasNext()) {
+          chunker.flushIfFull();
+        }
       }
     }
-    responseObserver.onCompleted();
+    chunker.finish();
+    responseStream.onCompleted();
   }
 
   private List<Entity> convertDocsToEntities(Iterator<Document> documentIterator) {
@@ -239,11 +326,16 @@ public class EntityQueryServiceImpl extends EntityQueryServiceImplBase {
     }
     if (request.getEntityIdsCount() == 0) {
       responseObserver.onError(new ServiceException("Entity IDs are missing in the request."));
+      return;
     }
     if (!request.hasOperation()) {
       responseObserver.onError(new ServiceException("Operation is missing in the request."));
+      return;
     }
 
+    FlowControlledStreamObserver<ResultSetChunk> responseStream =
+        new FlowControlledStreamObserver<>(
+            EntityQueryServiceGrpc.getUpdateMethod(), responseObserver);
     try {
       // Execute the update
       Map<String, String> attributeFqnMap = attrNameToEDSAttrMap.get(request.getEntityType());
@@ -258,13 +350,13 @@ public class EntityQueryServiceImpl extends EntityQueryServiceImplBase {
           entitiesCollection.search(
               DocStoreConverter.transform(tenantId.get(), entitiesQuery, docStoreSelections));
       List<Entity> entities = convertDocsToEntities(documentIterator);
-      responseObserver.onNext(convertEntitiesToResultSetChunk(
+      responseStream.onNext(convertEntitiesToResultSetChunk(
           entities,
           request.getSelectionList(),
           attrNameToEDSAttrMap.get(request.getEntityType())));
-      responseObserver.onCompleted();
+      responseStream.onCompleted();
     } catch (Exception e) {
-      responseObserver
+      responseStream
           .onError(new ServiceException("Error occurred while executing " + request, e));
     }
   }
@@ -285,11 +377,16 @@ public class EntityQueryServiceImpl extends EntityQueryServiceImplBase {
 
       for (String entityId : request.getEntityIdsList()) {
         SingleValueKey key = new SingleValueKey(tenantId, entityId);
-        // TODO better error reporting once doc store exposes the,
-        if (!entitiesCollection.updateSubDoc(
-            key, subDocPath, new JSONDocument(jsonValue))) {
-          LOG.warn("Failed to update entity {}, subDocPath {}, with new doc {}.", key, subDocPath,
-              jsonValue);
+        entitiesWriteListener.beforeModifiedInPlace(tenantId, entityId);
+        try {
+          // TODO better error reporting once doc store exposes the,
+          if (!entitiesCollection.updateSubDoc(
+              key, subDocPath, new JSONDocument(jsonValue))) {
+            LOG.warn("Failed to update entity {}, subDocPath {}, with new doc {}.", key,
+                subDocPath, jsonValue);
+          }
+        } finally {
+          entitiesWriteListener.afterModified(tenantId, entityId);
         }
       }
     }
@@ -305,20 +402,9 @@ public class EntityQueryServiceImpl extends EntityQueryServiceImplBase {
 
     Map<String, String> scopedAttrNameToEDSAttrMap =
         attrNameToEDSAttrMap.get(request.getEntityType());
-
-    // converting total entities request to entity query request
-    EntityQueryRequest entityQueryRequest =
-        EntityQueryRequest.newBuilder()
-            .setEntityType(request.getEntityType())
-            .setFilter(request.getFilter())
-            .build();
-
-    // converting entity query request to entity data service query
-    Query query =
-        EntityQueryConverter.convertToEDSQuery(entityQueryRequest, scopedAttrNameToEDSAttrMap);
     long total =
         entitiesCollection.total(
-            DocStoreConverter.transform(tenantId.get(), query, Collections.emptyList()));
+            EntityQueryCompiler.compileTotal(tenantId.get(), request, scopedAttrNameToEDSAttrMap));
     responseObserver.onNext(TotalEntitiesResponse.newBuilder().setTotal(total).build());
     responseObserver.onCompleted();
   }
@@ -0,0 +1,254 @@
+package org.hypertrace.entity.query.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.Filter;
+import org.hypertrace.core.documentstore.Query;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+import org.hypertrace.entity.query.service.v1.EntityQueryRequest;
+import org.hypertrace.entity.query.service.v1.Row;
+import org.hypertrace.entity.service.constants.EntityServiceConstants;
+
+/**
+ * Scans the entities of a query as disjoint partitions running concurrently on a bounded pool, for
+ * large exports. The partitions are ranges of entity ids, cut on their first two hexadecimal
+ * digits, as entity ids are generated as UUIDs. The first and last ranges are unbounded, so that
+ * entities with any other id are scanned too.
+ *
+ * <p>Rows are read into a bounded buffer, which the scans wait on while the caller is slower than
+ * them, and come in no particular order. A caller which makes no room in the buffer for as long as
+ * the stall timeout fails its scan, so that a stalled client does not keep the threads of the pool.
+ * Only the queries which ask for it are scanned this way, and queries with an order, a limit or an
+ * offset can not be split, and are left to a single cursor.
+ */
+class PartitionedEntityScanner {
+  private static final String EXECUTOR_METRIC_NAME = "entity.query.service.partitioned.scan";
+  private static final int MAX_PARTITIONS = 256;
+  private static final long POLL_INTERVAL_MILLIS = 100;
+
+  private final Collection entitiesCollection;
+  private final int partitions;
+  private final int bufferSize;
+  private final Duration stallTimeout;
+  private final Executor executor;
+
+  PartitionedEntityScanner(
+      Collection entitiesCollection,
+      int partitions,
+      int threads,
+      int bufferSize,
+      Duration stallTimeout) {
+    this(entitiesCollection, partitions, bufferSize, stallTimeout, buildExecutor(threads));
+  }
+
+  PartitionedEntityScanner(
+      Collection entitiesCollection,
+      int partitions,
+      int bufferSize,
+      Duration stallTimeout,
+      Executor executor) {
+    this.entitiesCollection = entitiesCollection;
+    this.partitions = Math.max(1, Math.min(partitions, MAX_PARTITIONS));
+    this.bufferSize = bufferSize;
+    this.stallTimeout = stallTimeout;
+    this.executor = executor;
+  }
+
+  static boolean canScan(EntityQueryRequest request) {
+    return request.getParallelScan()
+        && request.getOrderByCount() == 0
+        && request.getLimit() <= 0
+        && request.getOffset() <= 0;
+  }
+
+  /**
+   * Starts the scans of the partitions of the query, which stop once the returned rows are closed,
+   * or the caller is cancelled.
+   */
+  PartitionedRows scan(Query query, EntityColumnPlan columnPlan, BooleanSupplier cancelled) {
+    List<Query> partitionQueries = buildPartitionQueries(query, this.partitions);
+    PartitionedRows rows =
+        new PartitionedRows(
+            partitionQueries.size(), this.bufferSize, this.stallTimeout, cancelled);
+    for (Query partitionQuery : partitionQueries) {
+      try {
+        this.executor.execute(() -> this.scanPartition(partitionQuery, columnPlan, rows));
+      } catch (RejectedExecutionException e) {
+        rows.close();
+        throw e;
+      }
+    }
+    return rows;
+  }
+
+  private void scanPartition(Query query, EntityColumnPlan columnPlan, PartitionedRows rows) {
+    try {
+      Iterator<Document> documents = this.entitiesCollection.search(query);
+      while (!rows.closed && documents.hasNext()) {
+        Optional<Row> row = columnPlan.materialize(documents.next());
+        if (row.isPresent()) {
+          rows.put(row);
+        }
+      }
+    } catch (RuntimeException e) {
+      rows.failure = e;
+    } finally {
+      // Marks the end of the partition
+      rows.put(Optional.empty());
+    }
+  }
+
+  static List<Query> buildPartitionQueries(Query query, int partitions) {
+    List<Query> partitionQueries = new ArrayList<>(partitions);
+    String lowerBound = null;
+    for (int partition = 1; partition <= partitions; partition++) {
+      String upperBound =
+          partition == partitions
+              ? null
+              : String.format("%02x", partition * MAX_PARTITIONS / partitions);
+
+      List<Filter> filters = new ArrayList<>();
+      if (query.getFilter() != null) {
+        filters.add(query.getFilter());
+      }
+      if (lowerBound != null) {
+        filters.add(new Filter(Filter.Op.GTE, EntityServiceConstants.ENTITY_ID, lowerBound));
+      }
+      if (upperBound != null) {
+        filters.add(new Filter(Filter.Op.LT, EntityServiceConstants.ENTITY_ID, upperBound));
+      }
+      Filter filter = new Filter();
+      filter.setOp(Filter.Op.AND);
+      filter.setChildFilters(filters.toArray(new Filter[] {}));
+
+      Query partitionQuery = new Query();
+      partitionQuery.setFilter(filter);
+      if (!query.getSelections().isEmpty()) {
+        partitionQuery.addAllSelections(query.getSelections());
+      }
+      partitionQueries.add(partitionQuery);
+      lowerBound = upperBound;
+    }
+    return partitionQueries;
+  }
+
+  private static Executor buildExecutor(int threads) {
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("entity-query-scan-%d")
+                .build());
+    return ExecutorServiceMetrics.monitor(
+        PlatformMetricsRegistry.getMeterRegistry(), executor, EXECUTOR_METRIC_NAME, Tags.empty());
+  }
+
+  /** Rows of the partitions, in the order they are read, until all of them have been scanned. */
+  static class PartitionedRows implements Iterator<Row>, AutoCloseable {
+    private final BlockingQueue<Optional<Row>> buffer;
+    private final Duration stallTimeout;
+    private final BooleanSupplier cancelled;
+    private int remainingPartitions;
+    private Row next;
+    private volatile boolean closed = false;
+    private volatile RuntimeException failure;
+
+    private PartitionedRows(
+        int partitions, int bufferSize, Duration stallTimeout, BooleanSupplier cancelled) {
+      this.buffer = new ArrayBlockingQueue<>(bufferSize);
+      this.stallTimeout = stallTimeout;
+      this.cancelled = cancelled;
+      this.remainingPartitions = partitions;
+    }
+
+    /** @throws RuntimeException the failure of the scan of a partition, if any */
+    @Override
+    public boolean hasNext() {
+      try {
+        while (this.next == null && this.remainingPartitions > 0 && !this.closed) {
+          if (this.cancelled.getAsBoolean()) {
+            this.close();
+            break;
+          }
+          Optional<Row> row = this.buffer.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+          if (row == null) {
+            continue;
+          }
+          if (row.isPresent()) {
+            this.next = row.get();
+          } else {
+            this.remainingPartitions--;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        this.close();
+      }
+
+      if (this.failure != null) {
+        this.close();
+        throw this.failure;
+      }
+      return this.next != null;
+    }
+
+    @Override
+    public Row next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Row row = this.next;
+      this.next = null;
+      return row;
+    }
+
+    /** Stops the scans, which are not waited for. */
+    @Override
+    public void close() {
+      this.closed = true;
+      // Frees the scans waiting for room in the buffer
+      this.buffer.clear();
+    }
+
+    /** Fails and closes the scan once the caller has made no room for the row in time. */
+    private void put(Optional<Row> row) {
+      long deadline = System.nanoTime() + this.stallTimeout.toNanos();
+      try {
+        while (!this.closed) {
+          if (this.buffer.offer(row, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+            return;
+          }
+          if (System.nanoTime() - deadline >= 0) {
+            this.failure =
+                Status.RESOURCE_EXHAUSTED
+                    .withDescription(
+                        "Partitioned scan stalled, no rows read for " + this.stallTimeout)
+                    .asRuntimeException();
+            this.close();
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package org.hypertrace.entity.query.service;
+
+import com.google.protobuf.CodedOutputStream;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.function.LongSupplier;
+import org.hypertrace.entity.query.service.v1.ResultSetChunk;
+import org.hypertrace.entity.query.service.v1.ResultSetMetadata;
+import org.hypertrace.entity.query.service.v1.Row;
+
+/**
+ * Cuts the rows of an entity query result into {@link ResultSetChunk}s sent to a response
+ * observer, with the result set metadata in the first chunk only.
+ *
+ * <p>A chunk is flushed as soon as it holds the maximum number of rows, or its serialized size,
+ * tracked row by row, reaches the maximum bytes, or the maximum latency has passed since the
+ * previous flush. A row that would take a non empty chunk over the maximum bytes goes to the next
+ * chunk, so only a row larger than the maximum on its own makes a larger chunk. The latency is
+ * checked as rows come in: a chunk is not flushed while the rows it waits for are being read.
+ */
+class ResultSetChunker {
+  private final StreamObserver<ResultSetChunk> responseObserver;
+  private final int maxRows;
+  private final long maxBytes;
+  private final long maxLatencyNanos;
+  private final LongSupplier nanoTime;
+
+  private ResultSetChunk.Builder chunk;
+  private int chunkId = 0;
+  private int rowCount = 0;
+  private long byteCount;
+  private long chunkStartNanos;
+
+  ResultSetChunker(
+      ResultSetMetadata resultSetMetadata,
+      StreamObserver<ResultSetChunk> responseObserver,
+      int maxRows,
+      long maxBytes,
+      Duration maxLatency) {
+    this(resultSetMetadata, responseObserver, maxRows, maxBytes, maxLatency, System::nanoTime);
+  }
+
+  ResultSetChunker(
+      ResultSetMetadata resultSetMetadata,
+      StreamObserver<ResultSetChunk> responseObserver,
+      int maxRows,
+      long maxBytes,
+      Duration maxLatency,
+      LongSupplier nanoTime) {
+    this.responseObserver = responseObserver;
+    this.maxRows = maxRows;
+    this.maxBytes = maxBytes;
+    this.maxLatencyNanos = maxLatency.toNanos();
+    this.nanoTime = nanoTime;
+    this.chunk = ResultSetChunk.newBuilder().setResultSetMetadata(resultSetMetadata);
+    this.byteCount =
+        CodedOutputStream.computeMessageSize(
+            ResultSetChunk.RESULT_SET_METADATA_FIELD_NUMBER, resultSetMetadata);
+    this.chunkStartNanos = nanoTime.getAsLong();
+  }
+
+  /** Adds a row, after sending the current chunk if the row would take it over the max bytes. */
+  void add(Row row) {
+    int rowBytes = CodedOutputStream.computeMessageSize(ResultSetChunk.ROW_FIELD_NUMBER, row);
+    if (this.rowCount > 0 && this.byteCount + rowBytes > this.maxBytes) {
+      this.flush(false);
+    }
+    this.chunk.addRow(row);
+    this.rowCount++;
+    this.byteCount += rowBytes;
+  }
+
+  /** Sends the current chunk if it is full or due, to be called while more rows may follow. */
+  void flushIfFull() {
+    if (this.rowCount > 0
+        && (this.rowCount >= this.maxRows
+            || this.byteCount >= this.maxBytes
+            || this.nanoTime.getAsLong() - this.chunkStartNanos >= this.maxLatencyNanos)) {
+      this.flush(false);
+    }
+  }
+
+  /**
+   * Sends the rows added since the last flush as the last chunk, which is sent even when empty to
+   * terminate the result set.
+   */
+  void finish() {
+    this.flush(true);
+  }
+
+  private void flush(boolean isLastChunk) {
+    this.responseObserver.onNext(
+        this.chunk.setChunkId(this.chunkId++).setIsLastChunk(isLastChunk).build());
+    this.chunk = ResultSetChunk.newBuilder();
+    this.rowCount = 0;
+    this.byteCount = 0;
+    this.chunkStartNanos = this.nanoTime.getAsLong();
+  }
+}
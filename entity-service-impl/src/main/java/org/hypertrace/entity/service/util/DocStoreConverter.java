@@ -36,7 +36,7 @@ public class DocStoreConverter {
 
   private static ObjectMapper OBJECT_MAPPER = new ObjectMapper();
   private static DocStoreJsonFormat.Printer JSONFORMAT_PRINTER = DocStoreJsonFormat.printer();
-  private static final String ATTRIBUTES_LABELS_FIELD_NAME = "attributes.labels";
+  public static final String ATTRIBUTES_LABELS_FIELD_NAME = "attributes.labels";
   private static final String VALUE_LIST_VALUES_CONST = ".valueList.values";
 
   /**
@@ -124,7 +124,10 @@ public class DocStoreConverter {
     return new Filter(Filter.Op.EQ, EntityServiceConstants.TENANT_ID, tenantId);
   }
 
-  private static Filter transform(AttributeFilter filter) {
+  /**
+   * Transforms an EDS attribute filter to a doc store filter
+   */
+  public static Filter transform(AttributeFilter filter) {
     if (filter.hasAttributeValue()) {
       if (ATTRIBUTES_LABELS_FIELD_NAME.equals(filter.getName()) && filter.getOperator() == Operator.EQ) {
         return transformToEqFilterWithValueListRhs(filter);
@@ -318,7 +321,7 @@ public class DocStoreConverter {
     }
   }
 
-  private static Filter.Op transform(Operator operator) {
+  public static Filter.Op transform(Operator operator) {
     switch (operator) {
       case AND:
         return Op.AND;
@@ -0,0 +1,162 @@
+package org.hypertrace.entity.service.util;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.Context;
+import io.grpc.MethodDescriptor;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.Counter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import org.hypertrace.core.serviceframework.metrics.PlatformMetricsRegistry;
+
+/**
+ * Response observer of a server streaming call which honors its flow control and cancellation.
+ * Each response waits for the call to be ready to send it, rather than being buffered by the
+ * transport for a slow client, and responses are dropped once the call is cancelled, by the client
+ * or by its deadline. Responses sent after the stream has been completed or failed are dropped too,
+ * rather than waiting on a call which is closed. Handlers stop reading their doc store cursor when
+ * {@link #isCancelled()}.
+ *
+ * <p>It has to be created by the handler before it returns, as the ready and cancel handlers can
+ * not be set after that. Those handlers run on the call executor, which is the thread of the
+ * handler itself unless it has been offloaded, so readiness is also polled while waiting.
+ *
+ * <p>The number of cancelled streams, and the serialized size of the responses they dropped, are
+ * counted per method.
+ */
+public class FlowControlledStreamObserver<T extends MessageLite> implements StreamObserver<T> {
+  private static final String CANCELLED_METRIC = "entity.service.stream.cancelled";
+  private static final String UNSENT_BYTES_METRIC = "entity.service.stream.unsent.bytes";
+  private static final String METHOD_TAG = "method";
+  private static final long READY_POLL_INTERVAL_MILLIS = 10;
+
+  private final String methodName;
+  private final StreamObserver<T> delegate;
+  @Nullable private final ServerCallStreamObserver<T> serverCallObserver;
+  private final Context context;
+  private final Lock lock = new ReentrantLock();
+  private final Condition readyOrCancelled = lock.newCondition();
+  private volatile boolean terminated = false;
+  // Only read and written by the handler
+  private boolean cancellationRecorded = false;
+  private long unsentBytes = 0;
+
+  public FlowControlledStreamObserver(
+      MethodDescriptor<?, T> methodDescriptor, StreamObserver<T> delegate) {
+    this.methodName = methodDescriptor.getFullMethodName();
+    this.delegate = delegate;
+    this.context = Context.current();
+    if (delegate instanceof ServerCallStreamObserver) {
+      this.serverCallObserver = (ServerCallStreamObserver<T>) delegate;
+      this.serverCallObserver.setOnReadyHandler(this::signal);
+      this.serverCallObserver.setOnCancelHandler(this::signal);
+    } else {
+      this.serverCallObserver = null;
+    }
+  }
+
+  /**
+   * @return whether the call has been cancelled, or the stream terminated, in which case no more
+   *     responses are sent
+   */
+  public boolean isCancelled() {
+    return this.terminated || this.isCallCancelled();
+  }
+
+  /** Sends the response once the call is ready for it, or drops it if it is cancelled first. */
+  @Override
+  public void onNext(T value) {
+    if (this.terminated) {
+      return;
+    }
+    if (!this.awaitReady()) {
+      this.unsentBytes += value.getSerializedSize();
+      this.recordCancellation();
+      return;
+    }
+    this.delegate.onNext(value);
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    if (this.terminated) {
+      return;
+    }
+    this.terminated = true;
+    if (this.isCallCancelled()) {
+      this.recordCancellation();
+      return;
+    }
+    this.delegate.onError(throwable);
+  }
+
+  @Override
+  public void onCompleted() {
+    if (this.terminated) {
+      return;
+    }
+    this.terminated = true;
+    if (this.isCallCancelled()) {
+      this.recordCancellation();
+      return;
+    }
+    this.delegate.onCompleted();
+  }
+
+  private boolean isCallCancelled() {
+    // The context is cancelled right away, the call only once its executor gets to it
+    return this.context.isCancelled()
+        || (this.serverCallObserver != null && this.serverCallObserver.isCancelled());
+  }
+
+  /** @return whether the call is ready, false if it has been cancelled while waiting */
+  private boolean awaitReady() {
+    if (this.serverCallObserver == null) {
+      return !this.isCancelled();
+    }
+
+    this.lock.lock();
+    try {
+      while (!this.serverCallObserver.isReady() && !this.isCancelled()) {
+        this.readyOrCancelled.await(READY_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException e) {
+      // Sent without waiting any longer
+      Thread.currentThread().interrupt();
+    } finally {
+      this.lock.unlock();
+    }
+    return !this.isCancelled();
+  }
+
+  private void signal() {
+    this.lock.lock();
+    try {
+      this.readyOrCancelled.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void recordCancellation() {
+    if (!this.cancellationRecorded) {
+      this.cancellationRecorded = true;
+      Counter.builder(CANCELLED_METRIC)
+          .tag(METHOD_TAG, this.methodName)
+          .register(PlatformMetricsRegistry.getMeterRegistry())
+          .increment();
+    }
+    if (this.unsentBytes > 0) {
+      Counter.builder(UNSENT_BYTES_METRIC)
+          .tag(METHOD_TAG, this.methodName)
+          .baseUnit("bytes")
+          .register(PlatformMetricsRegistry.getMeterRegistry())
+          .increment(this.unsentBytes);
+      this.unsentBytes = 0;
+    }
+  }
+}
@@ -26,6 +26,7 @@ import org.hypertrace.core.grpcutils.context.RequestContext;
 import org.hypertrace.entity.service.constants.EntityServiceConstants;
 import org.hypertrace.entity.service.util.DocStoreConverter;
 import org.hypertrace.entity.service.util.DocStoreJsonFormat;
+import org.hypertrace.entity.service.util.FlowControlledStreamObserver;
 import org.hypertrace.entity.service.util.StringUtils;
 import org.hypertrace.entity.service.util.TenantUtils;
 import org.hypertrace.entity.type.service.v1.Empty;
@@ -33,6 +34,7 @@ import org.hypertrace.entity.type.service.v1.EntityRelationshipType;
 import org.hypertrace.entity.type.service.v1.EntityRelationshipTypeFilter;
 import org.hypertrace.entity.type.service.v1.EntityType;
 import org.hypertrace.entity.type.service.v1.EntityTypeFilter;
+import org.hypertrace.entity.type.service.v1.EntityTypeServiceGrpc;
 import org.hypertrace.entity.type.service.v1.EntityTypeServiceGrpc.EntityTypeServiceImplBase;
 import org.hypertrace.entity.type.service.v1.MultiplicityKind;
 import org.slf4j.Logger;
@@ -188,10 +190,13 @@ public class EntityTypeServiceImpl extends EntityTypeServiceImplBase {
       return;
     }
 
+    FlowControlledStreamObserver<EntityType> responseStream = new FlowControlledStreamObserver<>(
+        EntityTypeServiceGrpc.getQueryEntityTypesMethod(), responseObserver);
     Iterator<Document> entityTypes =
         entityTypeCol.search(transform(tenantId.get(), request, true));
 
-    while (entityTypes.hasNext()) {
+    // The cursor is not read any further once the call is cancelled
+    while (entityTypes.hasNext() && !responseStream.isCancelled()) {
       Document entityType = entityTypes.next();
 
       EntityType.Builder builder = EntityType.newBuilder();
@@ -203,12 +208,12 @@ public class EntityTypeServiceImpl extends EntityTypeServiceImplBase {
         builder.setTenantId(tenantId.get());
       } catch (InvalidProtocolBufferException e) {
         LOG.error("Error processing entityType: {}", entityType.toJson(), e);
-        responseObserver.onError(e);
+        responseStream.onError(e);
         return;
       }
-      responseObserver.onNext(builder.build());
+      responseStream.onNext(builder.build());
     }
-    responseObserver.onCompleted();
+    responseStream.onCompleted();
   }
 
   @Override
@@ -220,16 +225,19 @@ public class EntityTypeServiceImpl extends EntityTypeServiceImplBase {
       return;
     }
 
-    searchByQueryAndStreamResponse(responseObserver,
+    searchByQueryAndStreamResponse(
+        new FlowControlledStreamObserver<>(
+            EntityTypeServiceGrpc.getQueryRelationshipTypesMethod(), responseObserver),
         transform(tenantId.get(), request, true), tenantId.get());
   }
 
   private void searchByQueryAndStreamResponse(
-      StreamObserver<EntityRelationshipType> responseObserver,
+      FlowControlledStreamObserver<EntityRelationshipType> responseObserver,
       Query query, String tenantId) {
     Iterator<Document> entityTypeRels = entityTypeRelationsCol.search(query);
 
-    while (entityTypeRels.hasNext()) {
+    // The cursor is not read any further once the call is cancelled
+    while (entityTypeRels.hasNext() && !responseObserver.isCancelled()) {
       Document relation = entityTypeRels.next();
 
       EntityRelationshipType.Builder builder = EntityRelationshipType.newBuilder();
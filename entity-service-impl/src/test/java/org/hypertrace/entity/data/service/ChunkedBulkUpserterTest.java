@@ -0,0 +1,77 @@
+package org.hypertrace.entity.data.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.JSONDocument;
+import org.hypertrace.core.documentstore.Key;
+import org.hypertrace.core.documentstore.SingleValueKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class ChunkedBulkUpserterTest {
+  private static final String TENANT_ID = "tenant";
+
+  private Collection mockCollection;
+  private ChunkedBulkUpserter upserter;
+
+  @BeforeEach
+  void beforeEach() {
+    this.mockCollection = mock(Collection.class);
+    this.upserter = new ChunkedBulkUpserter(2, Runnable::run);
+  }
+
+  @Test
+  void writesSmallBatchAsOneBulkUpsert() throws Exception {
+    when(this.mockCollection.bulkUpsert(anyMap())).thenReturn(true);
+
+    assertEquals(
+        Set.of(), this.upserter.upsert(this.mockCollection, TENANT_ID, buildDocuments(2)));
+
+    ArgumentCaptor<Map<Key, Document>> captor = ArgumentCaptor.forClass(Map.class);
+    verify(this.mockCollection, times(1)).bulkUpsert(captor.capture());
+    assertEquals(
+        Set.of(new SingleValueKey(TENANT_ID, "id-0"), new SingleValueKey(TENANT_ID, "id-1")),
+        captor.getValue().keySet());
+  }
+
+  @Test
+  void reportsEntitiesOfFailedChunksOnly() throws Exception {
+    when(this.mockCollection.bulkUpsert(anyMap()))
+        .thenReturn(true)
+        .thenReturn(false)
+        .thenThrow(new RuntimeException());
+
+    Set<String> failedEntityIds =
+        this.upserter.upsert(this.mockCollection, TENANT_ID, buildDocuments(5));
+
+    ArgumentCaptor<Map<Key, Document>> captor = ArgumentCaptor.forClass(Map.class);
+    verify(this.mockCollection, times(3)).bulkUpsert(captor.capture());
+    assertEquals(
+        List.of(2, 2, 1),
+        List.of(
+            captor.getAllValues().get(0).size(),
+            captor.getAllValues().get(1).size(),
+            captor.getAllValues().get(2).size()));
+    assertEquals(Set.of("id-2", "id-3", "id-4"), failedEntityIds);
+  }
+
+  private Map<String, Document> buildDocuments(int count) throws Exception {
+    Map<String, Document> documents = new LinkedHashMap<>();
+    for (int index = 0; index < count; index++) {
+      documents.put("id-" + index, new JSONDocument("{\"entityId\": \"id-" + index + "\"}"));
+    }
+    return documents;
+  }
+}
@@ -0,0 +1,109 @@
+package org.hypertrace.entity.data.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.ServerCall;
+import io.grpc.ServerCall.Listener;
+import io.grpc.ServerCallHandler;
+import io.grpc.Status;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class DocStoreExecutionInterceptorTest {
+  private ServerCall<Object, Object> mockCall;
+  private ServerCallHandler<Object, Object> mockHandler;
+  private Listener<Object> mockListener;
+  private Executor mockExecutor;
+  private DocStoreExecutionInterceptor interceptor;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  void beforeEach() {
+    this.mockCall = mock(ServerCall.class);
+    this.mockHandler = mock(ServerCallHandler.class);
+    this.mockListener = mock(Listener.class);
+    this.mockExecutor = mock(Executor.class);
+    when(this.mockHandler.startCall(any(), any())).thenReturn(this.mockListener);
+    this.interceptor = new DocStoreExecutionInterceptor(this.mockExecutor);
+  }
+
+  @Test
+  void runsUnaryHandlerOnExecutor() {
+    when(this.mockCall.getMethodDescriptor()).thenReturn(buildMethod(MethodType.UNARY));
+    Listener<Object> listener =
+        this.interceptor.interceptCall(this.mockCall, new Metadata(), this.mockHandler);
+
+    listener.onMessage("request");
+    verify(this.mockListener).onMessage("request");
+    listener.onHalfClose();
+    verify(this.mockListener, never()).onHalfClose();
+
+    ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+    verify(this.mockExecutor).execute(task.capture());
+    task.getValue().run();
+    verify(this.mockListener).onHalfClose();
+  }
+
+  @Test
+  void closesCallWhenHandlerFails() {
+    when(this.mockCall.getMethodDescriptor()).thenReturn(buildMethod(MethodType.UNARY));
+    doThrow(new StackOverflowError()).when(this.mockListener).onHalfClose();
+    Listener<Object> listener =
+        this.interceptor.interceptCall(this.mockCall, new Metadata(), this.mockHandler);
+
+    listener.onHalfClose();
+    ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+    verify(this.mockExecutor).execute(task.capture());
+    task.getValue().run();
+
+    ArgumentCaptor<Status> status = ArgumentCaptor.forClass(Status.class);
+    verify(this.mockCall).close(status.capture(), any(Metadata.class));
+    assertEquals(Status.Code.INTERNAL, status.getValue().getCode());
+  }
+
+  @Test
+  void rejectsCallWhenExecutorIsSaturated() {
+    when(this.mockCall.getMethodDescriptor()).thenReturn(buildMethod(MethodType.SERVER_STREAMING));
+    doThrow(new RejectedExecutionException()).when(this.mockExecutor).execute(any());
+    Listener<Object> listener =
+        this.interceptor.interceptCall(this.mockCall, new Metadata(), this.mockHandler);
+
+    listener.onHalfClose();
+
+    ArgumentCaptor<Status> status = ArgumentCaptor.forClass(Status.class);
+    verify(this.mockCall).close(status.capture(), any(Metadata.class));
+    assertEquals(Status.Code.RESOURCE_EXHAUSTED, status.getValue().getCode());
+    verify(this.mockListener, never()).onHalfClose();
+  }
+
+  @Test
+  void leavesClientStreamingCallsOnGrpcExecutor() {
+    when(this.mockCall.getMethodDescriptor()).thenReturn(buildMethod(MethodType.CLIENT_STREAMING));
+
+    assertSame(
+        this.mockListener,
+        this.interceptor.interceptCall(this.mockCall, new Metadata(), this.mockHandler));
+  }
+
+  @SuppressWarnings("unchecked")
+  private MethodDescriptor<Object, Object> buildMethod(MethodType type) {
+    return MethodDescriptor.newBuilder(mock(Marshaller.class), mock(Marshaller.class))
+        .setType(type)
+        .setFullMethodName("service/method")
+        .build();
+  }
+}
@@ -0,0 +1,74 @@
+package org.hypertrace.entity.data.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+import org.hypertrace.entity.data.service.v1.AttributeValue;
+import org.hypertrace.entity.data.service.v1.EnrichedEntity;
+import org.hypertrace.entity.data.service.v1.Entity;
+import org.hypertrace.entity.data.service.v1.Value;
+import org.junit.jupiter.api.Test;
+
+class DuplicateEntityMergerTest {
+  private static final String TENANT_ID = "tenant";
+
+  @Test
+  void lastWriteWinsByDefault() {
+    Entity first = buildEntity("id-1", "first", Map.of("a", "a-1", "b", "b-1"));
+    Entity other = buildEntity("id-2", "other", Map.of());
+    Entity second = buildEntity("id-1", "second", Map.of("a", "a-2"));
+
+    Map<String, Entity> merged =
+        new DuplicateEntityMerger(false).mergeEntities(TENANT_ID, List.of(first, other, second));
+
+    assertEquals(List.of("id-1", "id-2"), List.copyOf(merged.keySet()));
+    assertEquals(second, merged.get("id-1"));
+    assertEquals(other, merged.get("id-2"));
+  }
+
+  @Test
+  void unionsAttributesWhenEnabled() {
+    Entity first = buildEntity("id-1", "first", Map.of("a", "a-1", "b", "b-1"));
+    Entity second = buildEntity("id-1", "second", Map.of("a", "a-2", "c", "c-2"));
+
+    Map<String, Entity> merged =
+        new DuplicateEntityMerger(true).mergeEntities(TENANT_ID, List.of(first, second));
+
+    assertEquals(
+        buildEntity("id-1", "second", Map.of("a", "a-2", "b", "b-1", "c", "c-2")),
+        merged.get("id-1"));
+  }
+
+  @Test
+  void mergesEnrichedEntities() {
+    EnrichedEntity first =
+        EnrichedEntity.newBuilder()
+            .setEntityId("id-1")
+            .putAttributes("a", buildAttributeValue("a-1"))
+            .build();
+    EnrichedEntity second =
+        EnrichedEntity.newBuilder()
+            .setEntityId("id-1")
+            .putAttributes("b", buildAttributeValue("b-2"))
+            .build();
+
+    assertEquals(
+        Map.of("id-1", second),
+        new DuplicateEntityMerger(false)
+            .mergeEnrichedEntities(TENANT_ID, List.of(first, second)));
+    assertEquals(
+        Map.of("id-1", second.toBuilder().putAttributes("a", buildAttributeValue("a-1")).build()),
+        new DuplicateEntityMerger(true).mergeEnrichedEntities(TENANT_ID, List.of(first, second)));
+  }
+
+  private Entity buildEntity(String entityId, String entityName, Map<String, String> attributes) {
+    Entity.Builder builder = Entity.newBuilder().setEntityId(entityId).setEntityName(entityName);
+    attributes.forEach((key, value) -> builder.putAttributes(key, buildAttributeValue(value)));
+    return builder.build();
+  }
+
+  private AttributeValue buildAttributeValue(String value) {
+    return AttributeValue.newBuilder().setValue(Value.newBuilder().setString(value)).build();
+  }
+}
@@ -0,0 +1,123 @@
+package org.hypertrace.entity.data.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.JSONDocument;
+import org.hypertrace.entity.data.service.v1.AttributeValue;
+import org.hypertrace.entity.data.service.v1.Entity;
+import org.hypertrace.entity.data.service.v1.Value;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class EntityFingerprintCacheTest {
+  private static final String TENANT_ID = "tenant";
+  private static final Entity ENTITY =
+      Entity.newBuilder()
+          .setEntityId("id-1")
+          .setEntityType("type")
+          .putAttributes("a", buildAttributeValue("a-value"))
+          .putAttributes("b", buildAttributeValue("b-value"))
+          .build();
+
+  private Collection mockCollection;
+
+  @BeforeEach
+  void beforeEach() {
+    this.mockCollection = mock(Collection.class);
+  }
+
+  @Test
+  void fingerprintIsStableAcrossAttributeOrder() {
+    EntityFingerprintCache cache = buildCache(true, false);
+    Entity reordered =
+        Entity.newBuilder()
+            .setEntityId("id-1")
+            .setEntityType("type")
+            .putAttributes("b", buildAttributeValue("b-value"))
+            .putAttributes("a", buildAttributeValue("a-value"))
+            .build();
+
+    assertEquals(cache.fingerprint(ENTITY), cache.fingerprint(reordered));
+    assertNotEquals(
+        cache.fingerprint(ENTITY),
+        cache.fingerprint(ENTITY.toBuilder().setEntityName("renamed").build()));
+  }
+
+  @Test
+  void findsUnchangedEntityAfterWrite() throws Exception {
+    EntityFingerprintCache cache = buildCache(true, false);
+    Document stored = new JSONDocument("{\"entityId\": \"id-1\"}");
+    String fingerprint = cache.fingerprint(ENTITY);
+
+    assertEquals(Optional.empty(), cache.findUnchanged(TENANT_ID, "id-1", fingerprint));
+    cache.recordWrite(TENANT_ID, "id-1", fingerprint, stored);
+
+    assertEquals(Optional.of(stored), cache.findUnchanged(TENANT_ID, "id-1", fingerprint));
+    assertTrue(cache.isUnchanged(TENANT_ID, "id-1", fingerprint));
+    assertFalse(cache.isUnchanged("other-tenant", "id-1", fingerprint));
+    assertFalse(cache.isUnchanged(TENANT_ID, "id-1", "other-fingerprint"));
+
+    cache.invalidate(TENANT_ID, "id-1");
+    assertFalse(cache.isUnchanged(TENANT_ID, "id-1", fingerprint));
+    verify(this.mockCollection, never()).search(any());
+  }
+
+  @Test
+  void keepsStoredDocumentOnUnchangedBulkWrite() throws Exception {
+    EntityFingerprintCache cache = buildCache(true, false);
+    Document stored = new JSONDocument("{\"entityId\": \"id-1\"}");
+    String fingerprint = cache.fingerprint(ENTITY);
+
+    cache.recordWrite(TENANT_ID, "id-1", fingerprint, stored);
+    cache.recordWrite(TENANT_ID, "id-1", fingerprint, null);
+
+    assertEquals(Optional.of(stored), cache.findUnchanged(TENANT_ID, "id-1", fingerprint));
+  }
+
+  @Test
+  void readsPersistedFingerprintOnCacheMiss() throws Exception {
+    EntityFingerprintCache cache = buildCache(true, true);
+    String fingerprint = cache.fingerprint(ENTITY);
+    Document stored = cache.toDocument(ENTITY, fingerprint);
+    when(this.mockCollection.search(any())).thenReturn(List.of(stored).iterator());
+
+    assertTrue(stored.toJson().contains(fingerprint));
+    assertEquals(Optional.of(stored), cache.findUnchanged(TENANT_ID, "id-1", fingerprint));
+    // Now cached, so it is not read again
+    assertTrue(cache.isUnchanged(TENANT_ID, "id-1", fingerprint));
+  }
+
+  @Test
+  void neverSkipsWhenDisabled() throws Exception {
+    EntityFingerprintCache cache = buildCache(false, true);
+    String fingerprint = cache.fingerprint(ENTITY);
+    cache.recordWrite(TENANT_ID, "id-1", fingerprint, new JSONDocument("{}"));
+
+    assertEquals("", fingerprint);
+    assertFalse(cache.isUnchanged(TENANT_ID, "id-1", fingerprint));
+    assertEquals(Optional.empty(), cache.findUnchanged(TENANT_ID, "id-1", fingerprint));
+    assertFalse(cache.toDocument(ENTITY, fingerprint).toJson().contains("entityFingerprint"));
+  }
+
+  private EntityFingerprintCache buildCache(boolean enabled, boolean persisted) {
+    return new EntityFingerprintCache(
+        this.mockCollection, "entities", enabled, 10, Duration.ofMinutes(1), persisted);
+  }
+
+  private static AttributeValue buildAttributeValue(String value) {
+    return AttributeValue.newBuilder().setValue(Value.newBuilder().setString(value)).build();
+  }
+}
@@ -2,6 +2,8 @@ package org.hypertrace.entity.data.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import io.reactivex.rxjava3.core.Single;
@@ -9,6 +11,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.hypertrace.entity.data.service.EntityDataServiceImpl.ErrorMessages;
 import org.hypertrace.entity.data.service.v1.AttributeValue;
 import org.hypertrace.entity.data.service.v1.Entity;
@@ -141,6 +144,92 @@ class EntityNormalizerTest {
     assertEquals(expectedNormalized, this.normalizer.normalize(TENANT_ID, inputEntity));
   }
 
+  @Test
+  void normalizesBatchResolvingEachTypeOnce() {
+    Map<String, AttributeValue> firstValueMap =
+        buildValueMap(Map.of(V1_ID_ATTR.getName(), "foo-value"));
+    Map<String, AttributeValue> secondValueMap =
+        buildValueMap(Map.of(V1_ID_ATTR.getName(), "bar-value"));
+    when(this.mockIdGenerator.generateEntityId(TENANT_ID, V1_ENTITY_TYPE, firstValueMap))
+        .thenReturn("first-generated-id");
+    when(this.mockIdGenerator.generateEntityId(TENANT_ID, V1_ENTITY_TYPE, secondValueMap))
+        .thenReturn("second-generated-id");
+    when(this.mockIdAttrCache.getIdentifyingAttributes(TENANT_ID, V1_ENTITY_TYPE))
+        .thenReturn(List.of(V1_ID_ATTR));
+    when(this.mockEntityTypeClient.get(V1_ENTITY_TYPE))
+        .thenReturn(Single.error(new RuntimeException()));
+    when(this.mockEntityTypeClient.get(V2_ENTITY_TYPE))
+        .thenReturn(Single.just(EntityType.getDefaultInstance()));
+
+    Entity firstV1Entity =
+        Entity.newBuilder()
+            .setEntityType(V1_ENTITY_TYPE)
+            .putAllIdentifyingAttributes(firstValueMap)
+            .build();
+    Entity v2Entity =
+        Entity.newBuilder().setEntityType(V2_ENTITY_TYPE).setEntityId("input-id").build();
+    Entity secondV1Entity =
+        Entity.newBuilder()
+            .setEntityType(V1_ENTITY_TYPE)
+            .putAllIdentifyingAttributes(secondValueMap)
+            .build();
+
+    assertEquals(
+        List.of(
+            firstV1Entity.toBuilder()
+                .setEntityId("first-generated-id")
+                .setTenantId(TENANT_ID)
+                .putAllAttributes(firstValueMap)
+                .build(),
+            v2Entity.toBuilder().setTenantId(TENANT_ID).build(),
+            secondV1Entity.toBuilder()
+                .setEntityId("second-generated-id")
+                .setTenantId(TENANT_ID)
+                .putAllAttributes(secondValueMap)
+                .build()),
+        this.normalizer.normalize(TENANT_ID, List.of(firstV1Entity, v2Entity, secondV1Entity)));
+    verify(this.mockEntityTypeClient, times(1)).get(V1_ENTITY_TYPE);
+    verify(this.mockEntityTypeClient, times(1)).get(V2_ENTITY_TYPE);
+    verify(this.mockIdAttrCache, times(1)).getIdentifyingAttributes(TENANT_ID, V1_ENTITY_TYPE);
+  }
+
+  @Test
+  void normalizesLargeBatchInParallelPreservingOrder() {
+    EntityNormalizer parallelNormalizer =
+        new EntityNormalizer(mockEntityTypeClient, mockIdGenerator, mockIdAttrCache, 2);
+    when(this.mockEntityTypeClient.get(V2_ENTITY_TYPE))
+        .thenReturn(Single.just(EntityType.getDefaultInstance()));
+    List<Entity> inputEntities =
+        IntStream.range(0, 100)
+            .mapToObj(
+                index ->
+                    Entity.newBuilder()
+                        .setEntityType(V2_ENTITY_TYPE)
+                        .setEntityId("input-id-" + index)
+                        .build())
+            .collect(Collectors.toList());
+
+    assertEquals(
+        inputEntities.stream()
+            .map(entity -> entity.toBuilder().setTenantId(TENANT_ID).build())
+            .collect(Collectors.toList()),
+        parallelNormalizer.normalize(TENANT_ID, inputEntities));
+  }
+
+  @Test
+  void throwsOnBatchWithMissingEntityType() {
+    Entity validEntity =
+        Entity.newBuilder().setEntityType(V2_ENTITY_TYPE).setEntityId("input-id").build();
+
+    Exception exception =
+        assertThrows(
+            RuntimeException.class,
+            () ->
+                this.normalizer.normalize(
+                    TENANT_ID, List.of(validEntity, Entity.getDefaultInstance())));
+    assertEquals(exception.getMessage(), ErrorMessages.ENTITY_TYPE_EMPTY);
+  }
+
   private Map<String, AttributeValue> buildValueMap(Map<String, String> stringMap) {
     return stringMap.entrySet().stream()
         .map(
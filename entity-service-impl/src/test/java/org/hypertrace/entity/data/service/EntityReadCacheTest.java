@@ -0,0 +1,50 @@
+package org.hypertrace.entity.data.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import org.hypertrace.entity.data.service.v1.Entity;
+import org.junit.jupiter.api.Test;
+
+class EntityReadCacheTest {
+  private static final String TENANT_ID = "tenant";
+  private static final Entity ENTITY =
+      Entity.newBuilder().setTenantId(TENANT_ID).setEntityId("id-1").setEntityType("type").build();
+
+  @Test
+  void servesCachedEntityUntilInvalidated() {
+    EntityReadCache<Entity> readCache = buildReadCache(true);
+    readCache.put(TENANT_ID, "id-1", ENTITY, readCache.getWriteVersion(TENANT_ID, "id-1"));
+
+    assertEquals(Optional.of(ENTITY), readCache.get(TENANT_ID, "id-1"));
+    assertTrue(readCache.get("other-tenant", "id-1").isEmpty());
+
+    readCache.invalidateAll(TENANT_ID, List.of("id-1"));
+    assertTrue(readCache.get(TENANT_ID, "id-1").isEmpty());
+  }
+
+  @Test
+  void doesNotCacheReadRacingWithWrite() {
+    EntityReadCache<Entity> readCache = buildReadCache(true);
+    long writeVersion = readCache.getWriteVersion(TENANT_ID, "id-1");
+    readCache.invalidate(TENANT_ID, "id-1");
+    readCache.put(TENANT_ID, "id-1", ENTITY, writeVersion);
+
+    assertTrue(readCache.get(TENANT_ID, "id-1").isEmpty());
+  }
+
+  @Test
+  void cachesNothingWhenDisabled() {
+    EntityReadCache<Entity> readCache = buildReadCache(false);
+    readCache.put(TENANT_ID, "id-1", ENTITY, readCache.getWriteVersion(TENANT_ID, "id-1"));
+
+    assertTrue(readCache.get(TENANT_ID, "id-1").isEmpty());
+  }
+
+  private EntityReadCache<Entity> buildReadCache(boolean enabled) {
+    return new EntityReadCache<>("raw", enabled, 1024 * 1024, Duration.ofMinutes(1));
+  }
+}
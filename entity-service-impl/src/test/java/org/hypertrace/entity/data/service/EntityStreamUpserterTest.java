@@ -0,0 +1,179 @@
+package org.hypertrace.entity.data.service;
+
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import java.time.Duration;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.entity.data.service.v1.Entity;
+import org.hypertrace.entity.data.service.v1.UpsertEntityStreamSummary;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class EntityStreamUpserterTest {
+  private static final String TENANT_ID = "tenant";
+
+  @Mock EntityNormalizer mockNormalizer;
+  @Mock Collection mockCollection;
+  @Mock ServerCallStreamObserver<UpsertEntityStreamSummary> mockResponseObserver;
+  private EntityStreamUpserter upserter;
+
+  @BeforeEach
+  void beforeEach() {
+    this.upserter =
+        new EntityStreamUpserter(
+                TENANT_ID,
+                mockNormalizer,
+                mockCollection,
+                new EntityFingerprintCache(
+                    mockCollection, "entities", false, 10, Duration.ofMinutes(1), false),
+                new EntityReadCache<>("raw", false, 1024, Duration.ofMinutes(1)),
+                2,
+                mockResponseObserver)
+            .start();
+  }
+
+  @Test
+  void requestsOnlyOneBatchAhead() {
+    InOrder inOrder = inOrder(mockResponseObserver);
+    inOrder.verify(mockResponseObserver).disableAutoInboundFlowControl();
+    inOrder.verify(mockResponseObserver).request(2);
+  }
+
+  @Test
+  void flushesInBatchesAndSummarizes() {
+    Entity first = buildEntity("id-1");
+    Entity second = buildEntity("id-2");
+    Entity third = buildEntity("id-3");
+    when(mockNormalizer.normalize(TENANT_ID, first)).thenReturn(first);
+    when(mockNormalizer.normalize(TENANT_ID, second)).thenReturn(second);
+    when(mockNormalizer.normalize(TENANT_ID, third)).thenReturn(third);
+    when(mockCollection.bulkUpsert(anyMap())).thenReturn(true);
+
+    this.upserter.onNext(first);
+    verify(mockCollection, never()).bulkUpsert(anyMap());
+    this.upserter.onNext(second);
+    verify(mockCollection, times(1)).bulkUpsert(anyMap());
+    this.upserter.onNext(third);
+    this.upserter.onCompleted();
+
+    verify(mockCollection, times(2)).bulkUpsert(anyMap());
+    verify(mockResponseObserver, times(3)).request(1);
+    verify(mockResponseObserver)
+        .onNext(
+            eq(
+                UpsertEntityStreamSummary.newBuilder()
+                    .setAcceptedCount(3)
+                    .setFlushedBatchCount(2)
+                    .build()));
+    verify(mockResponseObserver).onCompleted();
+  }
+
+  @Test
+  void fillsBatchesWithDistinctEntities() {
+    Entity first = buildEntity("id-1");
+    Entity firstUpdated = first.toBuilder().setEntityName("name").build();
+    Entity second = buildEntity("id-2");
+    when(mockNormalizer.normalize(TENANT_ID, first)).thenReturn(first);
+    when(mockNormalizer.normalize(TENANT_ID, firstUpdated)).thenReturn(firstUpdated);
+    when(mockNormalizer.normalize(TENANT_ID, second)).thenReturn(second);
+    when(mockCollection.bulkUpsert(anyMap())).thenReturn(true);
+
+    this.upserter.onNext(first);
+    this.upserter.onNext(firstUpdated);
+    verify(mockCollection, never()).bulkUpsert(anyMap());
+    this.upserter.onNext(second);
+    verify(mockCollection, times(1)).bulkUpsert(anyMap());
+    this.upserter.onCompleted();
+
+    verify(mockResponseObserver)
+        .onNext(
+            eq(
+                UpsertEntityStreamSummary.newBuilder()
+                    .setAcceptedCount(3)
+                    .setFlushedBatchCount(1)
+                    .build()));
+  }
+
+  @Test
+  void countsInvalidAndUnwrittenEntitiesAsFailed() {
+    Entity valid = buildEntity("id-1");
+    Entity invalid = Entity.getDefaultInstance();
+    when(mockNormalizer.normalize(TENANT_ID, valid)).thenReturn(valid);
+    when(mockNormalizer.normalize(TENANT_ID, invalid)).thenThrow(new RuntimeException());
+    when(mockCollection.bulkUpsert(anyMap())).thenReturn(false);
+
+    this.upserter.onNext(valid);
+    this.upserter.onNext(invalid);
+    this.upserter.onCompleted();
+
+    verify(mockResponseObserver)
+        .onNext(eq(UpsertEntityStreamSummary.newBuilder().setFailedCount(2).build()));
+  }
+
+  @Test
+  void acceptsUnchangedEntitiesWithoutWriting() {
+    EntityFingerprintCache fingerprintCache =
+        new EntityFingerprintCache(
+            mockCollection, "entities", true, 10, Duration.ofMinutes(1), false);
+    Entity first = buildEntity("id-1");
+    Entity second = buildEntity("id-2");
+    when(mockNormalizer.normalize(TENANT_ID, first)).thenReturn(first);
+    when(mockNormalizer.normalize(TENANT_ID, second)).thenReturn(second);
+    when(mockCollection.bulkUpsert(anyMap())).thenReturn(true);
+
+    EntityReadCache<Entity> readCache =
+        new EntityReadCache<>("raw", false, 1024, Duration.ofMinutes(1));
+    EntityStreamUpserter firstUpserter =
+        new EntityStreamUpserter(
+            TENANT_ID,
+            mockNormalizer,
+            mockCollection,
+            fingerprintCache,
+            readCache,
+            2,
+            mockResponseObserver);
+    firstUpserter.onNext(first);
+    firstUpserter.onCompleted();
+    EntityStreamUpserter secondUpserter =
+        new EntityStreamUpserter(
+            TENANT_ID,
+            mockNormalizer,
+            mockCollection,
+            fingerprintCache,
+            readCache,
+            2,
+            mockResponseObserver);
+    secondUpserter.onNext(first);
+    secondUpserter.onNext(second);
+    secondUpserter.onCompleted();
+
+    verify(mockCollection, times(2)).bulkUpsert(anyMap());
+    verify(mockResponseObserver)
+        .onNext(
+            eq(
+                UpsertEntityStreamSummary.newBuilder()
+                    .setAcceptedCount(2)
+                    .setFlushedBatchCount(1)
+                    .build()));
+  }
+
+  private Entity buildEntity(String entityId) {
+    return Entity.newBuilder()
+        .setTenantId(TENANT_ID)
+        .setEntityType("type")
+        .setEntityId(entityId)
+        .build();
+  }
+}
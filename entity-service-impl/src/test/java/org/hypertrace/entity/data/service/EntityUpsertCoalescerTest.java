@@ -0,0 +1,115 @@
+package org.hypertrace.entity.data.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.JSONDocument;
+import org.hypertrace.core.documentstore.Key;
+import org.hypertrace.core.documentstore.SingleValueKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class EntityUpsertCoalescerTest {
+  private static final String TENANT_ID = "tenant";
+
+  private Collection mockCollection;
+  private ScheduledExecutorService mockExecutor;
+
+  @BeforeEach
+  void beforeEach() {
+    this.mockCollection = mock(Collection.class);
+    this.mockExecutor = mock(ScheduledExecutorService.class);
+  }
+
+  @Test
+  void flushesFullBatchAsOneBulkUpsert() throws Exception {
+    Document stored1 = new JSONDocument("{\"entityId\": \"id-1\", \"entityName\": \"one\"}");
+    Document stored2 = new JSONDocument("{\"entityId\": \"id-2\", \"entityName\": \"two\"}");
+    when(this.mockCollection.bulkUpsert(anyMap())).thenReturn(true);
+    when(this.mockCollection.search(any())).thenReturn(List.of(stored2, stored1).iterator());
+
+    EntityUpsertCoalescer coalescer =
+        new EntityUpsertCoalescer(this.mockCollection, 2, Duration.ofSeconds(1), mockExecutor);
+    CompletableFuture<Document> first =
+        coalescer.upsert(TENANT_ID, "id-1", new JSONDocument("{\"entityId\": \"id-1\"}"));
+    assertFalse(first.isDone());
+    CompletableFuture<Document> second =
+        coalescer.upsert(TENANT_ID, "id-2", new JSONDocument("{\"entityId\": \"id-2\"}"));
+
+    assertEquals(stored1, first.get());
+    assertEquals(stored2, second.get());
+
+    ArgumentCaptor<Map<Key, Document>> captor = ArgumentCaptor.forClass(Map.class);
+    verify(this.mockCollection, times(1)).bulkUpsert(captor.capture());
+    assertEquals(2, captor.getValue().size());
+    assertTrue(captor.getValue().containsKey(new SingleValueKey(TENANT_ID, "id-1")));
+    assertTrue(captor.getValue().containsKey(new SingleValueKey(TENANT_ID, "id-2")));
+  }
+
+  @Test
+  void flushesPartialBatchAfterLinger() throws Exception {
+    Document stored = new JSONDocument("{\"entityId\": \"id-1\"}");
+    when(this.mockCollection.bulkUpsert(anyMap())).thenReturn(true);
+    when(this.mockCollection.search(any())).thenReturn(List.of(stored).iterator());
+    ArgumentCaptor<Runnable> lingerTask = ArgumentCaptor.forClass(Runnable.class);
+
+    EntityUpsertCoalescer coalescer =
+        new EntityUpsertCoalescer(this.mockCollection, 10, Duration.ofMillis(5), mockExecutor);
+    CompletableFuture<Document> future = coalescer.upsert(TENANT_ID, "id-1", stored);
+
+    verify(this.mockExecutor).schedule(lingerTask.capture(), anyLong(), any(TimeUnit.class));
+    verify(this.mockCollection, never()).bulkUpsert(anyMap());
+    lingerTask.getValue().run();
+
+    assertEquals(stored, future.get());
+    verify(this.mockCollection, times(1)).bulkUpsert(anyMap());
+  }
+
+  @Test
+  void failsAllCallersWhenBulkUpsertFails() throws Exception {
+    when(this.mockCollection.bulkUpsert(anyMap())).thenReturn(false);
+
+    EntityUpsertCoalescer coalescer =
+        new EntityUpsertCoalescer(this.mockCollection, 2, Duration.ofSeconds(1), mockExecutor);
+    CompletableFuture<Document> first =
+        coalescer.upsert(TENANT_ID, "id-1", new JSONDocument("{\"entityId\": \"id-1\"}"));
+    CompletableFuture<Document> second =
+        coalescer.upsert(TENANT_ID, "id-2", new JSONDocument("{\"entityId\": \"id-2\"}"));
+
+    assertThrows(ExecutionException.class, first::get);
+    assertThrows(ExecutionException.class, second::get);
+    verify(this.mockCollection, never()).search(any());
+  }
+
+  @Test
+  void keepsTenantsInSeparateBatches() throws Exception {
+    EntityUpsertCoalescer coalescer =
+        new EntityUpsertCoalescer(this.mockCollection, 2, Duration.ofSeconds(1), mockExecutor);
+    coalescer.upsert(TENANT_ID, "id-1", new JSONDocument("{\"entityId\": \"id-1\"}"));
+    CompletableFuture<Document> otherTenant =
+        coalescer.upsert("other-tenant", "id-1", new JSONDocument("{\"entityId\": \"id-1\"}"));
+
+    assertFalse(otherTenant.isDone());
+    verify(this.mockCollection, never()).bulkUpsert(anyMap());
+  }
+}
@@ -0,0 +1,85 @@
+package org.hypertrace.entity.data.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.Filter;
+import org.hypertrace.core.documentstore.JSONDocument;
+import org.hypertrace.core.documentstore.Query;
+import org.hypertrace.core.documentstore.SingleValueKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class KeyedDocumentSearchTest {
+  private static final SingleValueKey KEY_1 = new SingleValueKey("tenant", "id-1");
+  private static final SingleValueKey KEY_2 = new SingleValueKey("tenant", "id-2");
+
+  private Collection mockCollection;
+  private final KeyedDocumentSearch keyedDocumentSearch = new KeyedDocumentSearch();
+
+  @BeforeEach
+  void beforeEach() {
+    this.mockCollection = mock(Collection.class);
+  }
+
+  @Test
+  void findsSingleKeyWithLimitOfOne() throws Exception {
+    Document document = new JSONDocument("{\"entityId\": \"id-1\"}");
+    when(this.mockCollection.search(any())).thenReturn(List.of(document).iterator());
+
+    assertEquals(
+        Optional.of(document), this.keyedDocumentSearch.findOne(this.mockCollection, KEY_1));
+
+    Query query = captureQuery();
+    assertEquals(Filter.Op.EQ, query.getFilter().getOp());
+    assertEquals("_id", query.getFilter().getFieldName());
+    assertEquals(KEY_1.toString(), query.getFilter().getValue());
+    assertEquals(1, query.getLimit());
+  }
+
+  @Test
+  void returnsEmptyForMissingKey() {
+    when(this.mockCollection.search(any())).thenReturn(Collections.emptyIterator());
+
+    assertTrue(this.keyedDocumentSearch.findOne(this.mockCollection, KEY_1).isEmpty());
+  }
+
+  @Test
+  void findsManyKeysWithOneInQuery() {
+    when(this.mockCollection.search(any())).thenReturn(Collections.emptyIterator());
+
+    this.keyedDocumentSearch.findAll(this.mockCollection, List.of(KEY_1, KEY_2));
+
+    Query query = captureQuery();
+    assertEquals(Filter.Op.IN, query.getFilter().getOp());
+    assertArrayEquals(
+        new Object[] {KEY_1.toString(), KEY_2.toString()},
+        ((List<?>) query.getFilter().getValue()).toArray());
+    assertEquals(2, query.getLimit());
+  }
+
+  @Test
+  void doesNotQueryForNoKeys() {
+    assertFalse(this.keyedDocumentSearch.findAll(this.mockCollection, List.of()).hasNext());
+    verify(this.mockCollection, never()).search(any());
+  }
+
+  private Query captureQuery() {
+    ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+    verify(this.mockCollection).search(captor.capture());
+    return captor.getValue();
+  }
+}
@@ -0,0 +1,184 @@
+package org.hypertrace.entity.data.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import org.hypertrace.core.documentstore.Filter;
+import org.hypertrace.core.documentstore.JSONDocument;
+import org.hypertrace.core.documentstore.OrderBy;
+import org.hypertrace.entity.data.service.v1.OrderByExpression;
+import org.hypertrace.entity.data.service.v1.Query;
+import org.hypertrace.entity.data.service.v1.SortOrder;
+import org.hypertrace.entity.service.exception.InvalidRequestException;
+import org.hypertrace.entity.service.util.DocStoreConverter;
+import org.junit.jupiter.api.Test;
+
+class QueryContinuationTest {
+  private static final String TENANT_ID = "tenant";
+
+  @Test
+  void ordersByIdWithoutFilteringFirstPage() throws Exception {
+    Query request = Query.newBuilder().setLimit(2).build();
+    org.hypertrace.core.documentstore.Query docStoreQuery =
+        DocStoreConverter.transform(TENANT_ID, request, Collections.emptyList());
+    Filter filter = docStoreQuery.getFilter();
+
+    assertEquals(0, QueryContinuation.apply(request, docStoreQuery));
+
+    List<OrderBy> orderBys = docStoreQuery.getOrderBys();
+    assertEquals("_id", orderBys.get(orderBys.size() - 1).getField());
+    assertTrue(orderBys.get(orderBys.size() - 1).isAsc());
+    assertEquals(filter, docStoreQuery.getFilter());
+  }
+
+  @Test
+  void returnsNoTokenForLastPage() throws Exception {
+    Query request = Query.newBuilder().setLimit(2).build();
+
+    assertTrue(
+        QueryContinuation.next(request, 0, TENANT_ID, new JSONDocument("{}"), 1).isEmpty());
+  }
+
+  @Test
+  void filtersNextPageAfterLastSortKey() throws Exception {
+    Query request =
+        Query.newBuilder()
+            .setLimit(2)
+            .addOrderBy(
+                OrderByExpression.newBuilder().setName("entityType").setOrder(SortOrder.DESC))
+            .build();
+    String token =
+        QueryContinuation.next(
+                request,
+                0,
+                TENANT_ID,
+                new JSONDocument("{\"entityId\": \"id-2\", \"entityType\": \"type\"}"),
+                2)
+            .orElseThrow();
+
+    Query nextRequest = request.toBuilder().setContinuationToken(token).build();
+    org.hypertrace.core.documentstore.Query docStoreQuery =
+        DocStoreConverter.transform(TENANT_ID, nextRequest, Collections.emptyList());
+    assertEquals(0, QueryContinuation.apply(nextRequest, docStoreQuery));
+
+    // (tenant filter) AND ((entityType < type) OR (entityType = type AND _id > tenant:id-2))
+    Filter afterToken = docStoreQuery.getFilter().getChildFilters()[1];
+    assertEquals(Filter.Op.OR, afterToken.getOp());
+    Filter sortedAfter = afterToken.getChildFilters()[0];
+    assertEquals(Filter.Op.LT, sortedAfter.getOp());
+    assertEquals("entityType", sortedAfter.getFieldName());
+    assertEquals("type", sortedAfter.getValue());
+    Filter tieBroken = afterToken.getChildFilters()[1];
+    assertEquals(Filter.Op.AND, tieBroken.getOp());
+    assertEquals(Filter.Op.EQ, tieBroken.getChildFilters()[0].getOp());
+    assertEquals(Filter.Op.GT, tieBroken.getChildFilters()[1].getOp());
+    assertEquals("_id", tieBroken.getChildFilters()[1].getFieldName());
+    assertEquals("tenant:id-2", tieBroken.getChildFilters()[1].getValue());
+  }
+
+  @Test
+  void pagesByOffsetWhenSortFieldCanBeMissing() throws Exception {
+    Query request =
+        Query.newBuilder()
+            .setLimit(2)
+            .addOrderBy(
+                OrderByExpression.newBuilder().setName("entityName").setOrder(SortOrder.DESC))
+            .build();
+
+    // Whether the last entity of the page has the field or not, later ones may miss it
+    for (String lastDocument :
+        List.of(
+            "{\"entityId\": \"id-2\", \"entityName\": \"name\"}",
+            "{\"entityId\": \"id-2\"}")) {
+      String token =
+          QueryContinuation.next(request, 2, TENANT_ID, new JSONDocument(lastDocument), 2)
+              .orElseThrow();
+
+      Query nextRequest = request.toBuilder().setContinuationToken(token).build();
+      org.hypertrace.core.documentstore.Query docStoreQuery =
+          DocStoreConverter.transform(TENANT_ID, nextRequest, Collections.emptyList());
+      Filter filter = docStoreQuery.getFilter();
+      assertEquals(4, QueryContinuation.apply(nextRequest, docStoreQuery));
+      assertEquals(4, docStoreQuery.getOffset());
+      assertEquals(filter, docStoreQuery.getFilter());
+    }
+  }
+
+  @Test
+  void rejectsKeysetTokenWhenSortFieldCanBeMissing() throws Exception {
+    Query request = Query.newBuilder().setLimit(2).build();
+    String token =
+        QueryContinuation.next(
+                request, 0, TENANT_ID, new JSONDocument("{\"entityId\": \"id-2\"}"), 2)
+            .orElseThrow();
+    Query nextRequest =
+        request.toBuilder()
+            .addOrderBy(OrderByExpression.newBuilder().setName("entityName"))
+            .setContinuationToken(token)
+            .build();
+
+    assertThrows(
+        InvalidRequestException.class,
+        () ->
+            QueryContinuation.apply(
+                nextRequest,
+                DocStoreConverter.transform(TENANT_ID, nextRequest, Collections.emptyList())));
+  }
+
+  @Test
+  void fallsBackToOffsetForNonScalarSortKey() throws Exception {
+    Query request =
+        Query.newBuilder()
+            .setLimit(2)
+            .addOrderBy(OrderByExpression.newBuilder().setName("attributes.foo"))
+            .build();
+    String token =
+        QueryContinuation.next(
+                request,
+                4,
+                TENANT_ID,
+                new JSONDocument(
+                    "{\"entityId\": \"id-2\", \"attributes\": {\"foo\": {\"value\": {}}}}"),
+                2)
+            .orElseThrow();
+
+    Query nextRequest = request.toBuilder().setContinuationToken(token).build();
+    org.hypertrace.core.documentstore.Query docStoreQuery =
+        DocStoreConverter.transform(TENANT_ID, nextRequest, Collections.emptyList());
+
+    assertEquals(6, QueryContinuation.apply(nextRequest, docStoreQuery));
+    assertEquals(6, docStoreQuery.getOffset());
+  }
+
+  @Test
+  void rejectsInvalidToken() {
+    Query request = Query.newBuilder().setLimit(2).setContinuationToken("not a token").build();
+
+    assertThrows(
+        InvalidRequestException.class,
+        () ->
+            QueryContinuation.apply(
+                request,
+                DocStoreConverter.transform(TENANT_ID, request, Collections.emptyList())));
+  }
+
+  @Test
+  void rejectsTokenCombinedWithOffset() throws Exception {
+    Query request = Query.newBuilder().setLimit(2).build();
+    String token =
+        QueryContinuation.next(
+                request, 0, TENANT_ID, new JSONDocument("{\"entityId\": \"id-2\"}"), 2)
+            .orElseThrow();
+    Query nextRequest = request.toBuilder().setContinuationToken(token).setOffset(2).build();
+
+    assertThrows(
+        InvalidRequestException.class,
+        () ->
+            QueryContinuation.apply(
+                nextRequest,
+                DocStoreConverter.transform(TENANT_ID, nextRequest, Collections.emptyList())));
+  }
+}
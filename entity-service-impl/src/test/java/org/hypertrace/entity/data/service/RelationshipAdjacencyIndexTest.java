@@ -0,0 +1,178 @@
+package org.hypertrace.entity.data.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.JSONDocument;
+import org.hypertrace.entity.data.service.v1.EntityDataServiceGrpc;
+import org.hypertrace.entity.data.service.v1.EntityRelationship;
+import org.hypertrace.entity.data.service.v1.RelationshipsQuery;
+import org.hypertrace.entity.service.util.DocStoreJsonFormat;
+import org.hypertrace.entity.service.util.FlowControlledStreamObserver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RelationshipAdjacencyIndexTest {
+  private static final String TENANT_ID = "tenant";
+
+  private Collection mockCollection;
+
+  @BeforeEach
+  void beforeEach() throws Exception {
+    this.mockCollection = mock(Collection.class);
+    when(this.mockCollection.search(any()))
+        .thenAnswer(
+            invocation ->
+                List.of(
+                        toDocument(relationship("API_BACKEND", "a", "b")),
+                        toDocument(relationship("API_BACKEND", "a", "c")),
+                        toDocument(relationship("SERVICE_BACKEND", "d", "b").setVersion("v1")))
+                    .iterator());
+  }
+
+  @Test
+  void answersQueriesByEntityIdsFromTheLoadedRelationships() {
+    RelationshipAdjacencyIndex index = buildIndex(100);
+
+    assertEquals(
+        Set.of(
+            relationship("API_BACKEND", "a", "b").build(),
+            relationship("API_BACKEND", "a", "c").build()),
+        Set.copyOf(find(index, query().addFromEntityId("a").build()).orElseThrow()));
+    assertEquals(
+        List.of(relationship("API_BACKEND", "a", "c").build()),
+        find(index, query().addFromEntityId("a").addToEntityId("c").build()).orElseThrow());
+    assertEquals(
+        List.of(relationship("SERVICE_BACKEND", "d", "b").setVersion("v1").build()),
+        find(index, query().addEntityRelationship("SERVICE_BACKEND").addToEntityId("b").build())
+            .orElseThrow());
+    assertEquals(
+        Optional.of(List.of()), find(index, query().addFromEntityId("x").build()));
+    verify(this.mockCollection, times(1)).search(any());
+  }
+
+  @Test
+  void keepsUpsertedRelationshipsOnce() {
+    RelationshipAdjacencyIndex index = buildIndex(100);
+    find(index, query().addFromEntityId("a").build());
+
+    index.recordUpserts(
+        TENANT_ID,
+        List.of(
+            relationship("API_BACKEND", "a", "b").build(),
+            relationship("API_BACKEND", "a", "e").build()));
+
+    assertEquals(3, find(index, query().addFromEntityId("a").build()).get().size());
+    assertEquals(
+        List.of(relationship("API_BACKEND", "a", "e").build()),
+        find(index, query().addToEntityId("e").build()).orElseThrow());
+    verify(this.mockCollection, times(1)).search(any());
+  }
+
+  @Test
+  void leavesBoundedQueriesAndOversizedTenantsToTheDocStore() {
+    RelationshipAdjacencyIndex index = buildIndex(2);
+
+    assertTrue(find(index, query().addFromEntityId("a").setLimit(1).build()).isEmpty());
+    assertTrue(
+        find(index, query().addEntityRelationship("API_BACKEND").build()).isEmpty());
+    verify(this.mockCollection, never()).search(any());
+
+    assertTrue(find(index, query().addFromEntityId("a").build()).isEmpty());
+    assertTrue(find(index, query().addFromEntityId("a").build()).isEmpty());
+    verify(this.mockCollection, times(1)).search(any());
+  }
+
+  @Test
+  void doesNotKeepLoadRacingWithWrite() throws Exception {
+    RelationshipAdjacencyIndex index = buildIndex(100);
+    when(this.mockCollection.search(any()))
+        .thenAnswer(
+            invocation -> {
+              index.invalidate(TENANT_ID);
+              return List.of(toDocument(relationship("API_BACKEND", "a", "b"))).iterator();
+            })
+        .thenAnswer(
+            invocation -> List.of(toDocument(relationship("API_BACKEND", "a", "b"))).iterator());
+
+    assertTrue(find(index, query().addFromEntityId("a").build()).isEmpty());
+    assertEquals(1, find(index, query().addFromEntityId("a").build()).get().size());
+    verify(this.mockCollection, times(2)).search(any());
+  }
+
+  @Test
+  void answersNothingWhenDisabled() {
+    RelationshipAdjacencyIndex index =
+        new RelationshipAdjacencyIndex(
+            this.mockCollection, new DocumentParser(), false, 1024, 100, Duration.ofMinutes(1));
+
+    assertTrue(find(index, query().addFromEntityId("a").build()).isEmpty());
+    verify(this.mockCollection, never()).search(any());
+  }
+
+  private RelationshipAdjacencyIndex buildIndex(int maxRelationshipsPerTenant) {
+    return new RelationshipAdjacencyIndex(
+        this.mockCollection,
+        new DocumentParser(),
+        true,
+        1024 * 1024,
+        maxRelationshipsPerTenant,
+        Duration.ofMinutes(1));
+  }
+
+  private static Optional<List<EntityRelationship>> find(
+      RelationshipAdjacencyIndex index, RelationshipsQuery query) {
+    List<EntityRelationship> relationships = new ArrayList<>();
+    StreamObserver<EntityRelationship> collector =
+        new StreamObserver<>() {
+          @Override
+          public void onNext(EntityRelationship relationship) {
+            relationships.add(relationship);
+          }
+
+          @Override
+          public void onError(Throwable throwable) {}
+
+          @Override
+          public void onCompleted() {}
+        };
+    boolean answered =
+        index.stream(
+            TENANT_ID,
+            query,
+            new FlowControlledStreamObserver<>(
+                EntityDataServiceGrpc.getGetRelationshipsMethod(), collector));
+    return answered ? Optional.of(relationships) : Optional.empty();
+  }
+
+  private static RelationshipsQuery.Builder query() {
+    return RelationshipsQuery.newBuilder();
+  }
+
+  private static EntityRelationship.Builder relationship(
+      String type, String fromEntityId, String toEntityId) {
+    return EntityRelationship.newBuilder()
+        .setTenantId(TENANT_ID)
+        .setEntityRelationshipType(type)
+        .setFromEntityId(fromEntityId)
+        .setToEntityId(toEntityId);
+  }
+
+  private static Document toDocument(EntityRelationship.Builder relationship) throws Exception {
+    return new JSONDocument(DocStoreJsonFormat.printer().print(relationship));
+  }
+}
@@ -0,0 +1,132 @@
+package org.hypertrace.entity.data.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.grpc.stub.StreamObserver;
+import java.util.Collections;
+import java.util.List;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.Filter;
+import org.hypertrace.core.documentstore.JSONDocument;
+import org.hypertrace.core.documentstore.Query;
+import org.hypertrace.entity.data.service.v1.EntityDataServiceGrpc;
+import org.hypertrace.entity.data.service.v1.EntityRelationship;
+import org.hypertrace.entity.data.service.v1.RelationshipTraversal;
+import org.hypertrace.entity.data.service.v1.TraversalDirection;
+import org.hypertrace.entity.service.util.FlowControlledStreamObserver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class RelationshipTraverserTest {
+  private static final String TENANT_ID = "tenant";
+
+  private Collection mockCollection;
+  private StreamObserver<EntityRelationship> mockResponseObserver;
+  private FlowControlledStreamObserver<EntityRelationship> responseStream;
+  private RelationshipTraverser traverser;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  void beforeEach() {
+    this.mockCollection = mock(Collection.class);
+    this.mockResponseObserver = mock(StreamObserver.class);
+    this.responseStream =
+        new FlowControlledStreamObserver<>(
+            EntityDataServiceGrpc.getTraverseRelationshipsMethod(), this.mockResponseObserver);
+    this.traverser = new RelationshipTraverser(this.mockCollection, new DocumentParser(), 100);
+  }
+
+  @Test
+  void expandsEachEntityOnceHopByHop() throws Exception {
+    when(this.mockCollection.search(any()))
+        .thenReturn(
+            List.of(relationship("SERVICE_API", "s", "a1"), relationship("SERVICE_API", "s", "a2"))
+                .iterator())
+        .thenReturn(
+            List.of(
+                    relationship("API_BACKEND", "a1", "b"),
+                    relationship("API_BACKEND", "a2", "b"))
+                .iterator())
+        .thenReturn(Collections.emptyIterator());
+
+    this.traverser.traverse(
+        TENANT_ID,
+        RelationshipTraversal.newBuilder()
+            .addStartEntityId("s")
+            .addHopRelationshipType("SERVICE_API")
+            .addHopRelationshipType("API_BACKEND")
+            .build(),
+        3,
+        this.responseStream);
+
+    ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+    verify(this.mockCollection, times(3)).search(queries.capture());
+    Filter secondHop = queries.getAllValues().get(1).getFilter();
+    assertEquals("API_BACKEND", secondHop.getChildFilters()[1].getValue());
+    assertEquals("fromEntityId", secondHop.getChildFilters()[2].getFieldName());
+    assertEquals(List.of("a1", "a2"), secondHop.getChildFilters()[2].getValue());
+    // The last relationship type repeats, and b is expanded once though reached twice
+    Filter thirdHop = queries.getAllValues().get(2).getFilter();
+    assertEquals("API_BACKEND", thirdHop.getChildFilters()[1].getValue());
+    assertEquals(List.of("b"), thirdHop.getChildFilters()[2].getValue());
+    verify(this.mockResponseObserver, times(4)).onNext(any());
+    verify(this.mockResponseObserver).onCompleted();
+  }
+
+  @Test
+  void boundsFanOutPerEntityAndFollowsIncomingRelationships() throws Exception {
+    when(this.mockCollection.search(any()))
+        .thenReturn(
+            List.of(
+                    relationship("SERVICE_API", "s1", "a"),
+                    relationship("SERVICE_API", "s2", "a"),
+                    relationship("SERVICE_API", "s3", "a"))
+                .iterator());
+
+    this.traverser.traverse(
+        TENANT_ID,
+        RelationshipTraversal.newBuilder()
+            .addStartEntityId("a")
+            .setDirection(TraversalDirection.INCOMING)
+            .setMaxFanOut(2)
+            .build(),
+        1,
+        this.responseStream);
+
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(this.mockCollection).search(query.capture());
+    assertEquals("toEntityId", query.getValue().getFilter().getChildFilters()[1].getFieldName());
+    verify(this.mockResponseObserver, times(2)).onNext(any());
+    verify(this.mockResponseObserver).onCompleted();
+  }
+
+  @Test
+  void completesWhenNothingIsFound() {
+    when(this.mockCollection.search(any())).thenReturn(Collections.emptyIterator());
+
+    this.traverser.traverse(
+        TENANT_ID,
+        RelationshipTraversal.newBuilder().addStartEntityId("s").build(),
+        5,
+        this.responseStream);
+
+    verify(this.mockCollection, times(1)).search(any());
+    verify(this.mockResponseObserver).onCompleted();
+  }
+
+  private static Document relationship(String type, String fromEntityId, String toEntityId)
+      throws Exception {
+    return new JSONDocument(
+        String.format(
+            "{\"entityRelationshipType\": \"%s\", \"fromEntityId\": \"%s\","
+                + " \"toEntityId\": \"%s\"}",
+            type, fromEntityId, toEntityId));
+  }
+}
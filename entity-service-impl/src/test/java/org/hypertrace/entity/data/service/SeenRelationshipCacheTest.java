@@ -0,0 +1,57 @@
+package org.hypertrace.entity.data.service;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Map;
+import org.hypertrace.entity.data.service.v1.EntityRelationship;
+import org.junit.jupiter.api.Test;
+
+class SeenRelationshipCacheTest {
+  private static final String TENANT_ID = "tenant";
+  private static final EntityRelationshipDocKey KEY =
+      new EntityRelationshipDocKey(TENANT_ID, "type", "from-id", "to-id");
+  private static final EntityRelationship RELATIONSHIP =
+      EntityRelationship.newBuilder()
+          .setTenantId(TENANT_ID)
+          .setEntityRelationshipType("type")
+          .setFromEntityId("from-id")
+          .setToEntityId("to-id")
+          .build();
+
+  @Test
+  void seesOnlyRelationshipsWrittenAsIs() {
+    SeenRelationshipCache cache = new SeenRelationshipCache(true, 10, Duration.ofMinutes(1));
+    assertFalse(cache.isSeen(TENANT_ID, KEY, RELATIONSHIP));
+
+    cache.markSeen(TENANT_ID, Map.of(KEY, RELATIONSHIP));
+
+    assertTrue(cache.isSeen(TENANT_ID, KEY, RELATIONSHIP));
+    assertFalse(cache.isSeen(TENANT_ID, KEY, RELATIONSHIP.toBuilder().setVersion("2").build()));
+    assertFalse(cache.isSeen("other-tenant", KEY, RELATIONSHIP));
+  }
+
+  @Test
+  void evictsBeyondMaxEntriesPerTenant() {
+    SeenRelationshipCache cache = new SeenRelationshipCache(true, 1, Duration.ofMinutes(1));
+    EntityRelationshipDocKey otherKey =
+        new EntityRelationshipDocKey(TENANT_ID, "type", "from-id", "other-to-id");
+    EntityRelationship otherRelationship =
+        RELATIONSHIP.toBuilder().setToEntityId("other-to-id").build();
+
+    cache.markSeen(TENANT_ID, Map.of(KEY, RELATIONSHIP));
+    cache.markSeen(TENANT_ID, Map.of(otherKey, otherRelationship));
+
+    assertFalse(cache.isSeen(TENANT_ID, KEY, RELATIONSHIP));
+    assertTrue(cache.isSeen(TENANT_ID, otherKey, otherRelationship));
+  }
+
+  @Test
+  void neverSeesWhenDisabled() {
+    SeenRelationshipCache cache = new SeenRelationshipCache(false, 10, Duration.ofMinutes(1));
+    cache.markSeen(TENANT_ID, Map.of(KEY, RELATIONSHIP));
+
+    assertFalse(cache.isSeen(TENANT_ID, KEY, RELATIONSHIP));
+  }
+}
@@ -0,0 +1,139 @@
+package org.hypertrace.entity.query.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.hypertrace.core.documentstore.JSONDocument;
+import org.hypertrace.entity.data.service.v1.AttributeValue;
+import org.hypertrace.entity.data.service.v1.AttributeValueList;
+import org.hypertrace.entity.data.service.v1.AttributeValueMap;
+import org.hypertrace.entity.data.service.v1.Entity;
+import org.hypertrace.entity.query.service.v1.ColumnIdentifier;
+import org.hypertrace.entity.query.service.v1.Expression;
+import org.hypertrace.entity.query.service.v1.Row;
+import org.hypertrace.entity.query.service.v1.Value;
+import org.hypertrace.entity.query.service.v1.ValueType;
+import org.hypertrace.entity.service.util.DocStoreJsonFormat;
+import org.junit.jupiter.api.Test;
+
+public class EntityColumnPlanTest {
+  private static final Map<String, String> ATTRIBUTE_MAP =
+      Map.of(
+          "SERVICE.id", "entityId",
+          "SERVICE.name", "entityName",
+          "SERVICE.createdTime", "createdTime",
+          "SERVICE.status", "attributes.status",
+          "SERVICE.count", "attributes.count",
+          "SERVICE.tags", "attributes.tags",
+          "SERVICE.labels", "attributes.labels");
+
+  @Test
+  public void materializesTheRowsOfTheParsedEntities() throws Exception {
+    Entity entity =
+        Entity.newBuilder()
+            .setTenantId("tenant")
+            .setEntityId("id-1")
+            .setEntityType("SERVICE")
+            .setEntityName("payment")
+            .putAttributes("status", stringValue("up"))
+            .putAttributes(
+                "count",
+                AttributeValue.newBuilder()
+                    .setValue(org.hypertrace.entity.data.service.v1.Value.newBuilder().setLong(7))
+                    .build())
+            .putAttributes(
+                "tags",
+                AttributeValue.newBuilder()
+                    .setValueList(
+                        AttributeValueList.newBuilder()
+                            .addValues(stringValue("a"))
+                            .addValues(stringValue("b")))
+                    .build())
+            .putAttributes(
+                "labels",
+                AttributeValue.newBuilder()
+                    .setValueMap(AttributeValueMap.newBuilder().putValues("k", stringValue("v")))
+                    .build())
+            .putAttributes("unselected", stringValue("ignored"))
+            .build();
+    List<Expression> selections =
+        List.of(
+            column("SERVICE.status"),
+            column("SERVICE.id"),
+            column("SERVICE.count"),
+            column("SERVICE.createdTime"),
+            column("SERVICE.unknown"),
+            column("SERVICE.tags"),
+            column("SERVICE.name"),
+            column("SERVICE.labels"),
+            column("SERVICE.status"));
+
+    assertEquals(
+        Optional.of(
+            EntityQueryServiceImpl.convertToEntityQueryResult(entity, selections, ATTRIBUTE_MAP)),
+        EntityColumnPlan.compile(selections, ATTRIBUTE_MAP).materialize(document(entity)));
+
+    Entity bareEntity = Entity.newBuilder().setTenantId("tenant").setEntityType("SERVICE").build();
+    assertEquals(
+        Optional.of(
+            EntityQueryServiceImpl.convertToEntityQueryResult(
+                bareEntity, selections, ATTRIBUTE_MAP)),
+        EntityColumnPlan.compile(selections, ATTRIBUTE_MAP).materialize(document(bareEntity)));
+  }
+
+  @Test
+  public void readsOnlyTheSelectedFields() throws Exception {
+    JSONDocument document =
+        new JSONDocument(
+            "{\"entityId\": \"id-1\", \"entityName\": [1, 2], \"attributes\": {"
+                + "\"tags\": 3, \"status\": {\"value\": {\"string\": \"up\"}}}}");
+
+    Optional<Row> row =
+        EntityColumnPlan.compile(
+                List.of(column("SERVICE.id"), column("SERVICE.status")), ATTRIBUTE_MAP)
+            .materialize(document);
+
+    assertEquals(
+        Optional.of(
+            Row.newBuilder()
+                .addColumn(Value.newBuilder().setValueType(ValueType.STRING).setString("id-1"))
+                .addColumn(Value.newBuilder().setValueType(ValueType.STRING).setString("up"))
+                .build()),
+        row);
+  }
+
+  @Test
+  public void skipsDocumentsWithMalformedSelectedFields() throws Exception {
+    JSONDocument document =
+        new JSONDocument(
+            "{\"entityId\": \"id-1\", \"entityName\": [1, 2], \"attributes\": {\"tags\": 3}}");
+
+    assertTrue(
+        EntityColumnPlan.compile(List.of(column("SERVICE.name")), ATTRIBUTE_MAP)
+            .materialize(document)
+            .isEmpty());
+    assertTrue(
+        EntityColumnPlan.compile(List.of(column("SERVICE.tags")), ATTRIBUTE_MAP)
+            .materialize(document)
+            .isEmpty());
+  }
+
+  private static JSONDocument document(Entity entity) throws Exception {
+    return new JSONDocument(DocStoreJsonFormat.printer().print(entity));
+  }
+
+  private static AttributeValue stringValue(String value) {
+    return AttributeValue.newBuilder()
+        .setValue(org.hypertrace.entity.data.service.v1.Value.newBuilder().setString(value))
+        .build();
+  }
+
+  private static Expression column(String columnName) {
+    return Expression.newBuilder()
+        .setColumnIdentifier(ColumnIdentifier.newBuilder().setColumnName(columnName))
+        .build();
+  }
+}
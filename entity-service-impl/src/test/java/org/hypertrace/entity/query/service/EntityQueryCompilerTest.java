@@ -0,0 +1,354 @@
+package org.hypertrace.entity.query.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+import org.hypertrace.core.documentstore.Filter;
+import org.hypertrace.core.documentstore.OrderBy;
+import org.hypertrace.core.documentstore.Query;
+import org.hypertrace.entity.query.service.v1.ColumnIdentifier;
+import org.hypertrace.entity.query.service.v1.EntityQueryRequest;
+import org.hypertrace.entity.query.service.v1.Expression;
+import org.hypertrace.entity.query.service.v1.Function;
+import org.hypertrace.entity.query.service.v1.LiteralConstant;
+import org.hypertrace.entity.query.service.v1.Operator;
+import org.hypertrace.entity.query.service.v1.OrderByExpression;
+import org.hypertrace.entity.query.service.v1.SortOrder;
+import org.hypertrace.entity.query.service.v1.TotalEntitiesRequest;
+import org.hypertrace.entity.query.service.v1.Value;
+import org.hypertrace.entity.query.service.v1.ValueType;
+import org.hypertrace.entity.service.util.DocStoreConverter;
+import org.junit.jupiter.api.Test;
+
+public class EntityQueryCompilerTest {
+  private static final String TENANT_ID = "tenant";
+  private static final String ENTITY_TYPE = "SERVICE";
+  private static final Map<String, String> ATTRIBUTE_MAP =
+      Map.of(
+          "SERVICE.id", "entityId",
+          "SERVICE.name", "entityName",
+          "SERVICE.createdTime", "createdTime",
+          "SERVICE.status", "attributes.status",
+          "SERVICE.count", "attributes.count",
+          "SERVICE.labels", "attributes.labels",
+          "SERVICE.tags", "attributes.tags");
+
+  @Test
+  public void compilesLimitOffsetOrderByAndSelectionsAsTheConverters() {
+    assertSameQuery(request().build());
+    assertSameQuery(
+        request()
+            .setLimit(10)
+            .setOffset(5)
+            .addSelection(column("SERVICE.status"))
+            .addSelection(column("SERVICE.id"))
+            .addOrderBy(
+                OrderByExpression.newBuilder()
+                    .setExpression(column("SERVICE.createdTime"))
+                    .setOrder(SortOrder.DESC))
+            .addOrderBy(OrderByExpression.newBuilder().setExpression(column("SERVICE.status")))
+            .addOrderBy(OrderByExpression.getDefaultInstance())
+            .build());
+  }
+
+  @Test
+  public void compilesScalarFiltersAsTheConverters() {
+    for (Operator operator :
+        List.of(Operator.EQ, Operator.NEQ, Operator.GT, Operator.LT, Operator.GE, Operator.LE)) {
+      assertSameQuery(
+          request().setFilter(leaf("SERVICE.createdTime", operator, longValue(42))).build());
+      assertSameQuery(request().setFilter(leaf("SERVICE.count", operator, longValue(42))).build());
+    }
+    assertSameQuery(
+        request()
+            .setFilter(
+                leaf(
+                    "SERVICE.status",
+                    Operator.EQ,
+                    Value.newBuilder().setValueType(ValueType.STRING).setString("up").build()))
+            .build());
+    assertSameQuery(
+        request()
+            .setFilter(
+                leaf(
+                    "SERVICE.status",
+                    Operator.LIKE,
+                    Value.newBuilder().setValueType(ValueType.STRING).setString("u.*").build()))
+            .build());
+    assertSameQuery(
+        request()
+            .setFilter(
+                leaf(
+                    "SERVICE.status",
+                    Operator.EQ,
+                    Value.newBuilder().setValueType(ValueType.BOOL).setBoolean(true).build()))
+            .build());
+    assertSameQuery(
+        request()
+            .setFilter(
+                leaf(
+                    "SERVICE.count",
+                    Operator.GT,
+                    Value.newBuilder().setValueType(ValueType.DOUBLE).setDouble(1.5).build()))
+            .build());
+    assertSameQuery(
+        request()
+            .setFilter(
+                leaf(
+                    "SERVICE.count",
+                    Operator.GT,
+                    Value.newBuilder().setValueType(ValueType.FLOAT).setFloat(1.5f).build()))
+            .build());
+    assertSameQuery(
+        request()
+            .setFilter(
+                leaf(
+                    "SERVICE.createdTime",
+                    Operator.GE,
+                    Value.newBuilder().setValueType(ValueType.TIMESTAMP).setTimestamp(7).build()))
+            .build());
+    assertSameQuery(
+        request()
+            .setFilter(
+                leaf(
+                    "SERVICE.count",
+                    Operator.EQ,
+                    Value.newBuilder().setValueType(ValueType.INT).setInt(3).build()))
+            .build());
+  }
+
+  @Test
+  public void compilesArrayFiltersAsTheConverters() {
+    Value strings =
+        Value.newBuilder()
+            .setValueType(ValueType.STRING_ARRAY)
+            .addStringArray("a")
+            .addStringArray("b")
+            .build();
+    Value longs =
+        Value.newBuilder()
+            .setValueType(ValueType.LONG_ARRAY)
+            .addLongArray(1)
+            .addLongArray(2)
+            .build();
+    Value doubles =
+        Value.newBuilder().setValueType(ValueType.DOUBLE_ARRAY).addDoubleArray(1.5).build();
+    Value booleans =
+        Value.newBuilder().setValueType(ValueType.BOOLEAN_ARRAY).addBooleanArray(true).build();
+    Value emptyLongs = Value.newBuilder().setValueType(ValueType.LONG_ARRAY).build();
+
+    for (Value value : List.of(strings, longs, doubles, booleans, emptyLongs)) {
+      assertSameQuery(request().setFilter(leaf("SERVICE.status", Operator.IN, value)).build());
+      assertSameQuery(request().setFilter(leaf("SERVICE.createdTime", Operator.IN, value)).build());
+    }
+    assertSameQuery(request().setFilter(leaf("SERVICE.tags", Operator.EQ, strings)).build());
+    assertSameQuery(
+        request()
+            .setFilter(
+                leaf(
+                    "SERVICE.tags",
+                    Operator.EQ,
+                    Value.newBuilder()
+                        .setValueType(ValueType.STRING_MAP)
+                        .putStringMap("key", "value")
+                        .build()))
+            .build());
+  }
+
+  @Test
+  public void compilesLabelFiltersAsTheConverters() {
+    assertSameQuery(
+        request()
+            .setFilter(
+                leaf(
+                    "SERVICE.labels",
+                    Operator.EQ,
+                    Value.newBuilder().setValueType(ValueType.STRING).setString("l1").build()))
+            .build());
+    assertSameQuery(
+        request()
+            .setFilter(
+                leaf(
+                    "SERVICE.labels",
+                    Operator.IN,
+                    Value.newBuilder()
+                        .setValueType(ValueType.STRING_ARRAY)
+                        .addStringArray("l1")
+                        .addStringArray("l2")
+                        .build()))
+            .build());
+  }
+
+  @Test
+  public void compilesEntityIdAndNameFiltersAsTheConverters() {
+    org.hypertrace.entity.query.service.v1.Filter filter =
+        org.hypertrace.entity.query.service.v1.Filter.newBuilder()
+            .setOperator(Operator.OR)
+            .addChildFilter(
+                leaf(
+                    "SERVICE.id",
+                    Operator.EQ,
+                    Value.newBuilder().setValueType(ValueType.STRING).setString("id-1").build()))
+            .addChildFilter(
+                leaf(
+                    "SERVICE.id",
+                    Operator.IN,
+                    Value.newBuilder()
+                        .setValueType(ValueType.STRING_ARRAY)
+                        .addStringArray("id-2")
+                        .addStringArray("id-3")
+                        .build()))
+            .addChildFilter(
+                org.hypertrace.entity.query.service.v1.Filter.newBuilder()
+                    .setOperator(Operator.AND)
+                    .addChildFilter(
+                        leaf(
+                            "SERVICE.name",
+                            Operator.EQ,
+                            Value.newBuilder()
+                                .setValueType(ValueType.STRING)
+                                .setString("name")
+                                .build()))
+                    .addChildFilter(leaf("SERVICE.createdTime", Operator.GT, longValue(1))))
+            .addChildFilter(org.hypertrace.entity.query.service.v1.Filter.getDefaultInstance())
+            .build();
+
+    assertSameQuery(request().setFilter(filter).build());
+    assertSameQuery(request().setEntityType("").setFilter(filter).build());
+  }
+
+  @Test
+  public void compilesTotalRequestsAsTheConverters() {
+    org.hypertrace.entity.query.service.v1.Filter filter =
+        leaf("SERVICE.createdTime", Operator.LT, longValue(42));
+    TotalEntitiesRequest totalRequest =
+        TotalEntitiesRequest.newBuilder().setEntityType(ENTITY_TYPE).setFilter(filter).build();
+
+    assertSameQuery(
+        convert(request().setFilter(filter).build()),
+        EntityQueryCompiler.compileTotal(TENANT_ID, totalRequest, ATTRIBUTE_MAP));
+  }
+
+  @Test
+  public void rejectsWhatTheConvertersReject() {
+    EntityQueryRequest notInRequest =
+        request().setFilter(leaf("SERVICE.status", Operator.NOT_IN, longValue(1))).build();
+    assertThrows(IllegalArgumentException.class, () -> convert(notInRequest));
+    assertThrows(IllegalArgumentException.class, () -> compile(notInRequest));
+
+    EntityQueryRequest functionOrderByRequest =
+        request()
+            .addOrderBy(
+                OrderByExpression.newBuilder()
+                    .setExpression(
+                        Expression.newBuilder().setFunction(Function.getDefaultInstance())))
+            .build();
+    assertThrows(UnsupportedOperationException.class, () -> convert(functionOrderByRequest));
+    assertThrows(UnsupportedOperationException.class, () -> compile(functionOrderByRequest));
+
+    EntityQueryRequest comparedListRequest =
+        request()
+            .setFilter(
+                leaf(
+                    "SERVICE.tags",
+                    Operator.GT,
+                    Value.newBuilder()
+                        .setValueType(ValueType.STRING_ARRAY)
+                        .addStringArray("a")
+                        .build()))
+            .build();
+    assertThrows(UnsupportedOperationException.class, () -> convert(comparedListRequest));
+    assertThrows(UnsupportedOperationException.class, () -> compile(comparedListRequest));
+  }
+
+  @Test
+  public void rejectsUnknownColumns() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            compile(
+                request().setFilter(leaf("SERVICE.unknown", Operator.EQ, longValue(1))).build()));
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            compile(
+                request()
+                    .addOrderBy(
+                        OrderByExpression.newBuilder().setExpression(column("SERVICE.unknown")))
+                    .build()));
+  }
+
+  private static void assertSameQuery(EntityQueryRequest request) {
+    assertSameQuery(convert(request), compile(request));
+  }
+
+  private static void assertSameQuery(Query expected, Query actual) {
+    assertSameFilter(expected.getFilter(), actual.getFilter());
+    assertEquals(expected.getSelections(), actual.getSelections());
+    assertEquals(expected.getOrderBys().size(), actual.getOrderBys().size());
+    for (int i = 0; i < expected.getOrderBys().size(); i++) {
+      OrderBy expectedOrderBy = expected.getOrderBys().get(i);
+      OrderBy actualOrderBy = actual.getOrderBys().get(i);
+      assertEquals(expectedOrderBy.getField(), actualOrderBy.getField());
+      assertEquals(expectedOrderBy.isAsc(), actualOrderBy.isAsc());
+    }
+    assertEquals(expected.getLimit(), actual.getLimit());
+    assertEquals(expected.getOffset(), actual.getOffset());
+  }
+
+  private static void assertSameFilter(Filter expected, Filter actual) {
+    if (expected == null) {
+      assertNull(actual);
+      return;
+    }
+    assertEquals(expected.getOp(), actual.getOp());
+    assertEquals(expected.getFieldName(), actual.getFieldName());
+    assertEquals(expected.getValue(), actual.getValue());
+    if (expected.getChildFilters() == null) {
+      assertNull(actual.getChildFilters());
+      return;
+    }
+    assertEquals(expected.getChildFilters().length, actual.getChildFilters().length);
+    for (int i = 0; i < expected.getChildFilters().length; i++) {
+      assertSameFilter(expected.getChildFilters()[i], actual.getChildFilters()[i]);
+    }
+  }
+
+  private static Query convert(EntityQueryRequest request) {
+    return DocStoreConverter.transform(
+        TENANT_ID,
+        EntityQueryConverter.convertToEDSQuery(request, ATTRIBUTE_MAP),
+        EntityQueryConverter.convertSelectionsToDocStoreSelections(
+            request.getSelectionList(), ATTRIBUTE_MAP));
+  }
+
+  private static Query compile(EntityQueryRequest request) {
+    return EntityQueryCompiler.compile(TENANT_ID, request, ATTRIBUTE_MAP);
+  }
+
+  private static EntityQueryRequest.Builder request() {
+    return EntityQueryRequest.newBuilder().setEntityType(ENTITY_TYPE);
+  }
+
+  private static Expression column(String columnName) {
+    return Expression.newBuilder()
+        .setColumnIdentifier(ColumnIdentifier.newBuilder().setColumnName(columnName))
+        .build();
+  }
+
+  private static Value longValue(long value) {
+    return Value.newBuilder().setValueType(ValueType.LONG).setLong(value).build();
+  }
+
+  private static org.hypertrace.entity.query.service.v1.Filter leaf(
+      String columnName, Operator operator, Value value) {
+    return org.hypertrace.entity.query.service.v1.Filter.newBuilder()
+        .setLhs(column(columnName))
+        .setOperator(operator)
+        .setRhs(Expression.newBuilder().setLiteral(LiteralConstant.newBuilder().setValue(value)))
+        .build();
+  }
+}
@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -13,6 +14,7 @@ import com.google.common.collect.Lists;
 import com.google.protobuf.util.JsonFormat;
 import io.grpc.Context;
 import io.grpc.stub.StreamObserver;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +27,7 @@ import org.hypertrace.core.documentstore.JSONDocument;
 import org.hypertrace.core.documentstore.Query;
 import org.hypertrace.core.documentstore.SingleValueKey;
 import org.hypertrace.core.grpcutils.context.RequestContext;
+import org.hypertrace.entity.data.service.EntityWriteListener;
 import org.hypertrace.entity.data.service.v1.AttributeValue;
 import org.hypertrace.entity.data.service.v1.Entity;
 import org.hypertrace.entity.query.service.v1.ColumnIdentifier;
@@ -49,6 +52,7 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
+import org.mockito.InOrder;
 
 public class EntityQueryServiceImplTest {
 
@@ -183,22 +187,33 @@ public class EntityQueryServiceImplTest {
             .build();
 
     StreamObserver<ResultSetChunk> mockResponseObserver = mock(StreamObserver.class);
+    EntityWriteListener mockWriteListener = mock(EntityWriteListener.class);
 
     Context.current()
         .withValue(RequestContext.CURRENT, mockRequestContextWithTenantId())
         .call(
             () -> {
               EntityQueryServiceImpl eqs =
-                  new EntityQueryServiceImpl(mockEntitiesCollection, attributeFqnMaps, 1);
+                  new EntityQueryServiceImpl(
+                      mockEntitiesCollection,
+                      attributeFqnMaps,
+                      1,
+                      Long.MAX_VALUE,
+                      Duration.ofMinutes(1),
+                      Optional.empty(),
+                      mockWriteListener);
               eqs.update(updateRequest, mockResponseObserver);
               return null;
             });
 
-    verify(mockEntitiesCollection, times(1))
+    InOrder inOrder = inOrder(mockWriteListener, mockEntitiesCollection);
+    inOrder.verify(mockWriteListener).beforeModifiedInPlace("tenant1", "entity-id-1");
+    inOrder.verify(mockEntitiesCollection, times(1))
         .updateSubDoc(
             eq(new SingleValueKey("tenant1", "entity-id-1")),
             eq("attributes.status"),
             eq(new JSONDocument(DocStoreJsonFormat.printer().print(newStatus))));
+    inOrder.verify(mockWriteListener).afterModified("tenant1", "entity-id-1");
   }
 
   @Test
@@ -0,0 +1,225 @@
+package org.hypertrace.entity.query.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.hypertrace.core.documentstore.Collection;
+import org.hypertrace.core.documentstore.Document;
+import org.hypertrace.core.documentstore.Filter;
+import org.hypertrace.core.documentstore.JSONDocument;
+import org.hypertrace.core.documentstore.Query;
+import org.hypertrace.entity.query.service.PartitionedEntityScanner.PartitionedRows;
+import org.hypertrace.entity.query.service.v1.ColumnIdentifier;
+import org.hypertrace.entity.query.service.v1.EntityQueryRequest;
+import org.hypertrace.entity.query.service.v1.Expression;
+import org.hypertrace.entity.query.service.v1.OrderByExpression;
+import org.hypertrace.entity.query.service.v1.Row;
+import org.hypertrace.entity.service.util.DocStoreConverter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PartitionedEntityScannerTest {
+  private static final Duration STALL_TIMEOUT = Duration.ofSeconds(10);
+  private static final EntityColumnPlan COLUMN_PLAN =
+      EntityColumnPlan.compile(
+          List.of(
+              Expression.newBuilder()
+                  .setColumnIdentifier(ColumnIdentifier.newBuilder().setColumnName("SERVICE.id"))
+                  .build()),
+          Map.of("SERVICE.id", "entityId"));
+
+  private Collection mockCollection;
+  private ExecutorService executor;
+
+  @BeforeEach
+  public void setUp() {
+    this.mockCollection = mock(Collection.class);
+    this.executor = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    this.executor.shutdownNow();
+  }
+
+  @Test
+  public void splitsQueriesIntoDisjointEntityIdRanges() {
+    Query query = new Query();
+    query.setFilter(DocStoreConverter.getTenantIdEqFilter("tenant"));
+    query.addAllSelections(List.of("entityId", "attributes.status"));
+
+    List<Query> partitionQueries = PartitionedEntityScanner.buildPartitionQueries(query, 4);
+
+    assertEquals(4, partitionQueries.size());
+    assertRange(partitionQueries.get(0), null, "40");
+    assertRange(partitionQueries.get(1), "40", "80");
+    assertRange(partitionQueries.get(2), "80", "c0");
+    assertRange(partitionQueries.get(3), "c0", null);
+    for (Query partitionQuery : partitionQueries) {
+      assertEquals(Filter.Op.AND, partitionQuery.getFilter().getOp());
+      assertEquals(query.getFilter(), partitionQuery.getFilter().getChildFilters()[0]);
+      assertEquals(query.getSelections(), partitionQuery.getSelections());
+    }
+  }
+
+  @Test
+  public void scansOnlyUnorderedAndUnpagedQueriesAskingForIt() {
+    assertTrue(
+        PartitionedEntityScanner.canScan(
+            EntityQueryRequest.newBuilder().setParallelScan(true).build()));
+    assertFalse(PartitionedEntityScanner.canScan(EntityQueryRequest.getDefaultInstance()));
+    assertFalse(
+        PartitionedEntityScanner.canScan(
+            EntityQueryRequest.newBuilder()
+                .setParallelScan(true)
+                .addOrderBy(OrderByExpression.getDefaultInstance())
+                .build()));
+    assertFalse(
+        PartitionedEntityScanner.canScan(
+            EntityQueryRequest.newBuilder().setParallelScan(true).setLimit(10).build()));
+    assertFalse(
+        PartitionedEntityScanner.canScan(
+            EntityQueryRequest.newBuilder().setParallelScan(true).setOffset(10).build()));
+  }
+
+  @Test
+  public void mergesTheRowsOfAllPartitions() throws Exception {
+    List<Document> lowDocuments = documents("0", 50);
+    List<Document> highDocuments = documents("f", 50);
+    when(this.mockCollection.search(any()))
+        .thenAnswer(
+            invocation ->
+                isFirstPartition(invocation.getArgument(0))
+                    ? lowDocuments.iterator()
+                    : highDocuments.iterator());
+    PartitionedEntityScanner scanner =
+        new PartitionedEntityScanner(this.mockCollection, 2, 1, STALL_TIMEOUT, this.executor);
+
+    Set<String> entityIds = new HashSet<>();
+    try (PartitionedRows rows = scanner.scan(new Query(), COLUMN_PLAN, () -> false)) {
+      while (rows.hasNext()) {
+        Row row = rows.next();
+        assertTrue(entityIds.add(row.getColumn(0).getString()));
+      }
+    }
+
+    verify(this.mockCollection, times(2)).search(any());
+    assertEquals(100, entityIds.size());
+    assertTrue(entityIds.containsAll(ids("0", 50)));
+    assertTrue(entityIds.containsAll(ids("f", 50)));
+  }
+
+  @Test
+  public void stopsOnceTheCallerIsCancelled() throws Exception {
+    List<Document> documents = documents("0", 50);
+    when(this.mockCollection.search(any())).thenAnswer(invocation -> documents.iterator());
+    PartitionedEntityScanner scanner =
+        new PartitionedEntityScanner(this.mockCollection, 2, 1, STALL_TIMEOUT, this.executor);
+
+    try (PartitionedRows rows = scanner.scan(new Query(), COLUMN_PLAN, () -> true)) {
+      assertFalse(rows.hasNext());
+    }
+  }
+
+  @Test
+  public void failsWithTheFailureOfAPartition() {
+    when(this.mockCollection.search(any()))
+        .thenAnswer(
+            invocation -> {
+              if (isFirstPartition(invocation.getArgument(0))) {
+                throw new IllegalStateException("Doc store is down");
+              }
+              return List.<Document>of().iterator();
+            });
+    PartitionedEntityScanner scanner =
+        new PartitionedEntityScanner(this.mockCollection, 2, 1, STALL_TIMEOUT, this.executor);
+
+    PartitionedRows rows = scanner.scan(new Query(), COLUMN_PLAN, () -> false);
+
+    assertEquals(
+        "Doc store is down", assertThrows(IllegalStateException.class, rows::hasNext).getMessage());
+  }
+
+  @Test
+  public void failsOnceTheCallerStalls() throws Exception {
+    List<Document> documents = documents("0", 50);
+    when(this.mockCollection.search(any())).thenAnswer(invocation -> documents.iterator());
+    PartitionedEntityScanner scanner =
+        new PartitionedEntityScanner(
+            this.mockCollection, 2, 1, Duration.ofMillis(100), this.executor);
+
+    PartitionedRows rows = scanner.scan(new Query(), COLUMN_PLAN, () -> false);
+    // No rows are read while the scans time out waiting for room in the buffer
+    Thread.sleep(1000);
+
+    assertEquals(
+        Status.Code.RESOURCE_EXHAUSTED,
+        assertThrows(StatusRuntimeException.class, rows::hasNext).getStatus().getCode());
+  }
+
+  private static boolean isFirstPartition(Query partitionQuery) {
+    Filter[] filters = partitionQuery.getFilter().getChildFilters();
+    return filters[filters.length - 1].getOp() == Filter.Op.LT;
+  }
+
+  private static void assertRange(Query partitionQuery, String lowerBound, String upperBound) {
+    Filter[] filters = partitionQuery.getFilter().getChildFilters();
+    List<Filter> rangeFilters = new ArrayList<>(List.of(filters).subList(1, filters.length));
+    Filter lowerFilter = null;
+    Filter upperFilter = null;
+    for (Filter rangeFilter : rangeFilters) {
+      assertEquals("entityId", rangeFilter.getFieldName());
+      if (rangeFilter.getOp() == Filter.Op.GTE) {
+        lowerFilter = rangeFilter;
+      } else {
+        assertEquals(Filter.Op.LT, rangeFilter.getOp());
+        upperFilter = rangeFilter;
+      }
+    }
+    if (lowerBound == null) {
+      assertNull(lowerFilter);
+    } else {
+      assertEquals(lowerBound, lowerFilter.getValue());
+    }
+    if (upperBound == null) {
+      assertNull(upperFilter);
+    } else {
+      assertEquals(upperBound, upperFilter.getValue());
+    }
+  }
+
+  private static List<String> ids(String prefix, int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> prefix + "-" + i)
+        .collect(Collectors.toList());
+  }
+
+  private static List<Document> documents(String prefix, int count) throws Exception {
+    List<Document> documents = new ArrayList<>();
+    for (String entityId : ids(prefix, count)) {
+      documents.add(new JSONDocument(String.format("{\"entityId\": \"%s\"}", entityId)));
+    }
+    return documents;
+  }
+}
@@ -0,0 +1,160 @@
+package org.hypertrace.entity.query.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.hypertrace.entity.query.service.v1.ColumnMetadata;
+import org.hypertrace.entity.query.service.v1.ResultSetChunk;
+import org.hypertrace.entity.query.service.v1.ResultSetMetadata;
+import org.hypertrace.entity.query.service.v1.Row;
+import org.hypertrace.entity.query.service.v1.Value;
+import org.hypertrace.entity.query.service.v1.ValueType;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+public class ResultSetChunkerTest {
+  private static final ResultSetMetadata METADATA =
+      ResultSetMetadata.newBuilder()
+          .addColumnMetadata(ColumnMetadata.newBuilder().setColumnName("SERVICE.id"))
+          .build();
+  private static final Duration NO_LATENCY_LIMIT = Duration.ofDays(1);
+
+  @Test
+  public void cutsChunksByRowCountWithMetadataInTheFirstOnly() {
+    StreamObserver<ResultSetChunk> responseObserver = mock(StreamObserver.class);
+    ResultSetChunker chunker =
+        new ResultSetChunker(METADATA, responseObserver, 2, Long.MAX_VALUE, NO_LATENCY_LIMIT);
+
+    for (int i = 0; i < 4; i++) {
+      chunker.add(row("id-" + i));
+      if (i < 3) {
+        chunker.flushIfFull();
+      }
+    }
+    chunker.finish();
+
+    List<ResultSetChunk> chunks = sentChunks(responseObserver, 2);
+    assertEquals(List.of(row("id-0"), row("id-1")), chunks.get(0).getRowList());
+    assertEquals(0, chunks.get(0).getChunkId());
+    assertFalse(chunks.get(0).getIsLastChunk());
+    assertEquals(METADATA, chunks.get(0).getResultSetMetadata());
+    assertEquals(List.of(row("id-2"), row("id-3")), chunks.get(1).getRowList());
+    assertEquals(1, chunks.get(1).getChunkId());
+    assertTrue(chunks.get(1).getIsLastChunk());
+    assertFalse(chunks.get(1).hasResultSetMetadata());
+  }
+
+  @Test
+  public void cutsChunksBySerializedSize() {
+    StreamObserver<ResultSetChunk> responseObserver = mock(StreamObserver.class);
+    long maxBytes =
+        ResultSetChunk.newBuilder()
+            .setResultSetMetadata(METADATA)
+            .addRow(row("id-0"))
+            .addRow(row("id-1"))
+            .build()
+            .getSerializedSize();
+    ResultSetChunker chunker =
+        new ResultSetChunker(METADATA, responseObserver, 100, maxBytes, NO_LATENCY_LIMIT);
+
+    for (int i = 0; i < 6; i++) {
+      chunker.add(row("id-" + i));
+      if (i < 5) {
+        chunker.flushIfFull();
+      }
+    }
+    chunker.finish();
+
+    List<ResultSetChunk> chunks = sentChunks(responseObserver, 3);
+    assertEquals(List.of(row("id-0"), row("id-1")), chunks.get(0).getRowList());
+    // Without the metadata, which is larger than a row, a third row fits but not a fourth one
+    assertEquals(List.of(row("id-2"), row("id-3"), row("id-4")), chunks.get(1).getRowList());
+    assertFalse(chunks.get(1).getIsLastChunk());
+    assertEquals(List.of(row("id-5")), chunks.get(2).getRowList());
+    assertTrue(chunks.get(2).getIsLastChunk());
+  }
+
+  @Test
+  public void sendsRowsLargerThanTheMaxBytesAlone() {
+    StreamObserver<ResultSetChunk> responseObserver = mock(StreamObserver.class);
+    ResultSetChunker chunker =
+        new ResultSetChunker(METADATA, responseObserver, 100, 1, NO_LATENCY_LIMIT);
+
+    chunker.add(row("id-0"));
+    chunker.add(row("id-1"));
+    chunker.finish();
+
+    List<ResultSetChunk> chunks = sentChunks(responseObserver, 2);
+    assertEquals(List.of(row("id-0")), chunks.get(0).getRowList());
+    assertEquals(List.of(row("id-1")), chunks.get(1).getRowList());
+  }
+
+  @Test
+  public void flushesChunksOnceTheMaxLatencyHasPassed() {
+    StreamObserver<ResultSetChunk> responseObserver = mock(StreamObserver.class);
+    AtomicLong nanoTime = new AtomicLong();
+    ResultSetChunker chunker =
+        new ResultSetChunker(
+            METADATA,
+            responseObserver,
+            100,
+            Long.MAX_VALUE,
+            Duration.ofMillis(10),
+            nanoTime::get);
+
+    chunker.add(row("id-0"));
+    chunker.flushIfFull();
+    verify(responseObserver, times(0)).onNext(any());
+    nanoTime.addAndGet(Duration.ofMillis(10).toNanos());
+    chunker.add(row("id-1"));
+    chunker.flushIfFull();
+    chunker.finish();
+
+    List<ResultSetChunk> chunks = sentChunks(responseObserver, 2);
+    assertEquals(List.of(row("id-0"), row("id-1")), chunks.get(0).getRowList());
+    assertFalse(chunks.get(0).getIsLastChunk());
+    assertEquals(0, chunks.get(1).getRowCount());
+    assertTrue(chunks.get(1).getIsLastChunk());
+  }
+
+  @Test
+  public void sendsALastChunkWithTheMetadataForEmptyResults() {
+    StreamObserver<ResultSetChunk> responseObserver = mock(StreamObserver.class);
+    ResultSetChunker chunker =
+        new ResultSetChunker(METADATA, responseObserver, 100, Long.MAX_VALUE, NO_LATENCY_LIMIT);
+
+    chunker.flushIfFull();
+    chunker.finish();
+
+    assertEquals(
+        List.of(
+            ResultSetChunk.newBuilder()
+                .setChunkId(0)
+                .setIsLastChunk(true)
+                .setResultSetMetadata(METADATA)
+                .build()),
+        sentChunks(responseObserver, 1));
+  }
+
+  private static List<ResultSetChunk> sentChunks(
+      StreamObserver<ResultSetChunk> responseObserver, int count) {
+    ArgumentCaptor<ResultSetChunk> chunkCaptor = ArgumentCaptor.forClass(ResultSetChunk.class);
+    verify(responseObserver, times(count)).onNext(chunkCaptor.capture());
+    return chunkCaptor.getAllValues();
+  }
+
+  private static Row row(String entityId) {
+    return Row.newBuilder()
+        .addColumn(Value.newBuilder().setValueType(ValueType.STRING).setString(entityId))
+        .build();
+  }
+}
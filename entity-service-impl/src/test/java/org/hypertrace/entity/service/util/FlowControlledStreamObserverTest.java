@@ -0,0 +1,104 @@
+package org.hypertrace.entity.service.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.grpc.Context;
+import io.grpc.Context.CancellableContext;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import org.hypertrace.entity.data.service.v1.Entity;
+import org.hypertrace.entity.data.service.v1.EntityDataServiceGrpc;
+import org.junit.jupiter.api.Test;
+
+public class FlowControlledStreamObserverTest {
+  private static final Entity ENTITY = Entity.newBuilder().setEntityId("id-1").build();
+
+  @Test
+  public void waitsForTheCallToBeReadyBeforeSending() {
+    ServerCallStreamObserver<Entity> mockResponseObserver = mock(ServerCallStreamObserver.class);
+    when(mockResponseObserver.isReady()).thenReturn(false, false, true);
+    FlowControlledStreamObserver<Entity> responseStream =
+        new FlowControlledStreamObserver<>(
+            EntityDataServiceGrpc.getQueryMethod(), mockResponseObserver);
+
+    responseStream.onNext(ENTITY);
+    responseStream.onCompleted();
+
+    verify(mockResponseObserver).setOnReadyHandler(any());
+    verify(mockResponseObserver).setOnCancelHandler(any());
+    verify(mockResponseObserver, times(3)).isReady();
+    verify(mockResponseObserver).onNext(ENTITY);
+    verify(mockResponseObserver).onCompleted();
+    assertFalse(responseStream.isCancelled());
+  }
+
+  @Test
+  public void dropsResponsesOnceTheCallIsCancelled() {
+    ServerCallStreamObserver<Entity> mockResponseObserver = mock(ServerCallStreamObserver.class);
+    when(mockResponseObserver.isReady()).thenReturn(false);
+    when(mockResponseObserver.isCancelled()).thenReturn(true);
+    FlowControlledStreamObserver<Entity> responseStream =
+        new FlowControlledStreamObserver<>(
+            EntityDataServiceGrpc.getQueryMethod(), mockResponseObserver);
+
+    assertTrue(responseStream.isCancelled());
+    responseStream.onNext(ENTITY);
+    responseStream.onError(new RuntimeException());
+    responseStream.onCompleted();
+
+    verify(mockResponseObserver, never()).onNext(any());
+    verify(mockResponseObserver, never()).onError(any());
+    verify(mockResponseObserver, never()).onCompleted();
+  }
+
+  @Test
+  public void dropsResponsesOnceTheStreamIsTerminated() {
+    ServerCallStreamObserver<Entity> mockResponseObserver = mock(ServerCallStreamObserver.class);
+    // A closed call is never ready again
+    when(mockResponseObserver.isReady()).thenReturn(false);
+    FlowControlledStreamObserver<Entity> responseStream =
+        new FlowControlledStreamObserver<>(
+            EntityDataServiceGrpc.getQueryMethod(), mockResponseObserver);
+
+    responseStream.onError(new RuntimeException());
+    assertTimeoutPreemptively(Duration.ofSeconds(5), () -> responseStream.onNext(ENTITY));
+    responseStream.onCompleted();
+
+    assertTrue(responseStream.isCancelled());
+    verify(mockResponseObserver).onError(any());
+    verify(mockResponseObserver, never()).onNext(any());
+    verify(mockResponseObserver, never()).onCompleted();
+  }
+
+  @Test
+  public void dropsResponsesOnceTheContextIsCancelled() {
+    StreamObserver<Entity> mockResponseObserver = mock(StreamObserver.class);
+    CancellableContext context = Context.current().withCancellation();
+    AtomicReference<FlowControlledStreamObserver<Entity>> responseStream =
+        new AtomicReference<>();
+    context.run(
+        () ->
+            responseStream.set(
+                new FlowControlledStreamObserver<>(
+                    EntityDataServiceGrpc.getQueryMethod(), mockResponseObserver)));
+
+    responseStream.get().onNext(ENTITY);
+    context.cancel(null);
+    responseStream.get().onNext(ENTITY);
+    responseStream.get().onCompleted();
+
+    assertTrue(responseStream.get().isCancelled());
+    verify(mockResponseObserver, times(1)).onNext(ENTITY);
+    verify(mockResponseObserver, never()).onCompleted();
+  }
+}
@@ -6,6 +6,7 @@ import io.grpc.ManagedChannelBuilder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import org.hypertrace.core.serviceframework.IntegrationTestServerUtil;
@@ -13,6 +14,10 @@ import org.hypertrace.entity.constants.v1.CommonAttribute;
 import org.hypertrace.entity.data.service.client.EntityDataServiceClient;
 import org.hypertrace.entity.data.service.v1.EntityRelationship;
 import org.hypertrace.entity.data.service.v1.EntityRelationships;
+import org.hypertrace.entity.data.service.v1.RelationshipDegreesRequest;
+import org.hypertrace.entity.data.service.v1.RelationshipTraversal;
+import org.hypertrace.entity.data.service.v1.RelationshipsQuery;
+import org.hypertrace.entity.data.service.v1.TraversalDirection;
 import org.hypertrace.entity.service.client.config.EntityServiceClientConfig;
 import org.hypertrace.entity.service.client.config.EntityServiceTestConfig;
 import org.hypertrace.entity.service.constants.EntityConstants;
@@ -125,4 +130,123 @@ public class EntityDataServiceRelationshipsTest {
         .forEachRemaining(relationships::add);
     Assertions.assertEquals(1, relationships.size());
   }
+
+  @Test
+  public void testPageAndCountEntityRelationships() {
+    String relationshipType = "PAGED_" + UUID.randomUUID();
+    String fromEntityId = UUID.randomUUID().toString();
+    EntityRelationships.Builder relationshipsBuilder = EntityRelationships.newBuilder();
+    for (int i = 0; i < 5; i++) {
+      relationshipsBuilder.addRelationship(EntityRelationship.newBuilder()
+          .setFromEntityId(fromEntityId)
+          .setToEntityId(UUID.randomUUID().toString())
+          .setEntityRelationshipType(relationshipType)
+          .build());
+    }
+    entityDataServiceClient.upsertRelationships(TENANT_ID, relationshipsBuilder.build());
+
+    RelationshipsQuery query = RelationshipsQuery.newBuilder()
+        .addEntityRelationship(relationshipType)
+        .setLimit(2)
+        .build();
+    Assertions.assertEquals(5, entityDataServiceClient.countRelationships(TENANT_ID, query));
+
+    List<EntityRelationship> relationships = new ArrayList<>();
+    int pageCount = 0;
+    List<EntityRelationship> page;
+    do {
+      page = new ArrayList<>();
+      entityDataServiceClient.getRelationships(TENANT_ID, query).forEachRemaining(page::add);
+      relationships.addAll(page);
+      if (!page.isEmpty()) {
+        query = query.toBuilder().setStartAfter(page.get(page.size() - 1)).build();
+      }
+      pageCount++;
+    } while (page.size() == query.getLimit());
+
+    Assertions.assertEquals(3, pageCount);
+    Assertions.assertEquals(5, relationships.size());
+    Assertions.assertEquals(5, relationships.stream().distinct().count());
+  }
+
+  @Test
+  public void testTraverseEntityRelationships() {
+    String relationshipType = "TRAVERSED_" + UUID.randomUUID();
+    String start = UUID.randomUUID().toString();
+    String middle = UUID.randomUUID().toString();
+    String end = UUID.randomUUID().toString();
+    entityDataServiceClient.upsertRelationships(TENANT_ID, EntityRelationships.newBuilder()
+        .addRelationship(buildRelationship(relationshipType, start, middle))
+        .addRelationship(buildRelationship(relationshipType, middle, end))
+        .addRelationship(buildRelationship(relationshipType, end, start))
+        .build());
+
+    List<EntityRelationship> relationships = new ArrayList<>();
+    entityDataServiceClient.traverseRelationships(TENANT_ID, RelationshipTraversal.newBuilder()
+        .addStartEntityId(start)
+        .addHopRelationshipType(relationshipType)
+        .setMaxDepth(5)
+        .build())
+        .forEachRemaining(relationships::add);
+
+    // The cycle back to the start is followed once, but not expanded again
+    Assertions.assertEquals(3, relationships.size());
+    Assertions.assertEquals(middle, relationships.get(0).getToEntityId());
+    Assertions.assertEquals(start, relationships.get(2).getToEntityId());
+
+    relationships.clear();
+    entityDataServiceClient.traverseRelationships(TENANT_ID, RelationshipTraversal.newBuilder()
+        .addStartEntityId(start)
+        .addHopRelationshipType(relationshipType)
+        .setDirection(TraversalDirection.INCOMING)
+        .setMaxDepth(1)
+        .build())
+        .forEachRemaining(relationships::add);
+    Assertions.assertEquals(1, relationships.size());
+    Assertions.assertEquals(end, relationships.get(0).getFromEntityId());
+  }
+
+  @Test
+  public void testRelationshipsExistenceAndDegrees() {
+    String relationshipType = "COUNTED_" + UUID.randomUUID();
+    String from = UUID.randomUUID().toString();
+    String firstTo = UUID.randomUUID().toString();
+    String secondTo = UUID.randomUUID().toString();
+    entityDataServiceClient.upsertRelationships(TENANT_ID, EntityRelationships.newBuilder()
+        .addRelationship(buildRelationship(relationshipType, from, firstTo))
+        .addRelationship(buildRelationship(relationshipType, from, secondTo))
+        .build());
+
+    Assertions.assertEquals(List.of(true, false, true),
+        entityDataServiceClient.relationshipsExist(TENANT_ID, EntityRelationships.newBuilder()
+            .addRelationship(buildRelationship(relationshipType, from, firstTo))
+            .addRelationship(buildRelationship(relationshipType, firstTo, from))
+            .addRelationship(buildRelationship(relationshipType, from, secondTo))
+            .build()));
+
+    Assertions.assertEquals(Map.of(from, 2L, firstTo, 0L),
+        entityDataServiceClient.getRelationshipDegrees(TENANT_ID,
+            RelationshipDegreesRequest.newBuilder()
+                .addEntityId(from)
+                .addEntityId(firstTo)
+                .addEntityRelationship(relationshipType)
+                .build()));
+    Assertions.assertEquals(Map.of(from, 0L, firstTo, 1L),
+        entityDataServiceClient.getRelationshipDegrees(TENANT_ID,
+            RelationshipDegreesRequest.newBuilder()
+                .addEntityId(from)
+                .addEntityId(firstTo)
+                .addEntityRelationship(relationshipType)
+                .setDirection(TraversalDirection.INCOMING)
+                .build()));
+  }
+
+  private static EntityRelationship buildRelationship(
+      String relationshipType, String fromEntityId, String toEntityId) {
+    return EntityRelationship.newBuilder()
+        .setFromEntityId(fromEntityId)
+        .setToEntityId(toEntityId)
+        .setEntityRelationshipType(relationshipType)
+        .build();
+  }
 }
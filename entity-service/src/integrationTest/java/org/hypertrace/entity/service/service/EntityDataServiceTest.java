@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -14,6 +15,7 @@ import io.grpc.ManagedChannelBuilder;
 import io.grpc.Status.Code;
 import io.grpc.StatusRuntimeException;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -31,6 +33,8 @@ import org.hypertrace.entity.data.service.v1.ByTypeAndIdentifyingAttributes;
 import org.hypertrace.entity.data.service.v1.EnrichedEntities;
 import org.hypertrace.entity.data.service.v1.EnrichedEntity;
 import org.hypertrace.entity.data.service.v1.Entity;
+import org.hypertrace.entity.data.service.v1.EntityPatch;
+import org.hypertrace.entity.data.service.v1.EntityQueryPage;
 import org.hypertrace.entity.data.service.v1.Operator;
 import org.hypertrace.entity.data.service.v1.OrderByExpression;
 import org.hypertrace.entity.data.service.v1.Query;
@@ -223,6 +227,36 @@ public class EntityDataServiceTest {
     assertEquals(firstCreatedEntity, secondCreatedEntity);
   }
 
+  @Test
+  public void testPatchEntity() {
+    String entityId = UUID.randomUUID().toString();
+    Entity patchedEntity = entityDataServiceClient.patch(TENANT_ID, EntityPatch.newBuilder()
+        .setEntity(Entity.newBuilder()
+            .setEntityType(TEST_ENTITY_TYPE_V2)
+            .setEntityId(entityId)
+            .setEntityName("Test patched entity")
+            .putAttributes("foo", generateRandomUUIDAttrValue())
+            .putAttributes("bar", generateRandomUUIDAttrValue()))
+        .build());
+    // Created from the patch as it does not exist yet
+    assertNotNull(patchedEntity);
+    assertEquals("Test patched entity", patchedEntity.getEntityName());
+    assertEquals(2, patchedEntity.getAttributesCount());
+
+    AttributeValue bazValue = generateRandomUUIDAttrValue();
+    Entity repatchedEntity = entityDataServiceClient.patch(TENANT_ID, EntityPatch.newBuilder()
+        .setEntity(Entity.newBuilder()
+            .setEntityType(TEST_ENTITY_TYPE_V2)
+            .setEntityId(entityId)
+            .putAttributes("baz", bazValue))
+        .addRemovedAttribute("bar")
+        .build());
+    assertEquals(
+        patchedEntity.toBuilder().removeAttributes("bar").putAttributes("baz", bazValue).build(),
+        repatchedEntity);
+    assertEquals(repatchedEntity, entityDataServiceClient.getById(TENANT_ID, entityId));
+  }
+
   @Test
   public void testDeleteEntity() {
     Entity entity = Entity.newBuilder()
@@ -293,6 +327,39 @@ public class EntityDataServiceTest {
     assertEquals(createdEntity, foundEntity);
   }
 
+  @Test
+  public void testEntityGetByTypesAndIdentifyingAttributes() {
+    AttributeValue identifyingAttrValue = generateRandomUUIDAttrValue();
+    Entity createdEntity = entityDataServiceClient.upsert(Entity.newBuilder()
+        .setTenantId(TENANT_ID)
+        .setEntityType(EntityType.K8S_POD.name())
+        .setEntityName("Some Service")
+        .putIdentifyingAttributes(
+            EntityConstants.getValue(CommonAttribute.COMMON_ATTRIBUTE_EXTERNAL_ID),
+            identifyingAttrValue)
+        .build());
+    assertNotNull(createdEntity);
+
+    ByTypeAndIdentifyingAttributes missingLookup =
+        ByTypeAndIdentifyingAttributes.newBuilder().setEntityType(EntityType.K8S_POD.name())
+            .putIdentifyingAttributes(
+                EntityConstants.getValue(CommonAttribute.COMMON_ATTRIBUTE_EXTERNAL_ID),
+                generateRandomUUIDAttrValue())
+            .build();
+    ByTypeAndIdentifyingAttributes existingLookup =
+        ByTypeAndIdentifyingAttributes.newBuilder().setEntityType(EntityType.K8S_POD.name())
+            .putIdentifyingAttributes(
+                EntityConstants.getValue(CommonAttribute.COMMON_ATTRIBUTE_EXTERNAL_ID),
+                identifyingAttrValue)
+            .build();
+    List<Entity> foundEntities = entityDataServiceClient.getByTypesAndIdentifyingAttributes(
+        TENANT_ID, List.of(missingLookup, existingLookup));
+
+    assertEquals(2, foundEntities.size());
+    assertNull(foundEntities.get(0));
+    assertEquals(createdEntity, foundEntities.get(1));
+  }
+
   @Test
   public void testEntityQuery() {
     Entity entity1 = Entity.newBuilder()
@@ -806,6 +873,98 @@ public class EntityDataServiceTest {
     assertEquals(entity2, actualEntity2);
   }
 
+  @Test
+  public void testBulkUpsertEnrichedEntitiesReportingFailures() {
+    EnrichedEntity entity1 = EnrichedEntity.newBuilder()
+        .setTenantId(TENANT_ID)
+        .setEntityType(EntityType.K8S_POD.name())
+        .setEntityName("Some Service")
+        .setEntityId(UUID.randomUUID().toString())
+        .build();
+    EnrichedEntity entity2 = EnrichedEntity.newBuilder()
+        .setTenantId(TENANT_ID)
+        .setEntityType(EntityType.K8S_POD.name())
+        .setEntityName("Some other Service")
+        .setEntityId(UUID.randomUUID().toString())
+        .build();
+
+    List<String> failedEntityIds = entityDataServiceClient.bulkUpsertEnrichedEntities(TENANT_ID,
+        EnrichedEntities.newBuilder().addEntities(entity1).addEntities(entity2).build());
+
+    assertTrue(failedEntityIds.isEmpty());
+    assertEquals(entity1,
+        entityDataServiceClient.getEnrichedEntityById(TENANT_ID, entity1.getEntityId()));
+    assertEquals(entity2,
+        entityDataServiceClient.getEnrichedEntityById(TENANT_ID, entity2.getEntityId()));
+  }
+
+  @Test
+  public void testGetEnrichedEntitiesByIds() {
+    EnrichedEntity entity1 = EnrichedEntity.newBuilder()
+        .setTenantId(TENANT_ID)
+        .setEntityType(EntityType.K8S_POD.name())
+        .setEntityName("Some Service")
+        .setEntityId(UUID.randomUUID().toString())
+        .build();
+    EnrichedEntity entity2 = EnrichedEntity.newBuilder()
+        .setTenantId(TENANT_ID)
+        .setEntityType(EntityType.K8S_POD.name())
+        .setEntityName("Some other Service")
+        .setEntityId(UUID.randomUUID().toString())
+        .build();
+    entityDataServiceClient.upsertEnrichedEntities(TENANT_ID,
+        EnrichedEntities.newBuilder().addEntities(entity1).addEntities(entity2).build());
+
+    String missingEntityId = UUID.randomUUID().toString();
+    Map<String, EnrichedEntity> entities = entityDataServiceClient.getEnrichedEntitiesByIds(
+        TENANT_ID, List.of(entity1.getEntityId(), missingEntityId, entity2.getEntityId()));
+
+    assertEquals(Map.of(entity1.getEntityId(), entity1, entity2.getEntityId(), entity2), entities);
+  }
+
+  @Test
+  public void testGetEnrichedEntitiesByTypesAndIdentifyingAttributes() {
+    AttributeValue identifyingAttrValue = generateRandomUUIDAttrValue();
+    // The raw entity is given the id generated from its identifying attributes
+    Entity createdEntity = entityDataServiceClient.upsert(Entity.newBuilder()
+        .setTenantId(TENANT_ID)
+        .setEntityType(EntityType.K8S_POD.name())
+        .setEntityName("Some Service")
+        .putIdentifyingAttributes(
+            EntityConstants.getValue(CommonAttribute.COMMON_ATTRIBUTE_EXTERNAL_ID),
+            identifyingAttrValue)
+        .build());
+    EnrichedEntity enrichedEntity = EnrichedEntity.newBuilder()
+        .setTenantId(TENANT_ID)
+        .setEntityType(createdEntity.getEntityType())
+        .setEntityName(createdEntity.getEntityName())
+        .setEntityId(createdEntity.getEntityId())
+        .putAllIdentifyingAttributes(createdEntity.getIdentifyingAttributesMap())
+        .build();
+    entityDataServiceClient.upsertEnrichedEntities(TENANT_ID,
+        EnrichedEntities.newBuilder().addEntities(enrichedEntity).build());
+
+    ByTypeAndIdentifyingAttributes missingLookup =
+        ByTypeAndIdentifyingAttributes.newBuilder().setEntityType(EntityType.K8S_POD.name())
+            .putIdentifyingAttributes(
+                EntityConstants.getValue(CommonAttribute.COMMON_ATTRIBUTE_EXTERNAL_ID),
+                generateRandomUUIDAttrValue())
+            .build();
+    ByTypeAndIdentifyingAttributes existingLookup =
+        ByTypeAndIdentifyingAttributes.newBuilder().setEntityType(EntityType.K8S_POD.name())
+            .putIdentifyingAttributes(
+                EntityConstants.getValue(CommonAttribute.COMMON_ATTRIBUTE_EXTERNAL_ID),
+                identifyingAttrValue)
+            .build();
+    List<EnrichedEntity> foundEntities =
+        entityDataServiceClient.getEnrichedEntitiesByTypesAndIdentifyingAttributes(
+            TENANT_ID, List.of(missingLookup, existingLookup));
+
+    assertEquals(2, foundEntities.size());
+    assertNull(foundEntities.get(0));
+    assertEquals(enrichedEntity, foundEntities.get(1));
+  }
+
   @Test
   public void testEntityQueryOrderBy() {
     Entity entity1 = Entity.newBuilder()
@@ -874,6 +1033,114 @@ public class EntityDataServiceTest {
 
   }
 
+  @Test
+  public void testEntityQuerySelections() {
+    Entity createdEntity = entityDataServiceClient.upsert(Entity.newBuilder()
+        .setTenantId(TENANT_ID)
+        .setEntityType(EntityType.K8S_POD.name())
+        .setEntityName("Selected Service " + UUID.randomUUID())
+        .putIdentifyingAttributes(
+            EntityConstants.getValue(CommonAttribute.COMMON_ATTRIBUTE_EXTERNAL_ID),
+            generateRandomUUIDAttrValue())
+        .build());
+    assertNotNull(createdEntity);
+
+    Query query = Query.newBuilder()
+        .addEntityId(createdEntity.getEntityId())
+        .addSelection("entityName")
+        .build();
+    List<Entity> entities = entityDataServiceClient.query(TENANT_ID, query);
+
+    assertEquals(1, entities.size());
+    assertEquals(
+        Entity.newBuilder()
+            .setTenantId(TENANT_ID)
+            .setEntityId(createdEntity.getEntityId())
+            .setEntityType(createdEntity.getEntityType())
+            .setEntityName(createdEntity.getEntityName())
+            .build(),
+        entities.get(0));
+  }
+
+  @Test
+  public void testEntityQueryPages() {
+    String entityType = EntityType.K8S_POD.name();
+    String entityName = "Paged Service " + UUID.randomUUID();
+    List<Entity> createdEntities = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      createdEntities.add(entityDataServiceClient.upsert(Entity.newBuilder()
+          .setTenantId(TENANT_ID)
+          .setEntityType(entityType)
+          .setEntityName(entityName)
+          .putIdentifyingAttributes(
+              EntityConstants.getValue(CommonAttribute.COMMON_ATTRIBUTE_EXTERNAL_ID),
+              generateRandomUUIDAttrValue())
+          .build()));
+    }
+
+    Query query = Query.newBuilder()
+        .setEntityType(entityType)
+        .setEntityName(entityName)
+        .setLimit(2)
+        .build();
+    List<Entity> pagedEntities = new ArrayList<>();
+    int pageCount = 0;
+    EntityQueryPage page;
+    do {
+      page = entityDataServiceClient.queryPage(TENANT_ID, query);
+      pagedEntities.addAll(page.getEntityList());
+      query = query.toBuilder().setContinuationToken(page.getContinuationToken()).build();
+      pageCount++;
+    } while (!page.getContinuationToken().isEmpty());
+
+    assertEquals(3, pageCount);
+    assertEquals(5, pagedEntities.size());
+    assertTrue(pagedEntities.containsAll(createdEntities));
+  }
+
+  @Test
+  public void testEntityQueryPagesOrderedByMissingField() {
+    String entityType = EntityType.K8S_POD.name();
+    String entityName = "Sparsely ranked Service " + UUID.randomUUID();
+    List<Entity> createdEntities = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Entity.Builder entity = Entity.newBuilder()
+          .setTenantId(TENANT_ID)
+          .setEntityType(entityType)
+          .setEntityName(entityName)
+          .putIdentifyingAttributes(
+              EntityConstants.getValue(CommonAttribute.COMMON_ATTRIBUTE_EXTERNAL_ID),
+              generateRandomUUIDAttrValue());
+      // Half of the entities have no rank at all
+      if (i % 2 == 0) {
+        entity.putAttributes(
+            "rank",
+            AttributeValue.newBuilder().setValue(Value.newBuilder().setInt(i)).build());
+      }
+      createdEntities.add(entityDataServiceClient.upsert(entity.build()));
+    }
+
+    Query query = Query.newBuilder()
+        .setEntityType(entityType)
+        .setEntityName(entityName)
+        .addOrderBy(
+            OrderByExpression.newBuilder()
+                .setOrder(SortOrder.DESC)
+                .setName("attributes.rank.value.int"))
+        .setLimit(1)
+        .build();
+    List<Entity> pagedEntities = new ArrayList<>();
+    EntityQueryPage page;
+    do {
+      page = entityDataServiceClient.queryPage(TENANT_ID, query);
+      pagedEntities.addAll(page.getEntityList());
+      query = query.toBuilder().setContinuationToken(page.getContinuationToken()).build();
+    } while (!page.getContinuationToken().isEmpty());
+
+    assertEquals(4, pagedEntities.size());
+    assertTrue(pagedEntities.containsAll(createdEntities));
+  }
+
   private AttributeValue generateRandomUUIDAttrValue() {
     return AttributeValue.newBuilder()
         .setValue(Value.newBuilder()
@@ -269,10 +269,10 @@ public class EntityQueryServiceTest {
     assertEquals(createdEntity5.getEntityId(), list.get(2).getRow(0).getColumn(0).getString());
     assertEquals(createdEntity5.getEntityName(), list.get(2).getRow(0).getColumn(1).getString());
 
-    // metadata sent for each chunk
+    // metadata sent in the first chunk only
     assertTrue(list.get(0).getResultSetMetadata().getColumnMetadataCount() > 0);
-    assertTrue(list.get(1).getResultSetMetadata().getColumnMetadataCount() > 0);
-    assertTrue(list.get(2).getResultSetMetadata().getColumnMetadataCount() > 0);
+    assertFalse(list.get(1).hasResultSetMetadata());
+    assertFalse(list.get(2).hasResultSetMetadata());
   }
 
   @Test
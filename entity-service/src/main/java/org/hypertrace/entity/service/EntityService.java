@@ -52,12 +52,16 @@ public class EntityService extends PlatformService {
     ManagedChannel localChannel =
         ManagedChannelBuilder.forAddress("localhost", port).usePlaintext().build();
     this.getLifecycle().shutdownComplete().thenRun(localChannel::shutdown);
+    EntityDataServiceImpl entityDataService =
+        new EntityDataServiceImpl(datastore, localChannel, getAppConfig());
     server = ServerBuilder.forPort(port)
         .addService(InterceptorUtil.wrapInterceptors(new org.hypertrace.entity.type.service.EntityTypeServiceImpl(datastore)))
         .addService(InterceptorUtil.wrapInterceptors(new EntityTypeServiceImpl(datastore)))
-        .addService(InterceptorUtil.wrapInterceptors(new EntityDataServiceImpl(datastore, localChannel)))
+        .addService(InterceptorUtil.wrapInterceptors(entityDataService))
         .addService(
-            InterceptorUtil.wrapInterceptors(new EntityQueryServiceImpl(datastore, getAppConfig())))
+            InterceptorUtil.wrapInterceptors(
+                new EntityQueryServiceImpl(
+                    datastore, getAppConfig(), entityDataService.getEntitiesWriteListener())))
         .build();
     scheduledExecutorService.scheduleAtFixedRate(() -> {
       if (!datastore.healthCheck()) {